@@ -4,25 +4,72 @@ package com.commercetools.sunrise.email;
  * An unchecked exception signalling that an e-mail could not be sent due to issues that arose from
  * either the e-mail itself or from the e-mail infrastructure.
  * <p>
- * Exceptions of this type will often wrap a lower-level exception.
+ * Exceptions of this type will often wrap a lower-level exception. If the failure has been classified by the
+ * {@link EmailSender}, {@link #getReplyCode()} and {@link #isPermanent()} tell whether sending the e-mail again may
+ * succeed.
  *
  * @see Exception#getCause()
  */
 public class EmailDeliveryException extends EmailSenderException {
 
+    /**
+     * The value of {@link #getReplyCode()} if the failure was not caused by a reply of the mail server.
+     */
+    public static final int NO_REPLY_CODE = -1;
+
+    private final int replyCode;
+
+    private final boolean permanent;
+
     public EmailDeliveryException(final String message) {
         super(message);
+        this.replyCode = NO_REPLY_CODE;
+        this.permanent = false;
     }
 
     public EmailDeliveryException(final String message, final Throwable cause) {
         super(message, cause);
+        this.replyCode = NO_REPLY_CODE;
+        this.permanent = false;
     }
 
     public EmailDeliveryException(final Throwable cause) {
         super(cause);
+        this.replyCode = NO_REPLY_CODE;
+        this.permanent = false;
     }
 
     public EmailDeliveryException(final String message, final Throwable cause, final boolean enableSuppression, final boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
+        this.replyCode = NO_REPLY_CODE;
+        this.permanent = false;
+    }
+
+    /**
+     * @param message   the detail message
+     * @param cause     the lower-level exception
+     * @param replyCode the reply code of the mail server that caused the failure, or {@link #NO_REPLY_CODE}
+     * @param permanent whether sending the e-mail again will fail, too
+     */
+    public EmailDeliveryException(final String message, final Throwable cause, final int replyCode, final boolean permanent) {
+        super(message, cause);
+        this.replyCode = replyCode;
+        this.permanent = permanent;
+    }
+
+    /**
+     * @return the reply code of the mail server that caused the failure, e.g. 450 or 550, or {@link #NO_REPLY_CODE}
+     * if there was no such reply, e.g. because the connection failed
+     */
+    public int getReplyCode() {
+        return replyCode;
+    }
+
+    /**
+     * @return {@code true} if sending the e-mail again will fail, too, e.g. because a recipient does not exist;
+     * {@code false} if the failure may be temporary or has not been classified
+     */
+    public boolean isPermanent() {
+        return permanent;
     }
 }
@@ -0,0 +1,26 @@
+package com.commercetools.sunrise.email;
+
+/**
+ * The urgency of an e-mail, which implementations of {@link EmailSender} may use to decide which e-mails to send first
+ * or which e-mails to drop if they are overloaded. The constants are declared from the highest to the lowest priority.
+ *
+ * @see SendOptions#withPriority(EmailPriority)
+ */
+public enum EmailPriority {
+
+    /**
+     * E-mails that a user is waiting for, e.g. password resets or order confirmations.
+     */
+    TRANSACTIONAL,
+
+    /**
+     * The default priority.
+     */
+    NORMAL,
+
+    /**
+     * E-mails sent in large numbers that nobody is waiting for, e.g. newsletters.
+     */
+    BULK
+
+}
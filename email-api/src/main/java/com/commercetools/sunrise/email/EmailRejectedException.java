@@ -0,0 +1,27 @@
+package com.commercetools.sunrise.email;
+
+/**
+ * An unchecked exception signalling that an e-mail was not accepted for delivery and has not been sent, e.g. because
+ * the {@link EmailSender} is overloaded.
+ * <p>
+ * In contrast to other {@link EmailDeliveryException}s, no attempt has been made to send the e-mail, so it is safe to
+ * send it again later.
+ */
+public class EmailRejectedException extends EmailDeliveryException {
+
+    public EmailRejectedException(final String message) {
+        super(message);
+    }
+
+    public EmailRejectedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public EmailRejectedException(final Throwable cause) {
+        super(cause);
+    }
+
+    public EmailRejectedException(final String message, final Throwable cause, final boolean enableSuppression, final boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+}
@@ -2,6 +2,9 @@ package com.commercetools.sunrise.email;
 
 import javax.annotation.Nonnull;
 import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
@@ -85,4 +88,54 @@ public interface EmailSender {
     @Nonnull
     CompletionStage<String> send(@Nonnull final MessageEditor messageEditor);
 
+    /**
+     * Create a completion stage that asynchronously sends an e-mail like {@link #send(MessageEditor)}, taking the
+     * given options into account.
+     * <p>
+     * The default implementation ignores the options and invokes {@link #send(MessageEditor)}. Implementations that
+     * support options override this method.
+     *
+     * @param messageEditor the editor that fills the message, see {@link #send(MessageEditor)}
+     * @param options       how to send this e-mail, e.g. with which priority
+     * @return a completion stage like the one returned by {@link #send(MessageEditor)}
+     * @throws EmailCreationException if there was an error while creating or filling the message
+     */
+    @Nonnull
+    default CompletionStage<String> send(@Nonnull final MessageEditor messageEditor,
+                                         @Nonnull final SendOptions options) {
+        return send(messageEditor);
+    }
+
+    /**
+     * Create completion stages that asynchronously send a batch of e-mails using the configuration of this e-mail
+     * service. Each {@link MessageEditor} is invoked like in {@link #send(MessageEditor)} before this method returns.
+     * <p>
+     * The default implementation invokes {@link #send(MessageEditor)} for each editor. Implementations may override
+     * this method to send the batch more efficiently, e.g. by sending many messages over the same connection.
+     * <h1>Exception handling</h1>
+     * In contrast to {@link #send(MessageEditor)}, this method does not throw {@link EmailCreationException}s. If a
+     * message of the batch cannot be created, the completion stage of that message contains the
+     * {@link EmailCreationException} and the other messages of the batch are sent nevertheless. Exceptions that occur
+     * while sending an e-mail are contained in the completion stage of that e-mail as described in
+     * {@link #send(MessageEditor)}.
+     *
+     * @param messageEditors the editors that fill one message each, see {@link #send(MessageEditor)}
+     * @return one completion stage per editor, in the iteration order of the given collection, each containing a
+     * string identifying the delivered email, an {@link EmailCreationException} or an {@link EmailDeliveryException}
+     */
+    @Nonnull
+    default List<CompletionStage<String>> sendAll(@Nonnull final Collection<? extends MessageEditor> messageEditors) {
+        final List<CompletionStage<String>> results = new ArrayList<>(messageEditors.size());
+        for (final MessageEditor messageEditor : messageEditors) {
+            try {
+                results.add(send(messageEditor));
+            } catch (EmailCreationException e) {
+                final CompletableFuture<String> failure = new CompletableFuture<>();
+                failure.completeExceptionally(e);
+                results.add(failure);
+            }
+        }
+        return results;
+    }
+
 }
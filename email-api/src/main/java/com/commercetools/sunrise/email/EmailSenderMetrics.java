@@ -0,0 +1,74 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A listener that an {@link EmailSender} notifies about the e-mails it sends, e.g. to record latencies or to forward
+ * them to a metrics library like Micrometer or Dropwizard Metrics.
+ * <p>
+ * Methods are invoked on the threads that send e-mails, often concurrently, so implementations must be thread-safe
+ * and must return quickly. All methods do nothing by default, so implementations only override the methods they need.
+ * {@link HistogramEmailSenderMetrics} is an implementation that records all values in memory.
+ */
+public interface EmailSenderMetrics {
+
+    /**
+     * Invoked when a phase of sending an e-mail has completed successfully.
+     *
+     * @param phase         the phase
+     * @param durationNanos how long the phase took in nanoseconds
+     */
+    default void recordPhase(@Nonnull final SendPhase phase, final long durationNanos) {
+    }
+
+    /**
+     * Invoked when an e-mail has been sent.
+     */
+    default void recordSuccess() {
+    }
+
+    /**
+     * Invoked when an e-mail could not be created or sent.
+     *
+     * @param failure the exception the e-mail failed with, typically an {@link EmailSenderException}
+     */
+    default void recordFailure(@Nonnull final Throwable failure) {
+    }
+
+    /**
+     * Invoked when the content of an e-mail has been transferred to the mail server.
+     *
+     * @param bytes the size of the transferred content in bytes
+     */
+    default void recordBytesSent(final long bytes) {
+    }
+
+    /**
+     * Invoked when an e-mail has been added to or taken from the send queue.
+     *
+     * @param depth the number of e-mails in the send queue
+     */
+    default void recordQueueDepth(final int depth) {
+    }
+
+    /**
+     * Invoked when an e-mail has been added to or taken from the send queue, in addition to
+     * {@link #recordQueueDepth(int)}, for senders that queue e-mails per {@link EmailPriority}.
+     *
+     * @param priority the priority of the e-mail
+     * @param depth    the number of e-mails with this priority in the send queue
+     */
+    default void recordQueueDepth(@Nonnull final EmailPriority priority, final int depth) {
+    }
+
+    /**
+     * Invoked when an e-mail has been taken from the send queue, in addition to
+     * {@link #recordPhase(SendPhase, long)} for {@link SendPhase#QUEUE}, for senders that queue e-mails per
+     * {@link EmailPriority}.
+     *
+     * @param priority  the priority of the e-mail
+     * @param waitNanos how long the e-mail waited in the send queue in nanoseconds
+     */
+    default void recordQueueWait(@Nonnull final EmailPriority priority, final long waitNanos) {
+    }
+}
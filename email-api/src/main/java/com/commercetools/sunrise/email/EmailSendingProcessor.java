@@ -0,0 +1,271 @@
+package com.commercetools.sunrise.email;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A <a href="http://www.reactive-streams.org/">Reactive Streams</a> processor that sends the e-mails filled by the
+ * {@link MessageEditor}s it receives with an {@link EmailSender}, and publishes one {@link SendResult} per e-mail.
+ * <p>
+ * The processor requests e-mails from its publisher only as sending e-mails and delivering their results frees
+ * capacity: at most {@code maxInFlight} e-mails are being sent or have results that wait for the demand of the
+ * subscriber. Hence a publisher of millions of e-mails, e.g. backed by a database cursor, is consumed with bounded
+ * memory at the pace of the SMTP server and of the subscriber. The following example uses a publisher and a subscriber
+ * of any Reactive Streams library.
+ * <pre>{@code
+ * EmailSendingProcessor processor = new EmailSendingProcessor(emailSender, SendOptions.defaults(), 100);
+ * recipientEditors.subscribe(processor);
+ * processor.subscribe(resultSubscriber);
+ * }</pre>
+ * Results are published in the order the e-mails complete, which may differ from the order of the editors. Failures
+ * to create or send an e-mail are published as results and do not terminate the stream. The processor completes, or
+ * fails with the error of its publisher, once all results have been published. If the subscriber cancels its
+ * subscription, the processor cancels its own subscription; e-mails that are already being sent are not cancelled.
+ * <p>
+ * A processor can be subscribed to one publisher and can be subscribed to by one subscriber. It does not request
+ * e-mails before it has a subscriber.
+ */
+public class EmailSendingProcessor implements Processor<MessageEditor, SendResult> {
+
+    private final EmailSender emailSender;
+
+    private final SendOptions options;
+
+    private final int maxInFlight;
+
+    private final AtomicReference<Subscription> upstream = new AtomicReference<>();
+
+    private final AtomicReference<Subscriber<? super SendResult>> downstream = new AtomicReference<>();
+
+    /**
+     * The results that wait for the demand of the subscriber.
+     */
+    private final Queue<SendResult> results = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of results the subscriber requested but did not receive yet.
+     */
+    private final AtomicLong requested = new AtomicLong();
+
+    /**
+     * The number of e-mails that are being sent.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The number of threads that want to {@link #drain()}; only the thread that increments it from zero drains.
+     */
+    private final AtomicInteger drainers = new AtomicInteger();
+
+    @Nullable
+    private volatile Throwable upstreamError;
+
+    private volatile boolean upstreamDone;
+
+    @Nullable
+    private volatile Throwable downstreamError;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Only accessed while draining.
+     */
+    private boolean started;
+
+    /**
+     * Only accessed while draining.
+     */
+    private boolean terminated;
+
+    /**
+     * Create a processor that sends e-mails with the given sender.
+     *
+     * @param emailSender the sender of the e-mails
+     * @param options     how to send each e-mail
+     * @param maxInFlight the maximum number of e-mails that are being sent or whose results wait for the subscriber
+     */
+    public EmailSendingProcessor(@Nonnull final EmailSender emailSender, @Nonnull final SendOptions options,
+                                 final int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("At least one e-mail must be allowed in flight: " + maxInFlight);
+        this.emailSender = emailSender;
+        this.options = options;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void onSubscribe(@Nonnull final Subscription subscription) {
+        if (!upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        if (cancelled) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(@Nonnull final MessageEditor messageEditor) {
+        inFlight.incrementAndGet();
+        CompletionStage<String> result;
+        try {
+            result = emailSender.send(messageEditor, options);
+        } catch (final Throwable t) {//the result must be published, or the processor would never complete
+            complete(SendResult.failure(messageEditor, t));
+            return;
+        }
+        result.whenComplete((messageId, throwable) -> {
+            if (throwable == null) {
+                complete(SendResult.success(messageEditor, messageId));
+            } else {
+                final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                        ? throwable.getCause()
+                        : throwable;
+                complete(SendResult.failure(messageEditor, cause));
+            }
+        });
+    }
+
+    @Override
+    public void onError(@Nonnull final Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+    @Override
+    public void subscribe(@Nonnull final Subscriber<? super SendResult> subscriber) {
+        if (!downstream.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The processor has a subscriber already"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription() {
+            @Override
+            public void request(final long n) {
+                if (n <= 0) {
+                    downstreamError = new IllegalArgumentException("The number of requested results must be "
+                            + "positive: " + n);
+                } else {
+                    requested.accumulateAndGet(n, (current, added) -> {
+                        final long sum = current + added;
+                        return sum < 0 ? Long.MAX_VALUE : sum;
+                    });
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+                final Subscription subscription = upstream.get();
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                drain();
+            }
+        });
+        drain();
+    }
+
+    private void complete(@Nonnull final SendResult result) {
+        results.add(result);
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * Requests e-mails from the publisher, publishes results to the subscriber, and terminates the subscriber. Runs in
+     * one thread at a time, which repeats the work if other threads wanted to drain in the meantime, so that no
+     * signal is lost.
+     */
+    private void drain() {
+        if (drainers.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            final Subscriber<? super SendResult> subscriber = downstream.get();
+            final Subscription subscription = upstream.get();
+            if (subscriber != null && subscription != null && !terminated) {
+                if (cancelled) {
+                    results.clear();
+                } else if (downstreamError != null) {
+                    terminated = true;
+                    subscription.cancel();
+                    results.clear();
+                    subscriber.onError(downstreamError);
+                } else {
+                    if (!started) {
+                        started = true;
+                        subscription.request(maxInFlight);
+                    }
+                    publishResults(subscriber, subscription);
+                    if (upstreamDone && inFlight.get() == 0 && results.isEmpty()) {
+                        terminated = true;
+                        final Throwable error = upstreamError;
+                        if (error != null) {
+                            subscriber.onError(error);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+            }
+            missed = drainers.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Publishes as many waiting results as the subscriber requested, and requests as many e-mails from the publisher
+     * as results have been published.
+     */
+    private void publishResults(@Nonnull final Subscriber<? super SendResult> subscriber,
+                                @Nonnull final Subscription subscription) {
+        final long demand = requested.get();
+        long published = 0;
+        while (published != demand && !cancelled) {
+            final SendResult result = results.poll();
+            if (result == null) {
+                break;
+            }
+            subscriber.onNext(result);
+            published++;
+        }
+        if (published > 0) {
+            if (demand != Long.MAX_VALUE) {
+                requested.addAndGet(-published);
+            }
+            if (!upstreamDone && !cancelled) {
+                subscription.request(published);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EmailSenderMetrics} that record all values in memory: a {@link LatencyHistogram} per {@link SendPhase}, and
+ * counters for successes, failures per {@link FailureType}, bytes sent and the depth of the send queue. The depth of
+ * and the time spent in the send queue are also recorded per {@link EmailPriority}. All updates are lock-free.
+ * <p>
+ * The recorded values may be read at any time, e.g. by a periodic task that publishes them to a monitoring system.
+ */
+public class HistogramEmailSenderMetrics implements EmailSenderMetrics {
+
+    /**
+     * Kinds of failures that are counted separately.
+     */
+    public enum FailureType {
+
+        /**
+         * The message could not be created, see {@link EmailCreationException}.
+         */
+        CREATION,
+
+        /**
+         * The message was not accepted for sending, see {@link EmailRejectedException}.
+         */
+        REJECTED,
+
+        /**
+         * Sending failed temporarily, see {@link EmailDeliveryException#isPermanent()}.
+         */
+        TEMPORARY,
+
+        /**
+         * Sending failed permanently or for an unknown reason.
+         */
+        PERMANENT
+    }
+
+    private final Map<SendPhase, LatencyHistogram> histograms = new EnumMap<>(SendPhase.class);
+
+    private final Map<FailureType, LongAdder> failures = new EnumMap<>(FailureType.class);
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final Map<EmailPriority, LatencyHistogram> queueWaits = new EnumMap<>(EmailPriority.class);
+
+    private final Map<EmailPriority, AtomicInteger> queueDepths = new EnumMap<>(EmailPriority.class);
+
+    private final Map<EmailPriority, AtomicInteger> maxQueueDepths = new EnumMap<>(EmailPriority.class);
+
+    public HistogramEmailSenderMetrics() {
+        for (final SendPhase phase : SendPhase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+        for (final FailureType type : FailureType.values()) {
+            failures.put(type, new LongAdder());
+        }
+        for (final EmailPriority priority : EmailPriority.values()) {
+            queueWaits.put(priority, new LatencyHistogram());
+            queueDepths.put(priority, new AtomicInteger());
+            maxQueueDepths.put(priority, new AtomicInteger());
+        }
+    }
+
+    @Override
+    public void recordPhase(@Nonnull final SendPhase phase, final long durationNanos) {
+        histograms.get(phase).record(durationNanos);
+    }
+
+    @Override
+    public void recordSuccess() {
+        successes.increment();
+    }
+
+    @Override
+    public void recordFailure(@Nonnull final Throwable failure) {
+        failures.get(typeOf(failure)).increment();
+    }
+
+    @Override
+    public void recordBytesSent(final long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void recordQueueDepth(final int depth) {
+        queueDepth.set(depth);
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    @Override
+    public void recordQueueDepth(@Nonnull final EmailPriority priority, final int depth) {
+        queueDepths.get(priority).set(depth);
+        maxQueueDepths.get(priority).accumulateAndGet(depth, Math::max);
+    }
+
+    @Override
+    public void recordQueueWait(@Nonnull final EmailPriority priority, final long waitNanos) {
+        queueWaits.get(priority).record(waitNanos);
+    }
+
+    /**
+     * @param phase the phase of sending
+     * @return the durations of the phase
+     */
+    @Nonnull
+    public LatencyHistogram getHistogram(@Nonnull final SendPhase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * @return the number of e-mails that have been sent
+     */
+    public long getSuccessCount() {
+        return successes.sum();
+    }
+
+    /**
+     * @param type the kind of failures
+     * @return the number of e-mails that failed with the given kind of failure
+     */
+    public long getFailureCount(@Nonnull final FailureType type) {
+        return failures.get(type).sum();
+    }
+
+    /**
+     * @return the total size of the content transferred to the mail server in bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return the most recently reported number of e-mails in the send queue
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the highest reported number of e-mails in the send queue
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @param priority the priority of e-mails
+     * @return the times e-mails with the given priority waited in the send queue
+     */
+    @Nonnull
+    public LatencyHistogram getQueueWaitHistogram(@Nonnull final EmailPriority priority) {
+        return queueWaits.get(priority);
+    }
+
+    /**
+     * @param priority the priority of e-mails
+     * @return the most recently reported number of e-mails with the given priority in the send queue
+     */
+    public int getQueueDepth(@Nonnull final EmailPriority priority) {
+        return queueDepths.get(priority).get();
+    }
+
+    /**
+     * @param priority the priority of e-mails
+     * @return the highest reported number of e-mails with the given priority in the send queue
+     */
+    public int getMaxQueueDepth(@Nonnull final EmailPriority priority) {
+        return maxQueueDepths.get(priority).get();
+    }
+
+    private static FailureType typeOf(@Nonnull final Throwable failure) {
+        if (failure instanceof EmailCreationException) {
+            return FailureType.CREATION;
+        } else if (failure instanceof EmailRejectedException) {
+            return FailureType.REJECTED;
+        } else if (failure instanceof EmailDeliveryException && !((EmailDeliveryException) failure).isPermanent()) {
+            return FailureType.TEMPORARY;
+        }
+        return FailureType.PERMANENT;
+    }
+}
@@ -0,0 +1,382 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link EmailSender} that does not send e-mails but keeps the most recent ones in memory, e.g. to load-test or
+ * stage an application without making an SMTP server its bottleneck, or to inspect the e-mails an application sends.
+ * <p>
+ * Each e-mail is created with its {@link MessageEditor} like a real sender does, so failures of editors surface as
+ * {@link EmailCreationException}s. The e-mail gets a message ID that is unique within the sender, and is recorded as a
+ * {@link Record} in a bounded ring buffer that keeps the last {@code capacity} records. Recording is lock-free: senders
+ * on many threads only contend on one atomic counter, so the sender handles millions of e-mails per second and the
+ * cost of sending is mostly that of the editors. Optionally, the sender serializes each e-mail in MIME format to
+ * include the cost of rendering it, delays the completion of sends to simulate the latency of an SMTP server, and
+ * fails a share of the sends with an {@link EmailDeliveryException} to exercise error handling.
+ * <pre>{@code
+ * InMemoryEmailSender emailSender = InMemoryEmailSender.builder()
+ *         .capacity(1024)
+ *         .serializeMessages(true)
+ *         .latency(5, 50, scheduler)
+ *         .failures(0.01, 451)
+ *         .build();
+ * }</pre>
+ * If a latency is configured, the returned stages complete on the threads of the given scheduler, so dependent
+ * actions should be quick or use an executor of their own. Otherwise they complete before {@link #send(MessageEditor)}
+ * returns.
+ */
+public class InMemoryEmailSender implements EmailSender {
+
+    private final Session session = Session.getInstance(new Properties());
+
+    private final AtomicReferenceArray<Record> records;
+
+    private final int mask;
+
+    /**
+     * The end of the message IDs, which distinguishes them from those of other senders.
+     */
+    private final String messageIdSuffix = "." + System.identityHashCode(this) + "@in-memory>";
+
+    /**
+     * The sequence number of the next record, i.e. the number of e-mails recorded so far.
+     */
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final boolean serializeMessages;
+
+    private final long minLatencyMs;
+
+    private final long maxLatencyMs;
+
+    @Nullable
+    private final ScheduledExecutorService scheduler;
+
+    private final double failureRate;
+
+    private final int failureReplyCode;
+
+    private InMemoryEmailSender(@Nonnull final Builder builder) {
+        this.records = new AtomicReferenceArray<>(builder.capacity);
+        this.mask = builder.capacity - 1;
+        this.serializeMessages = builder.serializeMessages;
+        this.minLatencyMs = builder.minLatencyMs;
+        this.maxLatencyMs = builder.maxLatencyMs;
+        this.scheduler = builder.scheduler;
+        this.failureRate = builder.failureRate;
+        this.failureReplyCode = builder.failureReplyCode;
+    }
+
+    /**
+     * @return a builder for a sender that keeps the last 1024 e-mails without serializing them, and completes every
+     * send immediately and successfully unless configured otherwise
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Nonnull
+    @Override
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
+        return send(messageEditor, SendOptions.defaults());
+    }
+
+    @Nonnull
+    @Override
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor,
+                                        @Nonnull final SendOptions options) {
+        final InMemoryMessage message = new InMemoryMessage(session);
+        byte[] content = null;
+        try {
+            messageEditor.edit(message);
+            message.sequence = nextSequence.getAndIncrement();
+            if (serializeMessages) {
+                message.saveChanges();
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                message.writeTo(bytes);
+                content = bytes.toByteArray();
+            } else {
+                message.updateMessageID();
+            }
+        } catch (Exception e) {
+            throw new EmailCreationException("Failed to create e-mail", e);
+        }
+        final String messageId = message.messageId();
+        final EmailDeliveryException failure = failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate
+                ? new EmailDeliveryException("Injected failure", null, failureReplyCode, failureReplyCode >= 500)
+                : null;
+        final Record record = new Record(message.sequence, messageId, options.getPriority(), message, content,
+                failure);
+        records.lazySet((int) record.sequence & mask, record);
+        if (failure != null) {
+            failures.increment();
+        }
+        return complete(messageId, failure);
+    }
+
+    private CompletionStage<String> complete(@Nonnull final String messageId,
+                                             @Nullable final EmailDeliveryException failure) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final Runnable completion = () -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(messageId);
+            }
+        };
+        if (scheduler != null) {
+            final long latencyMs = minLatencyMs == maxLatencyMs
+                    ? minLatencyMs
+                    : ThreadLocalRandom.current().nextLong(minLatencyMs, maxLatencyMs + 1);
+            scheduler.schedule(completion, latencyMs, TimeUnit.MILLISECONDS);
+        } else {
+            completion.run();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the records that are currently kept, oldest first. Records that are overwritten by concurrent sends
+     * while this method runs are left out, so the result is not necessarily contiguous.
+     *
+     * @return the most recent records, at most as many as the capacity of this sender
+     */
+    @Nonnull
+    public List<Record> getRecords() {
+        final long end = nextSequence.get();
+        final long start = Math.max(0, end - records.length());
+        final List<Record> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            final Record record = records.get((int) sequence & mask);
+            if (record != null && record.sequence == sequence) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of e-mails sent so far, including those that failed by injection
+     */
+    public long getSendCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * @return the number of e-mails that failed by injection so far
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * An e-mail that has been sent with an {@link InMemoryEmailSender}.
+     */
+    public static final class Record {
+
+        private final long sequence;
+
+        private final String messageId;
+
+        private final EmailPriority priority;
+
+        private final MimeMessage message;
+
+        @Nullable
+        private final byte[] content;
+
+        @Nullable
+        private final EmailDeliveryException failure;
+
+        private Record(final long sequence, @Nonnull final String messageId, @Nonnull final EmailPriority priority,
+                       @Nonnull final MimeMessage message, @Nullable final byte[] content,
+                       @Nullable final EmailDeliveryException failure) {
+            this.sequence = sequence;
+            this.messageId = messageId;
+            this.priority = priority;
+            this.message = message;
+            this.content = content;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the position of the e-mail among all e-mails sent with the sender, starting with 0
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the message ID the send completed with
+         */
+        @Nonnull
+        public String getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * @return the priority the e-mail was sent with
+         */
+        @Nonnull
+        public EmailPriority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the e-mail as filled by its editor
+         */
+        @Nonnull
+        public MimeMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * @return the e-mail in MIME format, or {@code null} if the sender does not serialize e-mails
+         */
+        @Nullable
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return the injected failure the send completed with, or {@code null} if it succeeded
+         */
+        @Nullable
+        public EmailDeliveryException getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * Creates {@link InMemoryEmailSender}s. A builder may be used to create several instances.
+     */
+    public static final class Builder {
+
+        private int capacity = 1024;
+
+        private boolean serializeMessages = false;
+
+        private long minLatencyMs = 0;
+
+        private long maxLatencyMs = 0;
+
+        @Nullable
+        private ScheduledExecutorService scheduler;
+
+        private double failureRate = 0;
+
+        private int failureReplyCode = EmailDeliveryException.NO_REPLY_CODE;
+
+        private Builder() {
+        }
+
+        /**
+         * Keep the given number of most recent e-mails.
+         *
+         * @param capacity the size of the ring buffer, a power of two
+         * @return this builder
+         */
+        public Builder capacity(final int capacity) {
+            if (capacity < 1 || Integer.bitCount(capacity) != 1)
+                throw new IllegalArgumentException("The capacity must be a positive power of two: " + capacity);
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Serialize each e-mail in MIME format, which updates its headers like a real sender does and makes the
+         * content available with {@link Record#getContent()}.
+         *
+         * @param serializeMessages whether to serialize e-mails
+         * @return this builder
+         */
+        public Builder serializeMessages(final boolean serializeMessages) {
+            this.serializeMessages = serializeMessages;
+            return this;
+        }
+
+        /**
+         * Complete each send after a random latency between the given bounds.
+         *
+         * @param minLatencyMs the minimum latency in milliseconds
+         * @param maxLatencyMs the maximum latency in milliseconds
+         * @param scheduler    the scheduler that completes the sends, which the sender does not shut down
+         * @return this builder
+         */
+        public Builder latency(final long minLatencyMs, final long maxLatencyMs,
+                               @Nonnull final ScheduledExecutorService scheduler) {
+            if (minLatencyMs < 0)
+                throw new IllegalArgumentException("The minimum latency must not be negative: " + minLatencyMs);
+            if (maxLatencyMs < minLatencyMs)
+                throw new IllegalArgumentException("The maximum latency must not be lower than the minimum latency: "
+                        + maxLatencyMs);
+            this.minLatencyMs = minLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Fail a random share of the sends with an {@link EmailDeliveryException} that carries the given reply code,
+         * and is permanent if the reply code is a 5xx code.
+         *
+         * @param failureRate the share of sends to fail, between 0 and 1
+         * @param replyCode   the reply code of the failures, or {@link EmailDeliveryException#NO_REPLY_CODE}
+         * @return this builder
+         */
+        public Builder failures(final double failureRate, final int replyCode) {
+            if (!(failureRate >= 0 && failureRate <= 1))
+                throw new IllegalArgumentException("The failure rate must be between 0 and 1: " + failureRate);
+            this.failureRate = failureRate;
+            this.failureReplyCode = replyCode;
+            return this;
+        }
+
+        /**
+         * @return the sender configured with this builder
+         */
+        public InMemoryEmailSender build() {
+            return new InMemoryEmailSender(this);
+        }
+    }
+
+    /**
+     * A message whose ID is derived from its sequence number, because the default message IDs of
+     * {@link MimeMessage} require the address of the local host.
+     */
+    private final class InMemoryMessage extends MimeMessage {
+
+        private long sequence;
+
+        private InMemoryMessage(@Nonnull final Session session) {
+            super(session);
+        }
+
+        @Override
+        protected void updateMessageID() throws MessagingException {
+            setHeader("Message-ID", messageId());
+        }
+
+        private String messageId() {
+            return "<" + sequence + messageIdSuffix;
+        }
+    }
+}
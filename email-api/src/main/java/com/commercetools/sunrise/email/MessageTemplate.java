@@ -0,0 +1,187 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Properties;
+
+/**
+ * The parts of a message that are the same for many e-mails, e.g. the sender, the subject and the body of a
+ * newsletter, encoded once such that e-mails created from the template only need to add the parts that differ.
+ * <p>
+ * A template is compiled from a {@link MessageEditor} that fills the common parts. The headers and body parts set by
+ * that editor are encoded (RFC 2047 headers, quoted-printable or base64 bodies) when the template is compiled; e-mails
+ * created from the template share the encoded bytes and do not encode them again, unless they are modified. The
+ * following example sends a newsletter to several recipients.
+ * <pre>{@code
+ * MessageTemplate newsletter = MessageTemplate.compile(msg -> {
+ *      msg.setFrom("foo@domain.com");
+ *      msg.setSubject("Newsletter", "UTF-8");
+ *      msg.setText(text, "UTF-8");
+ * });
+ * for (String recipient : recipients) {
+ *      emailSender.send(newsletter.with(msg -> msg.setRecipients(Message.RecipientType.TO, recipient)));
+ * }
+ * }</pre>
+ * The editors returned by {@link #with(MessageEditor)} work with any {@link EmailSender}. Senders that do not know
+ * about templates fill an empty message with both editors, which yields the same e-mail without the savings.
+ * <p>
+ * Instances are immutable and may be shared between threads. A {@code Message-ID} is generated for each e-mail; a
+ * {@code Date} header is generated for each e-mail unless the compiling editor sets one.
+ */
+public final class MessageTemplate {
+
+    @Nonnull
+    private final MessageEditor templateEditor;
+
+    @Nonnull
+    private final byte[] encoded;
+
+    private MessageTemplate(@Nonnull final MessageEditor templateEditor, @Nonnull final byte[] encoded) {
+        this.templateEditor = templateEditor;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Fills a message with the given editor and encodes it.
+     *
+     * @param templateEditor the editor that fills the parts that are common to all e-mails created from the template
+     * @return the compiled template
+     * @throws EmailCreationException if there was an error while filling or encoding the message
+     */
+    @Nonnull
+    public static MessageTemplate compile(@Nonnull final MessageEditor templateEditor) {
+        try {
+            final PrototypeMessage prototype = new PrototypeMessage();
+            templateEditor.edit(prototype);
+            final boolean dated = prototype.getHeader("Date") != null;
+            final boolean hasContent = prototype.hasContent();
+            prototype.saveChanges();
+            prototype.removeHeader("Message-ID");
+            if (!dated) {
+                prototype.removeHeader("Date");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (hasContent) {
+                prototype.writeTo(bytes);
+            } else {
+                // The body is left to the editors of the e-mails
+                final Enumeration<?> headerLines = prototype.getAllHeaderLines();
+                while (headerLines.hasMoreElements()) {
+                    bytes.write((headerLines.nextElement() + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                }
+                bytes.write('\r');
+                bytes.write('\n');
+            }
+            return new MessageTemplate(templateEditor, bytes.toByteArray());
+        } catch (Exception e) {
+            throw new EmailCreationException("Failed to compile e-mail template", e);
+        }
+    }
+
+    /**
+     * Creates an editor for an e-mail that consists of this template and the parts filled by the given editor.
+     *
+     * @param messageEditor the editor that fills the parts that are specific to the e-mail, e.g. the recipients
+     * @return the editor to pass to an {@link EmailSender}
+     */
+    @Nonnull
+    public Editor with(@Nonnull final MessageEditor messageEditor) {
+        return new Editor(this, messageEditor);
+    }
+
+    /**
+     * Creates a message that contains the parts of this template. The message shares the encoded bytes of this
+     * template.
+     *
+     * @param session the session of the message
+     * @return a new message
+     * @throws MessagingException if the encoded template cannot be parsed
+     */
+    @Nonnull
+    public MimeMessage newMessage(@Nullable final Session session) throws MessagingException {
+        return new MimeMessage(session, new SharedByteArrayInputStream(encoded));
+    }
+
+    /**
+     * @return the size of the encoded template in bytes
+     */
+    public int getEncodedSize() {
+        return encoded.length;
+    }
+
+    /**
+     * The message filled by the editor of a template, which tells whether the editor set a body.
+     */
+    private static final class PrototypeMessage extends MimeMessage {
+
+        PrototypeMessage() {
+            super(Session.getInstance(new Properties()));
+        }
+
+        boolean hasContent() {
+            return dh != null || content != null || contentStream != null;
+        }
+    }
+
+    /**
+     * An editor for one e-mail created from a template, see {@link MessageTemplate#with(MessageEditor)}.
+     * <p>
+     * {@link EmailSender}s that support templates recognize instances of this class and create the message with
+     * {@link #createMessage(Session)} instead of passing an empty message to {@link #edit(MimeMessage)}.
+     */
+    public static final class Editor implements MessageEditor {
+
+        @Nonnull
+        private final MessageTemplate template;
+
+        @Nonnull
+        private final MessageEditor messageEditor;
+
+        private Editor(@Nonnull final MessageTemplate template, @Nonnull final MessageEditor messageEditor) {
+            this.template = template;
+            this.messageEditor = messageEditor;
+        }
+
+        /**
+         * Fills an empty message with the editor of the template, then with the editor of this e-mail. The parts of the
+         * template are encoded again.
+         *
+         * @param message the message to modify
+         * @throws Exception if modification fails
+         */
+        @Override
+        public void edit(@Nonnull final MimeMessage message) throws Exception {
+            template.templateEditor.edit(message);
+            messageEditor.edit(message);
+        }
+
+        /**
+         * Creates a message from the encoded template and fills the parts that are specific to this e-mail.
+         *
+         * @param session the session of the message
+         * @return the message that is ready for being sent
+         * @throws Exception if the template cannot be parsed or the editor of this e-mail fails
+         */
+        @Nonnull
+        public MimeMessage createMessage(@Nullable final Session session) throws Exception {
+            final MimeMessage message = template.newMessage(session);
+            messageEditor.edit(message);
+            return message;
+        }
+
+        /**
+         * @return the template of this e-mail
+         */
+        @Nonnull
+        public MessageTemplate getTemplate() {
+            return template;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Options that apply to sending a single e-mail with {@link EmailSender#send(MessageEditor, SendOptions)}.
+ * <p>
+ * Instances are immutable. Options are derived from {@link #defaults()} like in the following example.
+ * <pre>{@code
+ * emailSender.send(editor, SendOptions.defaults().withPriority(EmailPriority.TRANSACTIONAL));
+ * }</pre>
+ */
+public final class SendOptions {
+
+    private static final SendOptions DEFAULTS = new SendOptions(EmailPriority.NORMAL, null, 0);
+
+    @Nonnull
+    private final EmailPriority priority;
+
+    @Nullable
+    private final String idempotencyKey;
+
+    private final long timeoutMs;
+
+    private SendOptions(@Nonnull final EmailPriority priority, @Nullable final String idempotencyKey,
+                        final long timeoutMs) {
+        this.priority = priority;
+        this.idempotencyKey = idempotencyKey;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @return the options that {@link EmailSender#send(MessageEditor)} uses
+     */
+    public static SendOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return the urgency of the e-mail, {@link EmailPriority#NORMAL} by default
+     */
+    @Nonnull
+    public EmailPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the key that identifies the e-mail among repeated requests to send it, or {@code null} by default
+     */
+    @Nullable
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * @return the time in milliseconds after which the e-mail is no longer worth sending, or 0 by default for no limit
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * @param priority the urgency of the e-mail
+     * @return a copy of these options with the given priority
+     */
+    public SendOptions withPriority(@Nonnull final EmailPriority priority) {
+        return new SendOptions(priority, idempotencyKey, timeoutMs);
+    }
+
+    /**
+     * Identify the e-mail, e.g. by the ID of the event that caused it, so that an {@link EmailSender} that supports
+     * idempotent sends does not send the e-mail again if it is requested again with the same key. Senders that do not
+     * support idempotent sends ignore the key.
+     *
+     * @param idempotencyKey the key that identifies the e-mail, or {@code null} to send the e-mail in any case
+     * @return a copy of these options with the given key
+     */
+    public SendOptions withIdempotencyKey(@Nullable final String idempotencyKey) {
+        return new SendOptions(priority, idempotencyKey, timeoutMs);
+    }
+
+    /**
+     * Limit the time from sending the e-mail to the completion of the returned stage, e.g. for a one-time password
+     * that expires anyway. If the time elapses, an {@link EmailSender} that supports timeouts completes the stage with
+     * an {@link EmailRejectedException} and does not start to transfer the e-mail anymore. If the transfer has started
+     * already, the e-mail may still be delivered, and the stage completes with an {@link EmailDeliveryException} that
+     * is not an {@link EmailRejectedException}. Senders that do not support timeouts ignore it.
+     *
+     * @param timeoutMs the time in milliseconds, or 0 for no limit
+     * @return a copy of these options with the given timeout
+     */
+    public SendOptions withTimeoutMs(final long timeoutMs) {
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException("The timeout must not be negative: " + timeoutMs);
+        return new SendOptions(priority, idempotencyKey, timeoutMs);
+    }
+}
@@ -0,0 +1,38 @@
+package com.commercetools.sunrise.email;
+
+/**
+ * The phases of sending an e-mail whose durations are reported to {@link EmailSenderMetrics}. Not every
+ * {@link EmailSender} reports every phase.
+ */
+public enum SendPhase {
+
+    /**
+     * Creating the message and running the {@link MessageEditor}.
+     */
+    CREATE,
+
+    /**
+     * Waiting for the message to be taken from the send queue.
+     */
+    QUEUE,
+
+    /**
+     * Connecting to the mail server, incl. the TLS handshake and the greeting.
+     */
+    CONNECT,
+
+    /**
+     * Authenticating with the mail server.
+     */
+    AUTHENTICATE,
+
+    /**
+     * Transferring the envelope and the content of the message.
+     */
+    TRANSFER,
+
+    /**
+     * Everything from invoking {@link EmailSender#send(MessageEditor)} to the completion of the returned stage.
+     */
+    TOTAL
+}
@@ -0,0 +1,82 @@
+package com.commercetools.sunrise.email;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of sending one e-mail, as published by an {@link EmailSendingProcessor}: either the ID of the sent
+ * e-mail or the failure, together with the {@link MessageEditor} that filled the e-mail.
+ */
+public final class SendResult {
+
+    @Nonnull
+    private final MessageEditor messageEditor;
+
+    @Nullable
+    private final String messageId;
+
+    @Nullable
+    private final Throwable failure;
+
+    private SendResult(@Nonnull final MessageEditor messageEditor, @Nullable final String messageId,
+                       @Nullable final Throwable failure) {
+        this.messageEditor = messageEditor;
+        this.messageId = messageId;
+        this.failure = failure;
+    }
+
+    /**
+     * @param messageEditor the editor that filled the e-mail
+     * @param messageId     the ID of the sent e-mail
+     * @return the result of an e-mail that has been sent
+     */
+    public static SendResult success(@Nonnull final MessageEditor messageEditor, @Nonnull final String messageId) {
+        return new SendResult(messageEditor, messageId, null);
+    }
+
+    /**
+     * @param messageEditor the editor that filled the e-mail
+     * @param failure       why the e-mail has not been sent, e.g. an {@link EmailCreationException} or an
+     *                      {@link EmailDeliveryException}
+     * @return the result of an e-mail that has not been sent
+     */
+    public static SendResult failure(@Nonnull final MessageEditor messageEditor, @Nonnull final Throwable failure) {
+        return new SendResult(messageEditor, null, failure);
+    }
+
+    /**
+     * @return the editor that filled the e-mail, e.g. to find out which recipient the result belongs to
+     */
+    @Nonnull
+    public MessageEditor getMessageEditor() {
+        return messageEditor;
+    }
+
+    /**
+     * @return the ID of the sent e-mail, or {@code null} if the e-mail has not been sent
+     */
+    @Nullable
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return why the e-mail has not been sent, or {@code null} if it has been sent
+     */
+    @Nullable
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return whether the e-mail has been sent
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "SendResult{messageId=" + messageId + "}" : "SendResult{failure=" + failure + "}";
+    }
+}
@@ -0,0 +1,220 @@
+package com.commercetools.sunrise.email;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EmailSendingProcessorTest {
+
+    @Test
+    public void allResultsArePublishedBeforeCompletion() {
+        final EmailSendingProcessor processor = new EmailSendingProcessor(new CompletingSender(),
+                SendOptions.defaults(), 3);
+        final EditorPublisher publisher = new EditorPublisher(10);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.results).hasSize(10).allMatch(SendResult::isSuccess);
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    @Test
+    public void atMostMaxInFlightEmailsAreRequestedWhileSending() {
+        final PendingSender sender = new PendingSender();
+        final EmailSendingProcessor processor = new EmailSendingProcessor(sender, SendOptions.defaults(), 3);
+        final EditorPublisher publisher = new EditorPublisher(10);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(processor);
+        assertThat(publisher.requested).isZero();
+
+        processor.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertThat(publisher.requested).isEqualTo(3);
+
+        sender.results.get(0).complete("id");
+        assertThat(subscriber.results).hasSize(1);
+        assertThat(publisher.requested).isEqualTo(4);
+        assertThat(sender.results).hasSize(4);
+    }
+
+    @Test
+    public void resultsWaitForTheDemandOfTheSubscriber() {
+        final EmailSendingProcessor processor = new EmailSendingProcessor(new CompletingSender(),
+                SendOptions.defaults(), 3);
+        final EditorPublisher publisher = new EditorPublisher(10);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+
+        assertThat(subscriber.results).hasSize(2);
+        assertThat(publisher.requested).isEqualTo(5);
+        assertThat(subscriber.completed).isFalse();
+    }
+
+    @Test
+    public void creationFailuresArePublishedAsResults() {
+        final EmailSender sender = messageEditor -> {
+            throw new EmailCreationException("Creation fails");
+        };
+        final EmailSendingProcessor processor = new EmailSendingProcessor(sender, SendOptions.defaults(), 3);
+        final EditorPublisher publisher = new EditorPublisher(2);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        subscriber.subscription.request(10);
+
+        assertThat(subscriber.results).hasSize(2);
+        assertThat(subscriber.results.get(0).getFailure()).isInstanceOf(EmailCreationException.class);
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    @Test
+    public void cancellationIsPropagatedToThePublisher() {
+        final EmailSendingProcessor processor = new EmailSendingProcessor(new PendingSender(),
+                SendOptions.defaults(), 3);
+        final EditorPublisher publisher = new EditorPublisher(10);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(processor);
+        processor.subscribe(subscriber);
+
+        subscriber.subscription.cancel();
+
+        assertThat(publisher.cancelled).isTrue();
+    }
+
+    @Test
+    public void secondSubscriberIsRejected() {
+        final EmailSendingProcessor processor = new EmailSendingProcessor(new PendingSender(),
+                SendOptions.defaults(), 3);
+        processor.subscribe(new RecordingSubscriber());
+        final RecordingSubscriber second = new RecordingSubscriber();
+
+        processor.subscribe(second);
+
+        assertThat(second.error).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static class CompletingSender implements EmailSender {
+
+        private int count;
+
+        @Nonnull
+        @Override
+        public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
+            return CompletableFuture.completedFuture("id-" + ++count);
+        }
+    }
+
+    private static class PendingSender implements EmailSender {
+
+        private final List<CompletableFuture<String>> results = new ArrayList<>();
+
+        @Nonnull
+        @Override
+        public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            return result;
+        }
+    }
+
+    /**
+     * Publishes the given number of editors synchronously, without recursion if the subscriber requests more
+     * editors from within {@link Subscriber#onNext(Object)}.
+     */
+    private static class EditorPublisher implements Publisher<MessageEditor> {
+
+        private final int count;
+
+        private long requested;
+
+        private long pending;
+
+        private int published;
+
+        private boolean emitting;
+
+        private boolean cancelled;
+
+        EditorPublisher(final int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super MessageEditor> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                    requested += n;
+                    pending += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (pending > 0 && published < count && !cancelled) {
+                        pending--;
+                        published++;
+                        final MessageEditor editor = msg -> { };
+                        subscriber.onNext(editor);
+                    }
+                    emitting = false;
+                    if (published == count && !cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<SendResult> {
+
+        private final List<SendResult> results = new ArrayList<>();
+
+        private Subscription subscription;
+
+        private boolean completed;
+
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final SendResult result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
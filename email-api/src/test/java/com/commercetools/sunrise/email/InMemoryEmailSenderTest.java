@@ -0,0 +1,130 @@
+package com.commercetools.sunrise.email;
+
+import org.junit.Test;
+
+import javax.mail.Message;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InMemoryEmailSenderTest {
+
+    private static final MessageEditor EDITOR = msg -> {
+        msg.setFrom("sender@domain.com");
+        msg.addRecipients(Message.RecipientType.TO, "recipient@domain.com");
+        msg.setSubject("Subject", "UTF-8");
+        msg.setText("Text", "UTF-8");
+    };
+
+    @Test
+    public void sentEmailsAreRecordedWithTheirMessageIds() throws Exception {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().build();
+
+        final String first = sender.send(EDITOR).toCompletableFuture().join();
+        final String second = sender.send(EDITOR, SendOptions.defaults().withPriority(EmailPriority.BULK))
+                .toCompletableFuture().join();
+
+        assertThat(first).isNotEqualTo(second);
+        final List<InMemoryEmailSender.Record> records = sender.getRecords();
+        assertThat(records).extracting(InMemoryEmailSender.Record::getMessageId).containsExactly(first, second);
+        assertThat(records.get(1).getPriority()).isEqualTo(EmailPriority.BULK);
+        assertThat(records.get(1).getMessage().getSubject()).isEqualTo("Subject");
+        assertThat(records.get(1).getMessage().getMessageID()).isEqualTo(second);
+        assertThat(records.get(1).getContent()).isNull();
+    }
+
+    @Test
+    public void onlyTheMostRecentEmailsAreKept() {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().capacity(4).build();
+
+        for (int i = 0; i < 10; i++) {
+            sender.send(EDITOR);
+        }
+
+        assertThat(sender.getSendCount()).isEqualTo(10);
+        assertThat(sender.getRecords()).extracting(InMemoryEmailSender.Record::getSequence)
+                .containsExactly(6L, 7L, 8L, 9L);
+    }
+
+    @Test
+    public void serializedEmailsContainTheirHeaders() {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().serializeMessages(true).build();
+
+        final String messageId = sender.send(EDITOR).toCompletableFuture().join();
+
+        final String content = new String(sender.getRecords().get(0).getContent(), StandardCharsets.US_ASCII);
+        assertThat(content).contains("Message-ID: " + messageId, "Subject: Subject", "MIME-Version: 1.0");
+    }
+
+    @Test
+    public void failuresOfEditorsAreThrown() {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().build();
+
+        assertThatThrownBy(() -> sender.send(msg -> { throw new IllegalStateException(); }))
+                .isInstanceOf(EmailCreationException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(sender.getRecords()).isEmpty();
+    }
+
+    @Test
+    public void failuresAreInjected() {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().failures(1, 451).build();
+
+        final CompletionStage<String> result = sender.send(EDITOR);
+
+        assertThat(result.toCompletableFuture()).isCompletedExceptionally();
+        final EmailDeliveryException failure = sender.getRecords().get(0).getFailure();
+        assertThat(failure.getReplyCode()).isEqualTo(451);
+        assertThat(failure.isPermanent()).isFalse();
+        assertThat(sender.getFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void sendsCompleteAfterTheLatency() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final InMemoryEmailSender sender = InMemoryEmailSender.builder().latency(50, 50, scheduler).build();
+            final long start = System.nanoTime();
+
+            final CompletionStage<String> result = sender.send(EDITOR);
+
+            assertThat(result.toCompletableFuture().get(10, TimeUnit.SECONDS)).isNotNull();
+            assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSendsAreAllCounted() throws Exception {
+        final InMemoryEmailSender sender = InMemoryEmailSender.builder().capacity(64).build();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                tasks.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; j++) {
+                        sender.send(EDITOR);
+                    }
+                }));
+            }
+            for (final Future<?> task : tasks) {
+                task.get(10, TimeUnit.SECONDS);
+            }
+
+            assertThat(sender.getSendCount()).isEqualTo(40000);
+            assertThat(sender.getRecords()).hasSize(64);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.commercetools.sunrise.email;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getMean()).isZero();
+        assertThat(histogram.getValueAtPercentile(99)).isZero();
+    }
+
+    @Test
+    public void percentilesAreAccurateToAFewPercent() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getMax()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(histogram.getMean()).isCloseTo(TimeUnit.MICROSECONDS.toNanos(500500), within(1.0));
+        assertThat((double) histogram.getValueAtPercentile(50))
+                .isCloseTo(TimeUnit.MILLISECONDS.toNanos(500), within(0.07 * TimeUnit.MILLISECONDS.toNanos(500)));
+        assertThat((double) histogram.getValueAtPercentile(99))
+                .isCloseTo(TimeUnit.MILLISECONDS.toNanos(990), within(0.07 * TimeUnit.MILLISECONDS.toNanos(990)));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(histogram.getMax());
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (final long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.indexOf(value);
+            assertThat(LatencyHistogram.upperBoundOf(index)).isGreaterThanOrEqualTo(value);
+            if (index > 0) {
+                assertThat(LatencyHistogram.upperBoundOf(index - 1)).isLessThan(value);
+            }
+        }
+    }
+
+    @Test
+    public void concurrentRecordingLosesNoValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final ForkJoinPool pool = new ForkJoinPool(8);
+
+        pool.submit(() -> IntStream.range(0, 100000).parallel().forEach(histogram::record)).join();
+
+        assertThat(histogram.getCount()).isEqualTo(100000);
+        assertThat(histogram.getMax()).isEqualTo(99999);
+        pool.shutdown();
+    }
+}
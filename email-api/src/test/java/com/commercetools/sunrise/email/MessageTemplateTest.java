@@ -0,0 +1,119 @@
+package com.commercetools.sunrise.email;
+
+import org.junit.Test;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MessageTemplateTest {
+
+    @Test
+    public void messagesContainTheTemplateAndTheirOwnParts() throws Exception {
+        final MessageTemplate template = MessageTemplate.compile(msg -> {
+            msg.setFrom("sender@domain.com");
+            msg.setSubject("Grüße", "UTF-8");
+            msg.setText("Hello, world!", "UTF-8");
+        });
+
+        final MimeMessage message = template.with(msg -> msg.setRecipients(Message.RecipientType.TO, "a@domain.com"))
+                .createMessage(null);
+
+        assertThat(message.getSubject()).isEqualTo("Grüße");
+        assertThat(message.getFrom()[0].toString()).isEqualTo("sender@domain.com");
+        assertThat(message.getRecipients(Message.RecipientType.TO)[0].toString()).isEqualTo("a@domain.com");
+        assertThat(message.getContent()).isEqualTo("Hello, world!");
+    }
+
+    @Test
+    public void bodyIsEncodedOnlyOnce() throws Exception {
+        final CountingDataSource attachment = new CountingDataSource();
+        final MessageTemplate template = MessageTemplate.compile(msg -> {
+            final MimeBodyPart text = new MimeBodyPart();
+            text.setText("Hello, world!", "UTF-8");
+            final MimeBodyPart file = new MimeBodyPart();
+            file.setDataHandler(new DataHandler(attachment));
+            file.setFileName("file.bin");
+            msg.setContent(new MimeMultipart(text, file));
+        });
+        final int encodings = attachment.reads.get();
+
+        for (int i = 0; i < 3; i++) {
+            final MimeMessage message = template.with(msg -> msg.setRecipients(Message.RecipientType.TO,
+                    "a@domain.com")).createMessage(null);
+            message.saveChanges();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            message.writeTo(bytes);
+            assertThat(new String(bytes.toByteArray(), StandardCharsets.US_ASCII)).contains("file.bin");
+        }
+
+        assertThat(attachment.reads.get()).isEqualTo(encodings);
+    }
+
+    @Test
+    public void messageIdsAndDatesAreNotShared() throws Exception {
+        final MessageTemplate template = MessageTemplate.compile(msg -> msg.setText("Text"));
+
+        final MimeMessage message = template.newMessage(null);
+
+        assertThat(message.getHeader("Message-ID")).isNull();
+        assertThat(message.getHeader("Date")).isNull();
+    }
+
+    @Test
+    public void editorWithoutSenderSupportFillsAnEmptyMessage() throws Exception {
+        final MessageTemplate template = MessageTemplate.compile(msg -> msg.setSubject("Subject"));
+        final MimeMessage message = new MimeMessage((Session) null);
+
+        template.with(msg -> msg.setText("Text")).edit(message);
+
+        assertThat(message.getSubject()).isEqualTo("Subject");
+        assertThat(message.getContent()).isEqualTo("Text");
+    }
+
+    @Test
+    public void compilationFailuresAreEmailCreationExceptions() {
+        assertThatThrownBy(() -> MessageTemplate.compile(msg -> { throw new IllegalStateException("Fails"); }))
+                .isInstanceOf(EmailCreationException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    private static class CountingDataSource implements DataSource {
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public InputStream getInputStream() {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream(new byte[]{1, 2, 3});
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        public String getName() {
+            return "file.bin";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.commercetools.sunrise.email.bench;
+
+import com.commercetools.sunrise.email.InMemoryEmailSender;
+import com.commercetools.sunrise.email.MessageEditor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.Message;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link InMemoryEmailSender#send(MessageEditor)} on {@link Threads 4} threads, to make sure
+ * that it does not become the bottleneck of load tests of applications.
+ * <p>
+ * Run with {@code sbt "email-bench/jmh:run InMemorySendBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+public class InMemorySendBenchmark {
+
+    @Param({"false", "true"})
+    public boolean serializeMessages;
+
+    private InMemoryEmailSender sender;
+
+    private final MessageEditor editor = msg -> {
+        msg.setFrom("sender@domain.com");
+        msg.addRecipients(Message.RecipientType.TO, "recipient@domain.com");
+        msg.setSubject("Benchmark", "UTF-8");
+        msg.setText("Lorem ipsum dolor sit amet", "UTF-8");
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sender = InMemoryEmailSender.builder()
+                .capacity(1024)
+                .serializeMessages(serializeMessages)
+                .build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public CompletionStage<String> send() {
+        return sender.send(editor);
+    }
+}
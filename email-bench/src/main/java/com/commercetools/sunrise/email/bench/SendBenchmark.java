@@ -0,0 +1,164 @@
+package com.commercetools.sunrise.email.bench;
+
+import com.commercetools.sunrise.email.MessageEditor;
+import com.commercetools.sunrise.email.smtp.SmtpAuthEmailSender;
+import com.commercetools.sunrise.email.smtp.SmtpConfiguration;
+import com.commercetools.sunrise.email.smtp.SmtpConnectionPoolConfiguration;
+import com.commercetools.sunrise.email.smtp.SmtpSenderOptions;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import javax.mail.Message;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end sending with {@link SmtpAuthEmailSender#send(MessageEditor)} against an in-process Greenmail
+ * SMTP server: {@link #throughput()} reports messages per second with {@link #CONCURRENT_SENDS} messages in flight,
+ * {@link #latency()} reports the latency distribution (incl. p50 and p99) of a single send on an idle sender.
+ * <p>
+ * Run with {@code sbt "email-bench/jmh:run"}, e.g. {@code sbt "email-bench/jmh:run -p security=None SendBenchmark"}
+ * to restrict the parameters. Greenmail 1.5.0 does not support STARTTLS, hence only
+ * {@link SmtpConfiguration.TransportSecurity#None} and {@link SmtpConfiguration.TransportSecurity#SSL_TLS} are
+ * measured.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SendBenchmark {
+
+    /**
+     * The number of messages sent concurrently per invocation of {@link #throughput()}.
+     */
+    static final int CONCURRENT_SENDS = 32;
+
+    private static final int TIMEOUT_MS = 60 * 1000;
+
+    private static final String LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor\r\n";
+
+    @Param({"1", "4", "16"})
+    public int executorThreads;
+
+    @Param({"None", "SSL_TLS"})
+    public SmtpConfiguration.TransportSecurity security;
+
+    @Param({"1024", "102400"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean connectionPool;
+
+    private GreenMail greenMail;
+
+    private ExecutorService executor;
+
+    private SmtpAuthEmailSender sender;
+
+    private MessageEditor editor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        greenMail = new GreenMail(new ServerSetup[]{ServerSetupTest.SMTP, ServerSetupTest.SMTPS});
+        greenMail.start();
+        greenMail.setUser("user", "password");
+        executor = Executors.newFixedThreadPool(executorThreads);
+        final ServerSetup setup = security == SmtpConfiguration.TransportSecurity.SSL_TLS
+                ? ServerSetupTest.SMTPS
+                : ServerSetupTest.SMTP;
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                security, "user", "password");
+        final SmtpSenderOptions options = connectionPool
+                ? SmtpSenderOptions.builder()
+                        .connectionPool(new SmtpConnectionPoolConfiguration(executorThreads, 60 * 1000, 1000, 1000))
+                        .build()
+                : SmtpSenderOptions.defaults();
+        sender = new BenchmarkSender(smtpConfiguration, executor, options);
+        editor = createEditor(messageSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void purgeReceivedMessages() throws Exception {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sender.close();
+        executor.shutdown();
+        greenMail.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(CONCURRENT_SENDS)
+    public void throughput() {
+        final CompletableFuture<?>[] results = new CompletableFuture<?>[CONCURRENT_SENDS];
+        for (int i = 0; i < CONCURRENT_SENDS; i++) {
+            results[i] = sender.send(editor).toCompletableFuture();
+        }
+        CompletableFuture.allOf(results).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String latency() {
+        return sender.send(editor).toCompletableFuture().join();
+    }
+
+    private static MessageEditor createEditor(final int messageSize) {
+        final StringBuilder body = new StringBuilder(messageSize + LINE.length());
+        while (body.length() < messageSize) {
+            body.append(LINE);
+        }
+        body.setLength(messageSize);
+        final String text = body.toString();
+        return msg -> {
+            msg.setFrom("sender@domain.com");
+            msg.addRecipients(Message.RecipientType.TO, "recipient@domain.com");
+            msg.setSubject("Benchmark", "UTF-8");
+            msg.setText(text, "UTF-8");
+        };
+    }
+
+    /**
+     * Trusts the self-signed certificate of Greenmail.
+     */
+    private static class BenchmarkSender extends SmtpAuthEmailSender {
+
+        BenchmarkSender(@Nonnull final SmtpConfiguration smtpConfiguration, @Nonnull final Executor executor,
+                        @Nonnull final SmtpSenderOptions options) {
+            super(smtpConfiguration, executor, TIMEOUT_MS, options);
+        }
+
+        @Override
+        protected void properties(@Nonnull final Properties properties) {
+            if (properties.containsKey("mail.smtp.socketFactory.class")) {
+                properties.put("mail.smtp.socketFactory", TrustingSslSocketFactory.create());
+                properties.setProperty("mail.smtp.ssl.checkserveridentity", "" + false);
+            }
+        }
+    }
+}
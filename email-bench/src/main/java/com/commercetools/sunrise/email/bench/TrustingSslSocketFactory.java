@@ -0,0 +1,103 @@
+package com.commercetools.sunrise.email.bench;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+/**
+ * A socket factory for connecting to the Greenmail SMTPS server: it trusts any certificate, and it enables the
+ * TLS 1.2 cipher suites for the DSA key of Greenmail's self-signed certificate, which recent JDKs do not offer by
+ * default. Must only be used for benchmarks.
+ */
+final class TrustingSslSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+
+    private TrustingSslSocketFactory(@Nonnull final SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    static TrustingSslSocketFactory create() {
+        try {
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{new TrustingTrustManager()}, null);
+            return new TrustingSslSocketFactory(context.getSocketFactory());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to create SSL context", e);
+        }
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return configure(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException {
+        return configure(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localHost, final int localPort) throws IOException {
+        return configure(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress host, final int port) throws IOException {
+        return configure(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress address, final int port, final InetAddress localAddress, final int localPort) throws IOException {
+        return configure(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    private static Socket configure(@Nonnull final Socket socket) {
+        final SSLSocket sslSocket = (SSLSocket) socket;
+        sslSocket.setEnabledProtocols(new String[]{"TLSv1.2"});
+        sslSocket.setEnabledCipherSuites(Arrays.stream(sslSocket.getSupportedCipherSuites())
+                .filter(suite -> suite.contains("_DSS_"))
+                .toArray(String[]::new));
+        return sslSocket;
+    }
+
+    private static final class TrustingTrustManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
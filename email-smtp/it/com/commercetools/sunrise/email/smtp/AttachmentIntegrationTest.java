@@ -10,7 +10,11 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayOutputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -59,4 +63,29 @@ public class AttachmentIntegrationTest extends AbstractIntegrationTest {
         assertThat(part1.getContent()).isEqualTo("A sample attachment for testing purposes with äöüß.");
     }
 
+    @Test
+    public void mappedFileIsAttachedCompletely() throws Exception {
+        final byte[] content = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        final Path file = Files.createTempFile("invoice", ".pdf");
+        // mapped files cannot be deleted on all platforms before the mapping is garbage collected
+        file.toFile().deleteOnExit();
+        Files.write(file, content);
+        final MimeBodyPart attachmentPart = new MimeBodyPart();
+        attachmentPart.setDataHandler(new DataHandler(new MappedFileDataSource(file)));
+        attachmentPart.setFileName("invoice.pdf");
+
+        sender.send(msg -> {
+            msg.addRecipients(Message.RecipientType.TO, "foo@domain.de");
+            msg.setSubject("Invoice", "UTF-8");
+            msg.setContent(new MimeMultipart(attachmentPart));
+        }).toCompletableFuture().join();
+
+        final MimeMultipart received = (MimeMultipart) greenMail.getReceivedMessages()[0].getContent();
+        final BodyPart part = received.getBodyPart(0);
+        assertThat(part.getFileName()).isEqualTo("invoice.pdf");
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        part.getDataHandler().writeTo(decoded);
+        assertThat(decoded.toByteArray()).isEqualTo(content);
+    }
 }
@@ -0,0 +1,112 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailCreationException;
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.commercetools.sunrise.email.MessageEditor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchSendingIntegrationTest extends AbstractIntegrationTest {
+
+    private static final int UNUSED_PORT = 3126;
+
+    @Test
+    public void batchIsSentAndResultsAreInTheOrderOfTheEditors() {
+        final List<MessageEditor> editors = IntStream.range(1, 21)
+                .mapToObj(TestUtils::getEditor)
+                .collect(Collectors.toList());
+
+        final List<String> messageIds = joinAll(sender.sendAll(editors));
+
+        assertThat(greenMail.getReceivedMessages())
+                .extracting("messageID")
+                .containsExactlyElementsOf(messageIds);
+    }
+
+    @Test
+    public void failuresAreReportedPerMessageAndDoNotAbortTheBatch() {
+        final List<MessageEditor> editors = new ArrayList<>();
+        editors.add(TestUtils.getEditor(1));
+        editors.add(msg -> { throw new IllegalStateException("Creation fails"); });
+        editors.add(msg -> {});
+        editors.add(TestUtils.getEditor(2));
+
+        final List<CompletionStage<String>> results = sender.sendAll(editors);
+
+        assertThat(results.get(0).toCompletableFuture().join()).isNotEmpty();
+        assertThatThrownBy(() -> { results.get(1).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailCreationException.class);
+        assertThatThrownBy(() -> { results.get(2).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("No recipient addresses");
+        assertThat(results.get(3).toCompletableFuture().join()).isNotEmpty();
+        assertThat(greenMail.getReceivedMessages())
+                .extracting("subject")
+                .containsExactly("Message 1", "Message 2");
+    }
+
+    @Test
+    public void pooledBatchIsSharedByAtMostMaxConnections() {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .connectionPool(new SmtpConnectionPoolConfiguration(3, 60 * 1000, 10, 1000))
+                .build();
+        final SmtpAuthEmailSender pooledSender = new SmtpAuthEmailSender(smtpConfiguration, new ForkJoinPool(4),
+                TIMEOUT_60_SECONDS, options);
+        final List<MessageEditor> editors = IntStream.range(1, 41)
+                .mapToObj(TestUtils::getEditor)
+                .collect(Collectors.toList());
+
+        joinAll(pooledSender.sendAll(editors));
+        pooledSender.close();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(40);
+        // 40 messages with at most 10 messages per connection need at least 4 connections
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isBetween(4L, 6L);
+    }
+
+    @Test
+    public void openCircuitRejectsTheRemainingMessagesOfABatch() {
+        final SmtpConfiguration unreachable = new SmtpConfiguration(setup.getBindAddress(), UNUSED_PORT,
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .circuitBreaker(new CircuitBreakerConfiguration(2, 1, 60 * 1000, 1))
+                .build();
+        final SmtpAuthEmailSender unreachableSender = new SmtpAuthEmailSender(unreachable, executor,
+                TIMEOUT_60_SECONDS, options);
+        final List<MessageEditor> editors = IntStream.range(1, 5)
+                .mapToObj(TestUtils::getEditor)
+                .collect(Collectors.toList());
+
+        final List<CompletionStage<String>> results = unreachableSender.sendAll(editors);
+
+        for (final CompletionStage<String> result : results.subList(0, 2)) {
+            assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                    .hasCauseInstanceOf(EmailDeliveryException.class)
+                    .hasStackTraceContaining("Couldn't connect");
+        }
+        for (final CompletionStage<String> result : results.subList(2, 4)) {
+            assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                    .hasCauseInstanceOf(CircuitOpenException.class);
+        }
+        assertThat(unreachableSender.getCircuitState()).isEqualTo(CircuitBreakerConfiguration.State.OPEN);
+    }
+
+    private static List<String> joinAll(final List<CompletionStage<String>> results) {
+        return results.stream()
+                .map(CompletionStage::toCompletableFuture)
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,113 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.MessageEditor;
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.Multipart;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoalescingIntegrationTest extends AbstractIntegrationTest {
+
+    @Test
+    public void identicalMessagesAreSentInOneTransaction() throws Exception {
+        final SmtpAuthEmailSender coalescingSender = createCoalescingSender(new CoalescingConfiguration(500, 100));
+
+        final List<String> messageIds = IntStream.range(0, 5)
+                .mapToObj(i -> coalescingSender.send(notification("Notification", "recipient" + i + "@domain.com"))
+                        .toCompletableFuture())
+                .collect(Collectors.toList())
+                .stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        assertThat(messageIds).containsOnly(messageIds.get(0));
+        final MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(5).extracting("messageID").containsOnly(messageIds.get(0));
+        assertThat(received[0].getHeader("Bcc")).isNull();
+    }
+
+    @Test
+    public void identicalMultipartMessagesAreSentInOneTransaction() throws Exception {
+        final SmtpAuthEmailSender coalescingSender = createCoalescingSender(new CoalescingConfiguration(500, 100));
+
+        final List<String> messageIds = IntStream.range(0, 3)
+                .mapToObj(i -> coalescingSender.send(multipartNotification("recipient" + i + "@domain.com"))
+                        .toCompletableFuture())
+                .collect(Collectors.toList())
+                .stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        assertThat(messageIds).containsOnly(messageIds.get(0));
+        final MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).hasSize(3);
+        assertThat(((Multipart) received[0].getContent()).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void differentMessagesAreSentSeparately() {
+        final SmtpAuthEmailSender coalescingSender = createCoalescingSender(new CoalescingConfiguration(200, 100));
+
+        final CompletableFuture<String> first = coalescingSender.send(notification("First", "a@domain.com"))
+                .toCompletableFuture();
+        final CompletableFuture<String> second = coalescingSender.send(notification("Second", "b@domain.com"))
+                .toCompletableFuture();
+
+        assertThat(first.join()).isNotEqualTo(second.join());
+        assertThat(greenMail.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    public void combinedMessagesDoNotExceedTheMaximumNumberOfRecipients() {
+        final SmtpAuthEmailSender coalescingSender = createCoalescingSender(new CoalescingConfiguration(200, 3));
+
+        final List<String> messageIds = IntStream.range(0, 7)
+                .mapToObj(i -> coalescingSender.send(notification("Notification", "recipient" + i + "@domain.com"))
+                        .toCompletableFuture())
+                .collect(Collectors.toList())
+                .stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        assertThat(messageIds.stream().distinct().count()).isEqualTo(3);
+        assertThat(greenMail.getReceivedMessages()).hasSize(7);
+    }
+
+    private static MessageEditor notification(final String subject, final String recipient) {
+        return msg -> {
+            msg.setFrom("notifications@domain.com");
+            msg.setSubject(subject, "UTF-8");
+            msg.setText(HELLO_WORLD, "UTF-8");
+            msg.setRecipients(Message.RecipientType.BCC, recipient);
+        };
+    }
+
+    private static MessageEditor multipartNotification(final String recipient) {
+        return msg -> {
+            msg.setFrom("notifications@domain.com");
+            msg.setSubject("Notification", "UTF-8");
+            final MimeBodyPart text = new MimeBodyPart();
+            text.setText(HELLO_WORLD, "UTF-8");
+            final MimeBodyPart html = new MimeBodyPart();
+            html.setContent("<p>" + HELLO_WORLD + "</p>", "text/html; charset=UTF-8");
+            msg.setContent(new MimeMultipart("alternative", text, html));
+            msg.setRecipients(Message.RecipientType.BCC, recipient);
+        };
+    }
+
+    private SmtpAuthEmailSender createCoalescingSender(final CoalescingConfiguration coalescing) {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.builder().coalescing(coalescing).build());
+    }
+}
@@ -0,0 +1,190 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.mail.Message;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ConnectionPoolIntegrationTest extends AbstractIntegrationTest {
+
+    private SmtpAuthEmailSender pooledSender;
+
+    @After
+    public void closePooledSender() {
+        if (pooledSender != null) {
+            pooledSender.close();
+        }
+    }
+
+    @Test
+    public void sequentialMessagesReuseASingleConnection() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(2, 60 * 1000, 100, 1000));
+
+        TestUtils.sendMessages(pooledSender, 0, 5).toCompletableFuture().join();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(5);
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentMessagesUseAtMostMaxConnections() {
+        pooledSender = createPooledSender(new ForkJoinPool(8),
+                new SmtpConnectionPoolConfiguration(3, 60 * 1000, 100, 1000));
+        final List<String> expectedSubjects = IntStream.range(1, 41)
+                .mapToObj(i -> "Message " + i)
+                .collect(Collectors.toList());
+
+        TestUtils.sendMessages(greenMail, pooledSender,
+                sender -> {
+                    IntStream.range(1, 41)
+                            .mapToObj(i -> sender.send(TestUtils.getEditor(i)).toCompletableFuture())
+                            .collect(Collectors.toList())
+                            .forEach(future -> future.join());
+                },
+                resultAssert -> {
+                    resultAssert.containsExactlyInAnyOrder(expectedSubjects.toArray());
+                }
+        );
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isBetween(1L, 3L);
+    }
+
+    @Test
+    public void connectionIsReplacedAfterMaxMessagesPerConnection() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(1, 60 * 1000, 2, 1000));
+
+        TestUtils.sendMessages(pooledSender, 0, 5).toCompletableFuture().join();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(5);
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(1, 100, 100, 0));
+
+        pooledSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+        assertThat(pooledSender.getConnectionPool().getIdleConnectionCount()).isEqualTo(1);
+        Thread.sleep(500);
+
+        assertThat(pooledSender.getConnectionPool().getIdleConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void connectionIsReusedAfterAFailedTransaction() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(1, 60 * 1000, 100, 0));
+
+        assertThatThrownBy(() -> { pooledSender.send(msg -> {}).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("No recipient addresses");
+        assertThatThrownBy(() -> {
+            pooledSender.send(msg -> {
+                msg.addRecipients(Message.RecipientType.TO, FOO_BAR_AT_DOMAIN_COM);
+                msg.setText(HELLO_WORLD, "UTF-8");
+            }).toCompletableFuture().join();
+        }).hasCauseInstanceOf(EmailDeliveryException.class);
+        pooledSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void sendingFailsAfterClose() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(1, 60 * 1000, 100, 0));
+        pooledSender.close();
+
+        assertThatThrownBy(() -> { pooledSender.send(TestUtils.validShortEmail()).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("closed");
+    }
+
+    @Test
+    public void warmConnectionsAreOpenedWhenTheSenderIsCreated() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(3, 60 * 1000, 100, 1000, 2));
+
+        assertThat(pooledSender.getInitialWarmUp().toCompletableFuture().join()).isEqualTo(2);
+        assertThat(pooledSender.getConnectionPool().getIdleConnectionCount()).isEqualTo(2);
+        pooledSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isEqualTo(2);
+        assertThat(pooledSender.warmUp().toCompletableFuture().join()).isEqualTo(0);
+    }
+
+    @Test
+    public void warmConnectionsAreOpenedAgainAfterEviction() throws Exception {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(1, 100, 100, 0, 1));
+        pooledSender.getInitialWarmUp().toCompletableFuture().join();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (pooledSender.getConnectionPool().getCreatedConnectionCount() < 2
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isGreaterThanOrEqualTo(2);
+        assertThat(pooledSender.getConnectionPool().getIdleConnectionCount()).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void warmUpDoesNotOpenMoreThanMaxConnectionsWhileConnectionsAreBorrowed() throws Exception {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(3, 60 * 1000, 100, 1000, 3));
+        pooledSender.getInitialWarmUp().toCompletableFuture().join();
+        final SmtpConnectionPool pool = pooledSender.getConnectionPool();
+        final SmtpConnectionPool.PooledConnection first = pool.borrow();
+        final SmtpConnectionPool.PooledConnection second = pool.borrow();
+
+        assertThat(pooledSender.warmUp().toCompletableFuture().join()).isEqualTo(0);
+        assertThat(pool.getOpenConnectionCount()).isEqualTo(3);
+        assertThat(pool.getIdleConnectionCount()).isEqualTo(1);
+
+        pool.release(first, true);
+        pool.release(second, true);
+        assertThat(pool.getOpenConnectionCount()).isEqualTo(3);
+        assertThat(pool.getCreatedConnectionCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void warmUpFailuresAreReportedByTheStage() {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), 123,
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        pooledSender = new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.builder()
+                        .connectionPool(new SmtpConnectionPoolConfiguration(2, 60 * 1000, 100, 1000, 2))
+                        .build());
+
+        assertThatThrownBy(() -> { pooledSender.getInitialWarmUp().toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("java.net.ConnectException: Connection refused");
+        assertThat(pooledSender.getConnectionPool().getIdleConnectionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void withoutWarmConnectionsNoConnectionIsOpenedAhead() {
+        pooledSender = createPooledSender(new SmtpConnectionPoolConfiguration(2, 60 * 1000, 100, 1000));
+
+        assertThat(pooledSender.getInitialWarmUp().toCompletableFuture().join()).isEqualTo(0);
+        assertThat(pooledSender.getConnectionPool().getCreatedConnectionCount()).isEqualTo(0);
+    }
+
+    private SmtpAuthEmailSender createPooledSender(final SmtpConnectionPoolConfiguration poolConfiguration) {
+        return createPooledSender(executor, poolConfiguration);
+    }
+
+    private SmtpAuthEmailSender createPooledSender(final Executor executor,
+                                                   final SmtpConnectionPoolConfiguration poolConfiguration) {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.builder().connectionPool(poolConfiguration).build());
+    }
+}
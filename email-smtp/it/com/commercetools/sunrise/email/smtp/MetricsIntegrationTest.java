@@ -0,0 +1,72 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.HistogramEmailSenderMetrics;
+import com.commercetools.sunrise.email.HistogramEmailSenderMetrics.FailureType;
+import com.commercetools.sunrise.email.SendPhase;
+import org.junit.Test;
+
+import javax.mail.Message;
+import java.util.concurrent.CompletionStage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MetricsIntegrationTest extends AbstractIntegrationTest {
+
+    @Test
+    public void phasesAndOutcomesAreRecorded() {
+        final HistogramEmailSenderMetrics metrics = new HistogramEmailSenderMetrics();
+        final SmtpAuthEmailSender meteredSender = createMeteredSender(metrics, null);
+
+        TestUtils.sendMessages(meteredSender, 0, 3).toCompletableFuture().join();
+        final CompletionStage<String> failed = meteredSender.send(msg -> msg.setText("No recipients"));
+        assertThatThrownBy(() -> failed.toCompletableFuture().join());
+
+        assertThat(metrics.getSuccessCount()).isEqualTo(3);
+        assertThat(metrics.getFailureCount(FailureType.PERMANENT)).isEqualTo(1);
+        assertThat(metrics.getQueueWaitHistogram(EmailPriority.NORMAL).getCount()).isEqualTo(4);
+        assertThat(metrics.getQueueWaitHistogram(EmailPriority.TRANSACTIONAL).getCount()).isZero();
+        assertThat(metrics.getMaxQueueDepth(EmailPriority.NORMAL)).isGreaterThanOrEqualTo(1);
+        for (final SendPhase phase : SendPhase.values()) {
+            final long expected = phase == SendPhase.CONNECT || phase == SendPhase.AUTHENTICATE
+                    || phase == SendPhase.TRANSFER ? 3 : 4;
+            assertThat(metrics.getHistogram(phase).getCount()).as(phase.name()).isEqualTo(expected);
+        }
+        assertThat(metrics.getBytesSent()).isGreaterThan(3 * "Content 0".length());
+        assertThat(metrics.getQueueDepth()).isZero();
+        assertThat(metrics.getMaxQueueDepth()).isPositive();
+    }
+
+    @Test
+    public void pooledConnectionsAreConnectedOnce() {
+        final HistogramEmailSenderMetrics metrics = new HistogramEmailSenderMetrics();
+        final SmtpAuthEmailSender meteredSender = createMeteredSender(metrics,
+                new SmtpConnectionPoolConfiguration(1, 60 * 1000, 100, 1000));
+
+        TestUtils.sendMessages(meteredSender, 0, 5).toCompletableFuture().join();
+        meteredSender.close();
+
+        assertThat(metrics.getHistogram(SendPhase.CONNECT).getCount()).isEqualTo(1);
+        assertThat(metrics.getHistogram(SendPhase.TRANSFER).getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void creationFailuresAreRecorded() {
+        final HistogramEmailSenderMetrics metrics = new HistogramEmailSenderMetrics();
+        final SmtpAuthEmailSender meteredSender = createMeteredSender(metrics, null);
+
+        assertThatThrownBy(() -> meteredSender.send(msg -> msg.setRecipients(Message.RecipientType.TO, "@")));
+
+        assertThat(metrics.getFailureCount(FailureType.CREATION)).isEqualTo(1);
+        assertThat(metrics.getHistogram(SendPhase.CREATE).getCount()).isZero();
+    }
+
+    private SmtpAuthEmailSender createMeteredSender(final HistogramEmailSenderMetrics metrics,
+                                                    final SmtpConnectionPoolConfiguration pool) {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.builder().metrics(metrics).connectionPool(pool).build());
+    }
+}
@@ -0,0 +1,97 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiRelayIntegrationTest extends AbstractIntegrationTest {
+
+    private static final int SECOND_PORT = 3125;
+
+    private GreenMail secondRelay;
+
+    private MultiRelayEmailSender multiRelaySender;
+
+    @Before
+    public void startSecondRelay() {
+        secondRelay = new GreenMail(new ServerSetup(SECOND_PORT, setup.getBindAddress(), ServerSetup.PROTOCOL_SMTP));
+    }
+
+    @After
+    public void stopSecondRelay() {
+        if (multiRelaySender != null) {
+            multiRelaySender.close();
+        }
+        secondRelay.stop();
+    }
+
+    @Test
+    public void messagesAreSpreadAcrossRelays() {
+        secondRelay.start();
+        multiRelaySender = createMultiRelaySender(new RelayHealthConfiguration(1, 60 * 1000));
+
+        sendAndJoin(20);
+
+        assertThat(greenMail.getReceivedMessages()).isNotEmpty();
+        assertThat(secondRelay.getReceivedMessages()).isNotEmpty();
+        assertThat(greenMail.getReceivedMessages().length + secondRelay.getReceivedMessages().length).isEqualTo(20);
+    }
+
+    @Test
+    public void messagesFailOverToAHealthyRelayAndTheFailingRelayIsEjected() {
+        multiRelaySender = createMultiRelaySender(new RelayHealthConfiguration(1, 60 * 1000));
+
+        sendAndJoin(10);
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(10);
+        assertThat(multiRelaySender.isHealthy(0)).isTrue();
+        assertThat(multiRelaySender.isHealthy(1)).isFalse();
+        assertThat(multiRelaySender.getHealthyRelayCount()).isEqualTo(1);
+        assertThat(multiRelaySender.getOutstandingCount(1)).isZero();
+    }
+
+    @Test
+    public void ejectedRelaysAreReadmittedOnceTheyCanBeConnectedTo() throws Exception {
+        multiRelaySender = createMultiRelaySender(new RelayHealthConfiguration(1, 50));
+        sendAndJoin(4);
+        assertThat(multiRelaySender.isHealthy(1)).isFalse();
+
+        secondRelay.start();
+        final long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!multiRelaySender.isHealthy(1) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertThat(multiRelaySender.isHealthy(1)).isTrue();
+        sendAndJoin(10);
+        assertThat(secondRelay.getReceivedMessages()).isNotEmpty();
+    }
+
+    private void sendAndJoin(final int count) {
+        final List<CompletableFuture<String>> results = IntStream.range(0, count)
+                .mapToObj(i -> multiRelaySender.send(TestUtils.getEditor(i)).toCompletableFuture())
+                .collect(Collectors.toList());
+        results.forEach(CompletableFuture::join);
+    }
+
+    private MultiRelayEmailSender createMultiRelaySender(final RelayHealthConfiguration health) {
+        final List<WeightedRelay> relays = Arrays.asList(
+                new WeightedRelay(new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                        SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD), 1),
+                new WeightedRelay(new SmtpConfiguration(setup.getBindAddress(), SECOND_PORT,
+                        SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD), 1));
+        return new MultiRelayEmailSender(relays, new ForkJoinPool(4), TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.defaults(), health);
+    }
+}
@@ -0,0 +1,246 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.mail.Message;
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.NewsAddress;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NioSmtpEmailSenderIntegrationTest extends AbstractIntegrationTest {
+
+    @Rule
+    public final GreenMailRule greenMailSsl = new GreenMailRule(ServerSetupTest.SMTPS);
+
+    @Test
+    public void sendReturnsNonEmptyMessageIDAndMessageIsReceived() throws Exception {
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(setup.getPort()), TIMEOUT_60_SECONDS);
+
+        final String messageId = nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+        assertThat(messageId).isNotEmpty();
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        final Message message = greenMail.getReceivedMessages()[0];
+        assertThat(message.getSubject()).isEqualTo(TEST);
+        assertThat(message.getContent()).isEqualTo(HELLO_WORLD + CR_LF);
+    }
+
+    @Test
+    public void manyConcurrentConversations() {
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(setup.getPort()), TIMEOUT_60_SECONDS);
+        final List<String> expectedSubjects = IntStream.range(1, 101)
+                .mapToObj(i -> "Message " + i)
+                .collect(Collectors.toList());
+
+        IntStream.range(1, 101)
+                .mapToObj(i -> nioSender.send(TestUtils.getEditor(i)).toCompletableFuture())
+                .collect(Collectors.toList())
+                .forEach(CompletableFuture::join);
+
+        assertThat(greenMail.getReceivedMessages())
+                .extracting("subject")
+                .containsExactlyInAnyOrder(expectedSubjects.toArray());
+    }
+
+    @Test
+    public void missingRecipientAddressYieldsEmailDeliveryException() {
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(setup.getPort()), TIMEOUT_60_SECONDS);
+
+        assertThatThrownBy(() -> { nioSender.send(msg -> {}).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("No recipient addresses");
+    }
+
+    @Test
+    public void recipientsWithoutAnInternetAddressYieldEmailDeliveryException() {
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(setup.getPort()), TIMEOUT_60_SECONDS);
+
+        assertThatThrownBy(() -> {
+            nioSender.send(msg -> msg.setRecipient(MimeMessage.RecipientType.NEWSGROUPS,
+                    new NewsAddress("comp.lang.java"))).toCompletableFuture().join();
+        })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("Unsupported recipient address type: news");
+    }
+
+    @Test
+    public void invalidServerPortRaisesException() {
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(123), TIMEOUT_60_SECONDS);
+
+        assertThatThrownBy(() -> { nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("java.net.ConnectException");
+    }
+
+    @Test
+    public void abortConnectionIfServerDoesNotSupportSTARTTLS() {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.STARTTLS, USERNAME, PASSWORD);
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(smtpConfiguration, TIMEOUT_60_SECONDS);
+
+        assertThatThrownBy(() -> { nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailDeliveryException.class)
+                .hasStackTraceContaining("STARTTLS is required but host does not support STARTTLS");
+    }
+
+    @Test
+    public void sendOverImplicitTls() throws Exception {
+        final ServerSetup sslSetup = greenMailSsl.getSmtps().getServerSetup();
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(sslSetup.getBindAddress(), sslSetup.getPort(),
+                SmtpConfiguration.TransportSecurity.SSL_TLS, USERNAME, PASSWORD);
+        final NioSmtpEmailSender nioSender = new NioSmtpEmailSenderThatTrustsAllCertificates(smtpConfiguration);
+
+        final String messageId = nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+        assertThat(messageId).isNotEmpty();
+        assertThat(greenMailSsl.getReceivedMessages()).hasSize(1);
+        assertThat(greenMailSsl.getReceivedMessages()[0].getSubject()).isEqualTo(TEST);
+    }
+
+    @Test
+    public void envelopeIsPipelinedIfTheServerSupportsIt() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            final CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() ->
+                    serveOneMessage(serverSocket, "250 OK"));
+            final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(serverSocket.getLocalPort()),
+                    TIMEOUT_60_SECONDS);
+
+            final String messageId = nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+            assertThat(messageId).isNotEmpty();
+            assertThat(received.join())
+                    .contains("AUTH PLAIN " + Base64.getEncoder().encodeToString(
+                            ("\0" + USERNAME + "\0" + PASSWORD).getBytes(StandardCharsets.UTF_8)))
+                    .contains("RCPT TO:<" + FOO_BAR_AT_DOMAIN_COM + ">", "DATA", ".", "QUIT");
+        }
+    }
+
+    @Test
+    public void noDataIsSentIfARecipientIsRejected() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            final CompletableFuture<List<String>> received = CompletableFuture.supplyAsync(() ->
+                    serveOneMessage(serverSocket, "550 No such user"));
+            final NioSmtpEmailSender nioSender = new NioSmtpEmailSender(plainConfiguration(serverSocket.getLocalPort()),
+                    TIMEOUT_60_SECONDS);
+
+            assertThatThrownBy(() -> { nioSender.send(TestUtils.validShortEmail()).toCompletableFuture().join(); })
+                    .hasCauseInstanceOf(EmailDeliveryException.class)
+                    .hasRootCauseInstanceOf(SendFailedException.class)
+                    .hasStackTraceContaining("No such user");
+            assertThat(received.join()).doesNotContain(".", "QUIT");
+        }
+    }
+
+    /**
+     * Plays an SMTP server that supports pipelining. The server reads the MAIL, RCPT and DATA commands before it
+     * replies to any of them, so a client that does not pipeline would time out.
+     */
+    private static List<String> serveOneMessage(@Nonnull final ServerSocket serverSocket,
+                                                @Nonnull final String recipientReply) {
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        try (Socket socket = serverSocket.accept()) {
+            socket.setSoTimeout(5000);
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            final OutputStream out = socket.getOutputStream();
+            write(out, "220 scripted server");
+            received.add(in.readLine());
+            write(out, "250-scripted server\r\n250-PIPELINING\r\n250 AUTH LOGIN PLAIN");
+            received.add(in.readLine());
+            write(out, "235 Authenticated");
+            for (int i = 0; i < 3; i++) {
+                received.add(in.readLine());
+            }
+            write(out, "250 OK\r\n" + recipientReply + "\r\n354 Go ahead");
+            String line;
+            while ((line = in.readLine()) != null && !line.equals(".")) {
+                received.add(line);
+            }
+            if (line != null) {
+                received.add(line);
+                write(out, "250 Queued");
+                received.add(in.readLine());
+                write(out, "221 Bye");
+            }
+        } catch (Exception e) {
+            received.add(e.toString());
+        }
+        return received;
+    }
+
+    private static void write(@Nonnull final OutputStream out, @Nonnull final String reply) throws Exception {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private SmtpConfiguration plainConfiguration(final int port) {
+        return new SmtpConfiguration(setup.getBindAddress(), port, SmtpConfiguration.TransportSecurity.None,
+                USERNAME, PASSWORD);
+    }
+
+    private static class NioSmtpEmailSenderThatTrustsAllCertificates extends NioSmtpEmailSender {
+
+        NioSmtpEmailSenderThatTrustsAllCertificates(@Nonnull final SmtpConfiguration smtpConfiguration) {
+            super(smtpConfiguration, TIMEOUT_60_SECONDS);
+        }
+
+        @Override
+        protected SSLEngine createSslEngine(@Nonnull final SmtpConfiguration smtpConfiguration) {
+            // Greenmail uses a self-signed certificate, hence the test trusts all certificates
+            try {
+                final SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, new TrustManager[]{new X509TrustManager() {
+                    @Override
+                    public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+                    }
+
+                    @Override
+                    public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+                    }
+
+                    @Override
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return new X509Certificate[0];
+                    }
+                }}, null);
+                final SSLEngine engine = context.createSSLEngine(smtpConfiguration.getHost(), smtpConfiguration.getPort());
+                engine.setUseClientMode(true);
+                // The certificate of Greenmail has a DSA key, which is not supported by TLS 1.3
+                engine.setEnabledProtocols(new String[]{"TLSv1.2"});
+                engine.setEnabledCipherSuites(Arrays.stream(engine.getSupportedCipherSuites())
+                        .filter(suite -> suite.contains("_DSS_"))
+                        .toArray(String[]::new));
+                return engine;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.SendOptions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboxIntegrationTest extends AbstractIntegrationTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sentMessagesAreRemovedFromTheOutbox() throws Exception {
+        final File directory = folder.newFolder();
+        final SmtpAuthEmailSender outboxSender = createOutboxSender(executor, directory);
+
+        TestUtils.sendMessages(outboxSender, 0, 3).toCompletableFuture().join();
+        outboxSender.close();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(3);
+        assertThat(directory.list()).isEmpty();
+        final SmtpAuthEmailSender restartedSender = createOutboxSender(executor, directory);
+        assertThat(restartedSender.replayOutbox()).isEmpty();
+        restartedSender.close();
+    }
+
+    @Test
+    public void messagesThatWereNotSentAreReplayedAfterARestart() throws Exception {
+        final File directory = folder.newFolder();
+        final Executor stalledExecutor = runnable -> { };
+        final SmtpAuthEmailSender stalledSender = createOutboxSender(stalledExecutor, directory);
+        stalledSender.send(TestUtils.getEditor(1));
+        stalledSender.send(TestUtils.getEditor(2), SendOptions.defaults().withPriority(EmailPriority.BULK));
+        stalledSender.close();
+        assertThat(directory.list()).isNotEmpty();
+
+        final SmtpAuthEmailSender restartedSender = createOutboxSender(new ForkJoinPool(1), directory);
+        final List<CompletionStage<String>> results = restartedSender.replayOutbox();
+        results.forEach(result -> result.toCompletableFuture().join());
+        restartedSender.close();
+
+        assertThat(results).hasSize(2);
+        assertThat(greenMail.getReceivedMessages())
+                .extracting("subject")
+                .containsExactlyInAnyOrder("Message 1", "Message 2");
+        assertThat(directory.list()).isEmpty();
+        assertThat(restartedSender.replayOutbox()).isEmpty();
+    }
+
+    @Test
+    public void messagesRejectedDuringReplayRemainInTheOutbox() throws Exception {
+        final File directory = folder.newFolder();
+        final SmtpAuthEmailSender stalledSender = createOutboxSender(runnable -> { }, directory);
+        stalledSender.send(TestUtils.getEditor(1));
+        stalledSender.close();
+
+        final SmtpAuthEmailSender rejectingSender = createOutboxSender(runnable -> {
+            throw new RejectedExecutionException();
+        }, directory);
+        final List<CompletionStage<String>> rejected = rejectingSender.replayOutbox();
+        assertThat(rejected.get(0).toCompletableFuture()).isCompletedExceptionally();
+        rejectingSender.close();
+
+        final SmtpAuthEmailSender restartedSender = createOutboxSender(executor, directory);
+        restartedSender.replayOutbox().forEach(result -> result.toCompletableFuture().join());
+        restartedSender.close();
+        assertThat(greenMail.getReceivedMessages()).extracting("subject").containsExactly("Message 1");
+    }
+
+    private SmtpAuthEmailSender createOutboxSender(final Executor executor, final File directory) {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .outbox(new OutboxConfiguration(directory.toPath(), 64 * 1024, false))
+                .build();
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS, options);
+    }
+}
@@ -0,0 +1,52 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RateLimitIntegrationTest extends AbstractIntegrationTest {
+
+    @Test
+    public void messagesBeyondTheRateAreDelayed() {
+        final SmtpAuthEmailSender limitedSender = createLimitedSender(new RateLimitConfiguration(20, 0, 0, 60 * 1000));
+
+        final long start = System.nanoTime();
+        sendAll(limitedSender, 40).forEach(CompletableFuture::join);
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(40);
+        assertThat(elapsedMs).isGreaterThanOrEqualTo(900);
+    }
+
+    @Test
+    public void messagesThatWouldWaitTooLongAreRejected() {
+        final SmtpAuthEmailSender limitedSender = createLimitedSender(new RateLimitConfiguration(0, 3, 0, 100));
+
+        final List<CompletableFuture<String>> results = sendAll(limitedSender, 5);
+
+        results.subList(0, 3).forEach(CompletableFuture::join);
+        results.subList(3, 5).forEach(result -> assertThatThrownBy(result::join)
+                .hasCauseInstanceOf(EmailRejectedException.class));
+        assertThat(greenMail.getReceivedMessages()).hasSize(3);
+    }
+
+    private static List<CompletableFuture<String>> sendAll(final SmtpAuthEmailSender sender, final int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> sender.send(TestUtils.getEditor(i)).toCompletableFuture())
+                .collect(Collectors.toList());
+    }
+
+    private SmtpAuthEmailSender createLimitedSender(final RateLimitConfiguration rateLimit) {
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.None, USERNAME, PASSWORD);
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, TIMEOUT_60_SECONDS,
+                SmtpSenderOptions.builder().rateLimit(rateLimit).build());
+    }
+}
@@ -0,0 +1,42 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.MessageTemplate;
+import org.junit.Test;
+
+import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TemplateIntegrationTest extends AbstractIntegrationTest {
+
+    @Test
+    public void messagesCreatedFromATemplateAreSentToTheirOwnRecipients() throws Exception {
+        final MessageTemplate template = MessageTemplate.compile(msg -> {
+            msg.setFrom("sender@domain.com");
+            msg.setSubject("Newsletter", "UTF-8");
+            msg.setText("Grüße aus Berlin", "UTF-8");
+        });
+
+        final List<String> messageIds = IntStream.range(1, 4)
+                .mapToObj(i -> sender.send(template.with(msg ->
+                        msg.setRecipients(Message.RecipientType.TO, "recipient" + i + "@domain.com"))))
+                .map(stage -> stage.toCompletableFuture())
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        final MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(received).extracting("subject").containsOnly("Newsletter");
+        assertThat(received).extracting("messageID").containsExactlyElementsOf(messageIds).doesNotHaveDuplicates();
+        for (int i = 0; i < received.length; i++) {
+            assertThat(received[i].getRecipients(Message.RecipientType.TO))
+                    .extracting(Object::toString)
+                    .containsExactly("recipient" + (i + 1) + "@domain.com");
+        }
+        assertThat(((String) received[2].getContent()).trim()).isEqualTo("Grüße aus Berlin");
+    }
+}
@@ -0,0 +1,109 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.icegreen.greenmail.junit.GreenMailRule;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TlsIntegrationTest {
+
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "password";
+
+    @Rule
+    public final GreenMailRule greenMail = new GreenMailRule(ServerSetupTest.SMTPS);
+    private Executor executor;
+    private SmtpAuthEmailSender sender;
+
+    @Before
+    public void setup() {
+        greenMail.setUser(USERNAME, PASSWORD);
+        executor = runnable -> runnable.run();
+        final ServerSetup setup = greenMail.getSmtps().getServerSetup();
+        final SmtpConfiguration smtpConfiguration = new SmtpConfiguration(setup.getBindAddress(), setup.getPort(),
+                SmtpConfiguration.TransportSecurity.SSL_TLS, USERNAME, PASSWORD);
+        final TlsConfiguration tls = new TlsConfiguration(10, 60, Collections.singletonList("TLSv1.2"), null);
+        sender = new SmtpAuthEmailSenderThatTrustsAnyServer(smtpConfiguration, executor,
+                SmtpSenderOptions.builder().tls(tls).build());
+    }
+
+    @After
+    public void closeSender() {
+        sender.close();
+    }
+
+    @Test
+    public void connectionsUseTheContextOfTheSender() throws Exception {
+        TestUtils.testSuccessfulSend(greenMail, sender);
+
+        assertThat(Collections.list(sender.getSslContext().getClientSessionContext().getIds())).hasSize(1);
+    }
+
+    @Test
+    public void newConnectionsResumeTheTlsSession() {
+        sender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+        sender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+        sender.send(TestUtils.validShortEmail()).toCompletableFuture().join();
+
+        assertThat(greenMail.getReceivedMessages()).hasSize(3);
+        assertThat(Collections.list(sender.getSslContext().getClientSessionContext().getIds())).hasSize(1);
+    }
+
+    private static class SmtpAuthEmailSenderThatTrustsAnyServer extends SmtpAuthEmailSender {
+
+        SmtpAuthEmailSenderThatTrustsAnyServer(@Nonnull final SmtpConfiguration smtpConfiguration,
+                                               @Nonnull final Executor executor,
+                                               @Nonnull final SmtpSenderOptions options) {
+            super(smtpConfiguration, executor, 60 * 1000, options);
+        }
+
+        @Nonnull
+        @Override
+        protected SSLContext createSslContext(@Nonnull final TlsConfiguration tls) {
+            try {
+                // GreenMail uses a self-signed certificate
+                final SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, new TrustManager[]{new TrustingTrustManager()}, null);
+                return context;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        protected void properties(@Nonnull final Properties properties) {
+            properties.setProperty("mail.smtp.ssl.checkserveridentity", "" + false);
+        }
+    }
+
+    private static class TrustingTrustManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
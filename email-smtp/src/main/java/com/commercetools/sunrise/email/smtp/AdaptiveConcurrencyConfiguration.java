@@ -0,0 +1,96 @@
+package com.commercetools.sunrise.email.smtp;
+
+/**
+ * Instances of this class specify how an {@link SmtpAuthEmailSender} adapts the number of e-mails it transfers
+ * concurrently to how well the SMTP server keeps up, instead of transferring as many e-mails as the
+ * {@link java.util.concurrent.Executor} has threads.
+ * <p>
+ * The limit follows the additive increase, multiplicative decrease (AIMD) scheme known from TCP congestion control.
+ * While transfers succeed faster than {@link #getLatencyThresholdMs()} and the limit is used, it grows by about one
+ * per limit's worth of e-mails. If a transfer takes longer, or fails temporarily, e.g. because the connection failed
+ * or the SMTP server replied with a 4xx code, the limit is multiplied by {@link #getBackoffRatio()}. Permanent
+ * failures, e.g. unknown recipients, do not change the limit. E-mails beyond the limit wait in the send queue without
+ * blocking a thread of the executor.
+ *
+ * @see SmtpSenderOptions.Builder#adaptiveConcurrency(AdaptiveConcurrencyConfiguration)
+ */
+public class AdaptiveConcurrencyConfiguration {
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyThresholdMs;
+
+    private final double backoffRatio;
+
+    /**
+     * Create a configuration for an adaptive concurrency limit.
+     *
+     * @param initialLimit       the number of concurrent transfers to start with
+     * @param minLimit           the number of concurrent transfers that is always permitted, at least 1
+     * @param maxLimit           the maximum number of concurrent transfers, which should not exceed the number of
+     *                           threads of the executor or the maximum number of pooled connections
+     * @param latencyThresholdMs the time in milliseconds to connect, if needed, and transfer an e-mail beyond which
+     *                           the SMTP server is considered overloaded
+     * @param backoffRatio       the factor between 0 and 1 by which the limit shrinks if the SMTP server is overloaded,
+     *                           e.g. 0.9
+     */
+    public AdaptiveConcurrencyConfiguration(final int initialLimit, final int minLimit, final int maxLimit,
+                                            final long latencyThresholdMs, final double backoffRatio) {
+        if (minLimit < 1)
+            throw new IllegalArgumentException("The minimum limit must be positive: " + minLimit);
+        if (maxLimit < minLimit)
+            throw new IllegalArgumentException("The maximum limit must not be lower than the minimum limit: "
+                    + maxLimit);
+        if (initialLimit < minLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("The initial limit must be between the minimum and the maximum limit: "
+                    + initialLimit);
+        if (latencyThresholdMs < 1)
+            throw new IllegalArgumentException("The latency threshold must be positive: " + latencyThresholdMs);
+        if (!(backoffRatio > 0 && backoffRatio < 1))
+            throw new IllegalArgumentException("The backoff ratio must be between 0 and 1: " + backoffRatio);
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdMs = latencyThresholdMs;
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @return the number of concurrent transfers to start with
+     */
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * @return the number of concurrent transfers that is always permitted
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * @return the maximum number of concurrent transfers
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return the time in milliseconds to transfer an e-mail beyond which the SMTP server is considered overloaded
+     */
+    public long getLatencyThresholdMs() {
+        return latencyThresholdMs;
+    }
+
+    /**
+     * @return the factor by which the limit shrinks if the SMTP server is overloaded
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+}
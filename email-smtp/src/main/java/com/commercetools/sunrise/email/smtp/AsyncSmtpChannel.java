@@ -0,0 +1,381 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-blocking SMTP connection on top of an {@link AsynchronousSocketChannel}. The connection reads SMTP replies,
+ * writes commands and data, and can be switched to TLS with an {@link SSLEngine} at any time.
+ * <p>
+ * Instances are not thread-safe. Callers must not start an operation before the previous one has completed, which
+ * is naturally the case if operations are chained with {@link CompletableFuture#thenCompose}.
+ */
+final class AsyncSmtpChannel implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final AsynchronousSocketChannel channel;
+
+    private final long timeoutMs;
+
+    @Nullable
+    private SSLEngine engine;
+
+    /**
+     * Decrypted data received from the server, in read mode.
+     */
+    private ByteBuffer plainIn = emptyBuffer(BUFFER_SIZE);
+
+    /**
+     * Encrypted data received from the server, in read mode. Only used after switching to TLS.
+     */
+    private ByteBuffer netIn = EMPTY;
+
+    /**
+     * Encrypted data to send to the server. Only used after switching to TLS.
+     */
+    private ByteBuffer netOut = EMPTY;
+
+    /**
+     * The beginning of a reply line that has not been terminated yet.
+     */
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream(128);
+
+    private AsyncSmtpChannel(@Nonnull final AsynchronousSocketChannel channel, final long timeoutMs) {
+        this.channel = channel;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Opens a plain-text connection.
+     *
+     * @param group     the group whose threads complete I/O operations, or {@code null} for the default group
+     * @param address   the resolved address of the SMTP server
+     * @param timeoutMs the timeout for connecting, and later for each read and write, in milliseconds
+     * @return a stage containing the connected channel
+     */
+    static CompletableFuture<AsyncSmtpChannel> connect(@Nullable final AsynchronousChannelGroup group,
+                                                       @Nonnull final InetSocketAddress address, final long timeoutMs) {
+        final CompletableFuture<AsyncSmtpChannel> result = new CompletableFuture<>();
+        final AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open(group);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        final ScheduledFuture<?> timeout = DaemonScheduler.get().schedule(() -> {
+            if (result.completeExceptionally(new SocketTimeoutException("Connect timed out"))) {
+                closeQuietly(channel);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(final Void ignored, final Void attachment) {
+                timeout.cancel(false);
+                if (!result.complete(new AsyncSmtpChannel(channel, timeoutMs))) {
+                    closeQuietly(channel);
+                }
+            }
+
+            @Override
+            public void failed(final Throwable t, final Void attachment) {
+                timeout.cancel(false);
+                result.completeExceptionally(t);
+                closeQuietly(channel);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Switches the connection to TLS and performs the TLS handshake. For implicit TLS this is invoked right after
+     * connecting, for STARTTLS after the server accepted the {@code STARTTLS} command.
+     *
+     * @param sslEngine an engine in client mode that has not been used yet
+     * @return a stage that completes when the handshake has finished
+     */
+    CompletableFuture<Void> startTls(@Nonnull final SSLEngine sslEngine) {
+        this.engine = sslEngine;
+        this.netIn = emptyBuffer(sslEngine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+        this.plainIn = emptyBuffer(Math.max(plainIn.capacity(), sslEngine.getSession().getApplicationBufferSize()));
+        try {
+            sslEngine.beginHandshake();
+        } catch (SSLException e) {
+            return failed(e);
+        }
+        return handshake();
+    }
+
+    /**
+     * Reads the next complete reply, which may span several lines.
+     *
+     * @return a stage containing the reply
+     */
+    CompletableFuture<SmtpReply> readReply() {
+        return readReply(new ArrayList<>(1));
+    }
+
+    /**
+     * Writes a command followed by CRLF.
+     *
+     * @param command the command without line terminator
+     * @return a stage that completes when the command has been written
+     */
+    CompletableFuture<Void> writeCommand(@Nonnull final String command) {
+        return write(ByteBuffer.wrap((command + "\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffer.
+     *
+     * @param data the data to write
+     * @return a stage that completes when all data has been written
+     */
+    CompletableFuture<Void> write(@Nonnull final ByteBuffer data) {
+        if (engine == null) {
+            return writeFully(data);
+        }
+        try {
+            netOut.clear();
+            final SSLEngineResult result = engine.wrap(data, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+                return write(data);
+            } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                return failed(new SSLException("The TLS connection has been closed"));
+            }
+            netOut.flip();
+            return writeFully(netOut).thenCompose(ignored -> data.hasRemaining() ? write(data) : done());
+        } catch (SSLException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (engine != null) {
+            engine.closeOutbound();
+        }
+        closeQuietly(channel);
+    }
+
+    private CompletableFuture<SmtpReply> readReply(@Nonnull final List<String> lines) {
+        String line;
+        while ((line = pollLine()) != null) {
+            lines.add(line);
+            if (line.length() < 4 || line.charAt(3) != '-') {
+                return CompletableFuture.completedFuture(SmtpReply.parse(lines));
+            }
+        }
+        return fill().thenCompose(ignored -> readReply(lines));
+    }
+
+    /**
+     * @return the next line received from the server without its line terminator, or {@code null} if no complete
+     * line has been received yet
+     */
+    @Nullable
+    private String pollLine() {
+        while (plainIn.hasRemaining()) {
+            final byte b = plainIn.get();
+            if (b == '\n') {
+                final String line = new String(partialLine.toByteArray(), StandardCharsets.UTF_8);
+                partialLine.reset();
+                return line;
+            } else if (b != '\r') {
+                partialLine.write(b);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Receives more plain-text data into {@link #plainIn}.
+     */
+    private CompletableFuture<Void> fill() {
+        if (engine == null) {
+            plainIn.compact();
+            return read(plainIn).thenAccept(ignored -> plainIn.flip());
+        }
+        try {
+            plainIn.compact();
+            final SSLEngineResult result = engine.unwrap(netIn, plainIn);
+            plainIn.flip();
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    return readNet().thenCompose(ignored -> fill());
+                case BUFFER_OVERFLOW:
+                    plainIn = enlarge(plainIn, engine.getSession().getApplicationBufferSize());
+                    return fill();
+                case CLOSED:
+                    return failed(new EOFException("The SMTP server closed the TLS connection"));
+                default:
+                    break;
+            }
+            if (result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.FINISHED) {
+                // Post-handshake messages like TLS 1.3 session tickets or key updates
+                return handshake().thenCompose(ignored -> plainIn.hasRemaining() ? done() : fill());
+            }
+            return result.bytesProduced() > 0 ? done() : fill();
+        } catch (SSLException e) {
+            return failed(e);
+        }
+    }
+
+    private CompletableFuture<Void> handshake() {
+        try {
+            while (true) {
+                switch (engine.getHandshakeStatus()) {
+                    case FINISHED:
+                    case NOT_HANDSHAKING:
+                        return done();
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+                    case NEED_WRAP:
+                        netOut.clear();
+                        final SSLEngineResult wrapped = engine.wrap(EMPTY, netOut);
+                        if (wrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+                            break;
+                        } else if (wrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            return failed(new SSLException("The TLS handshake failed"));
+                        }
+                        netOut.flip();
+                        return writeFully(netOut).thenCompose(ignored -> handshake());
+                    default: // NEED_UNWRAP
+                        plainIn.compact();
+                        final SSLEngineResult unwrapped = engine.unwrap(netIn, plainIn);
+                        plainIn.flip();
+                        if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            return readNet().thenCompose(ignored -> handshake());
+                        } else if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            plainIn = enlarge(plainIn, engine.getSession().getApplicationBufferSize());
+                        } else if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            return failed(new SSLException("The SMTP server closed the connection during the TLS handshake"));
+                        }
+                        break;
+                }
+            }
+        } catch (SSLException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Receives more encrypted data into {@link #netIn}.
+     */
+    private CompletableFuture<Void> readNet() {
+        if (netIn.remaining() == netIn.capacity()) {
+            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+        }
+        netIn.compact();
+        return read(netIn).thenAccept(ignored -> netIn.flip());
+    }
+
+    /**
+     * Reads from the socket into the given buffer, which must be in write mode.
+     */
+    private CompletableFuture<Void> read(@Nonnull final ByteBuffer buffer) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        channel.read(buffer, timeoutMs, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(final Integer count, final Void attachment) {
+                if (count < 0) {
+                    result.completeExceptionally(new EOFException("The SMTP server closed the connection"));
+                } else {
+                    result.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(final Throwable t, final Void attachment) {
+                result.completeExceptionally(translate(t, "Read timed out"));
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<Void> writeFully(@Nonnull final ByteBuffer buffer) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        channel.write(buffer, timeoutMs, TimeUnit.MILLISECONDS, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(final Integer count, final Void attachment) {
+                result.complete(null);
+            }
+
+            @Override
+            public void failed(final Throwable t, final Void attachment) {
+                result.completeExceptionally(translate(t, "Write timed out"));
+            }
+        });
+        return result.thenCompose(ignored -> buffer.hasRemaining() ? writeFully(buffer) : done());
+    }
+
+    private static Throwable translate(@Nonnull final Throwable t, @Nonnull final String timeoutMessage) {
+        if (t instanceof InterruptedByTimeoutException) {
+            final SocketTimeoutException timeout = new SocketTimeoutException(timeoutMessage);
+            timeout.initCause(t);
+            return timeout;
+        }
+        return t;
+    }
+
+    private static ByteBuffer enlarge(@Nonnull final ByteBuffer buffer, final int minimumCapacity) {
+        final ByteBuffer enlarged = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minimumCapacity));
+        enlarged.put(buffer);
+        enlarged.flip();
+        return enlarged;
+    }
+
+    private static ByteBuffer emptyBuffer(final int capacity) {
+        final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static CompletableFuture<Void> done() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static <T> CompletableFuture<T> failed(@Nonnull final Throwable t) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(t);
+        return result;
+    }
+
+    private static void closeQuietly(@Nonnull final AsynchronousSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The connection is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.activation.URLDataSource;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of attachments that have been read and transfer-encoded (e.g. base64) already, for attachments that are
+ * included in many e-mails, e.g. terms and conditions attached to every order confirmation.
+ * <p>
+ * The body parts returned by this cache share the encoded bytes of the attachment: neither reading the attachment
+ * again nor encoding it again is needed to send them, unless they are modified. Each invocation returns a new body
+ * part, because a body part can only belong to one message. The following example attaches a cached file.
+ * <pre>{@code
+ * AttachmentCache attachments = new AttachmentCache(10 * 1024 * 1024);
+ * ...
+ * sender.send(msg -> {
+ *      MimeBodyPart textPart = new MimeBodyPart();
+ *      textPart.setText("Thank you for your order!", "UTF-8");
+ *      msg.setContent(new MimeMultipart(textPart, attachments.getBodyPart(termsAndConditionsURL)));
+ *      ...
+ * });
+ * }</pre>
+ * Attachments are identified by a key that the caller chooses, e.g. the URL or a hash of the content. The cache holds
+ * encoded attachments up to a total size; if adding an attachment exceeds that size, the least recently used
+ * attachments are evicted. Attachments larger than the total size are encoded but not cached.
+ * <p>
+ * Instances are thread-safe and are meant to be shared by all e-mails of an application. If several threads miss the
+ * same attachment at the same time, it may be encoded more than once.
+ */
+public class AttachmentCache {
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxBytes the maximum total size in bytes of the encoded attachments held by the cache
+     */
+    public AttachmentCache(final long maxBytes) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("The maximum size must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a body part with the attachment at the given URL, which also identifies the attachment in this cache. The
+     * file name of the attachment is the last segment of the URL path.
+     *
+     * @param url where to read the attachment from
+     * @return a new body part with the encoded attachment
+     * @throws MessagingException if the attachment cannot be read or encoded
+     */
+    @Nonnull
+    public MimeBodyPart getBodyPart(@Nonnull final URL url) throws MessagingException {
+        return getBodyPart(url.toExternalForm(), new URLDataSource(url));
+    }
+
+    /**
+     * Get a body part with the given attachment. If the cache does not hold an attachment with the given key, the
+     * attachment is read from the data source, encoded and cached. The file name of the attachment is the name of the
+     * data source, if any.
+     *
+     * @param key    identifies the content and the name of the attachment
+     * @param source the attachment, only read if the cache does not hold the attachment
+     * @return a new body part with the encoded attachment
+     * @throws MessagingException if the attachment cannot be read or encoded
+     */
+    @Nonnull
+    public MimeBodyPart getBodyPart(@Nonnull final String key, @Nonnull final DataSource source)
+            throws MessagingException {
+        byte[] encoded = get(key);
+        if (encoded == null) {
+            encoded = encode(source);
+            put(key, encoded);
+        }
+        return new MimeBodyPart(new SharedByteArrayInputStream(encoded));
+    }
+
+    /**
+     * Remove the attachment with the given key, e.g. because its content changed.
+     *
+     * @param key identifies the attachment
+     */
+    public synchronized void invalidate(@Nonnull final String key) {
+        final byte[] removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.length;
+        }
+    }
+
+    /**
+     * @return the number of attachments held by this cache
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size in bytes of the encoded attachments held by this cache
+     */
+    public synchronized long getSizeBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return how often an attachment was found in this cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return how often an attachment had to be read and encoded
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Nullable
+    private synchronized byte[] get(@Nonnull final String key) {
+        final byte[] encoded = entries.get(key);
+        if (encoded != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return encoded;
+    }
+
+    private synchronized void put(@Nonnull final String key, @Nonnull final byte[] encoded) {
+        if (encoded.length > maxBytes) {
+            return;
+        }
+        final byte[] replaced = entries.put(key, encoded);
+        bytes += encoded.length - (replaced != null ? replaced.length : 0);
+        final Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Reads the given attachment and writes it with its MIME headers and in its transfer encoding.
+     *
+     * @param source the attachment
+     * @return the encoded body part
+     * @throws MessagingException if the attachment cannot be read or encoded
+     */
+    @Nonnull
+    private static byte[] encode(@Nonnull final DataSource source) throws MessagingException {
+        final EncodingBodyPart part = new EncodingBodyPart();
+        part.setDataHandler(new DataHandler(source));
+        if (source.getName() != null && !source.getName().isEmpty()) {
+            part.setFileName(source.getName());
+        }
+        try {
+            return part.encode();
+        } catch (IOException e) {
+            throw new MessagingException("Failed to encode attachment " + source.getName(), e);
+        }
+    }
+
+    /**
+     * A body part that sets its {@code Content-Type} and {@code Content-Transfer-Encoding} headers before it is written,
+     * like the parts of a message do when the message is sent.
+     */
+    private static final class EncodingBodyPart extends MimeBodyPart {
+
+        byte[] encode() throws MessagingException, IOException {
+            updateHeaders();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeTo(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.smtp.CircuitBreakerConfiguration.State;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The circuit breaker of an {@link SmtpAuthEmailSender}, see {@link CircuitBreakerConfiguration}. The outcomes of the
+ * most recent transfers are kept in a ring buffer. Every transfer permitted by {@link #tryAcquire()} must be followed
+ * by {@link #recordSuccess()} or {@link #recordFailure()}.
+ */
+final class CircuitBreaker {
+
+    private final CircuitBreakerConfiguration configuration;
+
+    private final LongSupplier nanoTime;
+
+    private final long openNanos;
+
+    /**
+     * The outcomes of the most recent transfers while the circuit is closed, {@code true} for failures.
+     */
+    private final boolean[] window;
+
+    private int windowIndex = 0;
+
+    private int windowCount = 0;
+
+    private int windowFailures = 0;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int probesStarted;
+
+    private int probesSucceeded;
+
+    CircuitBreaker(@Nonnull final CircuitBreakerConfiguration configuration) {
+        this(configuration, System::nanoTime);
+    }
+
+    CircuitBreaker(@Nonnull final CircuitBreakerConfiguration configuration, @Nonnull final LongSupplier nanoTime) {
+        this.configuration = configuration;
+        this.nanoTime = nanoTime;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getOpenMs());
+        this.window = new boolean[configuration.getWindowSize()];
+    }
+
+    /**
+     * @return {@code true} if e-mails are rejected without being queued, i.e. the circuit is open and does not let
+     * probes through yet
+     */
+    synchronized boolean isRejecting() {
+        return state == State.OPEN && nanoTime.getAsLong() - openedAt < openNanos;
+    }
+
+    /**
+     * @return {@code true} if a transfer may start, possibly as a probe
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoTime.getAsLong() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= configuration.getProbeCount()) {
+                return false;
+            }
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * Records a transfer that reached the SMTP server.
+     */
+    synchronized void recordSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++probesSucceeded >= configuration.getProbeCount()) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a transfer that failed because of the SMTP server, see {@link SmtpFailures#isServerFailure(Throwable)}.
+     */
+    synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+        }
+    }
+
+    /**
+     * @return the current state, where an open circuit whose open time elapsed is reported as half-open
+     */
+    synchronized State getState() {
+        return state == State.OPEN && nanoTime.getAsLong() - openedAt >= openNanos ? State.HALF_OPEN : state;
+    }
+
+    private void record(final boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+        if (windowCount == window.length
+                && windowFailures >= configuration.getFailureRateThreshold() * window.length) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = nanoTime.getAsLong();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+/**
+ * Instances of this class specify when an {@link SmtpAuthEmailSender} stops contacting an SMTP server that fails, so
+ * that e-mails fail immediately instead of each blocking a thread of the executor until the connection times out.
+ * <p>
+ * The sender keeps the outcomes of the last {@link #getWindowSize()} transfers. Transfers fail if the SMTP server
+ * could not be connected to, the connection failed, authentication failed, or the server replied that the service is
+ * not available. Other failures, e.g. rejected recipients, show that the server works and count as successes. Once the
+ * window is full and at least {@link #getFailureRateThreshold()} of its transfers failed, the circuit
+ * {@link State#OPEN opens}: e-mails that are sent or taken from the send queue fail with a
+ * {@link CircuitOpenException}, which is an {@link EmailRejectedException}, without contacting the server. After {@link #getOpenMs()} the circuit is
+ * {@link State#HALF_OPEN half-open} and lets {@link #getProbeCount()} e-mails through as probes. If all of them
+ * succeed, the circuit {@link State#CLOSED closes} again; if one of them fails, it opens again.
+ *
+ * @see SmtpSenderOptions.Builder#circuitBreaker(CircuitBreakerConfiguration)
+ */
+public class CircuitBreakerConfiguration {
+
+    /**
+     * The states of the circuit breaker of an {@link SmtpAuthEmailSender}.
+     */
+    public enum State {
+
+        /**
+         * E-mails are sent, and their outcomes are recorded.
+         */
+        CLOSED,
+
+        /**
+         * E-mails fail immediately because the SMTP server failed recently.
+         */
+        OPEN,
+
+        /**
+         * A few e-mails are sent as probes, further e-mails fail immediately until the probes succeed.
+         */
+        HALF_OPEN
+    }
+
+    private final int windowSize;
+
+    private final double failureRateThreshold;
+
+    private final long openMs;
+
+    private final int probeCount;
+
+    /**
+     * Create a configuration for a circuit breaker.
+     *
+     * @param windowSize           the number of most recent transfers whose failure rate is checked
+     * @param failureRateThreshold the rate of failed transfers between 0 and 1 at which the circuit opens, e.g. 0.5
+     * @param openMs               the time in milliseconds after which an open circuit lets probes through
+     * @param probeCount           the number of probes that must succeed to close the circuit
+     */
+    public CircuitBreakerConfiguration(final int windowSize, final double failureRateThreshold, final long openMs,
+                                       final int probeCount) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("The window size must be positive: " + windowSize);
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1))
+            throw new IllegalArgumentException("The failure rate threshold must be greater than 0 and at most 1: "
+                    + failureRateThreshold);
+        if (openMs < 1)
+            throw new IllegalArgumentException("The open time must be positive: " + openMs);
+        if (probeCount < 1)
+            throw new IllegalArgumentException("At least one probe is required: " + probeCount);
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMs = openMs;
+        this.probeCount = probeCount;
+    }
+
+    /**
+     * @return the number of most recent transfers whose failure rate is checked
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @return the rate of failed transfers at which the circuit opens
+     */
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @return the time in milliseconds after which an open circuit lets probes through
+     */
+    public long getOpenMs() {
+        return openMs;
+    }
+
+    /**
+     * @return the number of probes that must succeed to close the circuit
+     */
+    public int getProbeCount() {
+        return probeCount;
+    }
+}
@@ -0,0 +1,17 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+/**
+ * An unchecked exception signalling that an {@link SmtpAuthEmailSender} rejected an e-mail because its circuit breaker
+ * is open, i.e. the SMTP server failed recently, see {@link CircuitBreakerConfiguration}.
+ * <p>
+ * Like other {@link EmailRejectedException}s, the SMTP server has not been contacted, so the e-mail may be sent via
+ * another server right away.
+ */
+public class CircuitOpenException extends EmailRejectedException {
+
+    public CircuitOpenException(final String message) {
+        super(message);
+    }
+}
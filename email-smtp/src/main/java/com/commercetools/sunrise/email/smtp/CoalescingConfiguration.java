@@ -0,0 +1,58 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.mail.Message;
+
+/**
+ * Instances of this class specify how an {@link SmtpAuthEmailSender} combines e-mails that only differ in their
+ * {@link Message.RecipientType#BCC} recipients into one SMTP transaction with several {@code RCPT TO} commands, so that
+ * the content is transferred once instead of once per e-mail.
+ * <p>
+ * E-mails are combined if they are sent within a window of time, have the same priority, and their headers and bodies
+ * are identical apart from the {@code Bcc}, {@code Message-ID} and {@code Date} headers, e.g. a notification sent to
+ * many people who are added as blind carbon copy recipients. Each e-mail waits for at most the window before it is
+ * queued for sending. E-mails without {@code Bcc} recipients are never combined, hence e-mails sent to the same
+ * recipients twice are still delivered twice.
+ * <p>
+ * Note that combined e-mails share one {@code Message-ID}. If the SMTP server rejects a combined e-mail permanently,
+ * e.g. because it rejects one of the recipients, the e-mails are sent again one by one, so that each completion stage
+ * tells the result of its own e-mail.
+ *
+ * @see SmtpSenderOptions.Builder#coalescing(CoalescingConfiguration)
+ */
+public class CoalescingConfiguration {
+
+    private final long windowMs;
+
+    private final int maxRecipients;
+
+    /**
+     * Create a configuration for combining e-mails.
+     *
+     * @param windowMs      how long in milliseconds an e-mail waits for identical e-mails to be combined with
+     * @param maxRecipients the maximum number of {@code Bcc} recipients of a combined e-mail, e.g. 100, which many SMTP
+     *                      servers accept per transaction
+     */
+    public CoalescingConfiguration(final long windowMs, final int maxRecipients) {
+        if (windowMs < 1)
+            throw new IllegalArgumentException("The window must be positive: " + windowMs);
+        if (maxRecipients < 2)
+            throw new IllegalArgumentException("At least two recipients are required to combine e-mails: "
+                    + maxRecipients);
+        this.windowMs = windowMs;
+        this.maxRecipients = maxRecipients;
+    }
+
+    /**
+     * @return how long in milliseconds an e-mail waits for identical e-mails to be combined with
+     */
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * @return the maximum number of {@code Bcc} recipients of a combined e-mail
+     */
+    public int getMaxRecipients() {
+        return maxRecipients;
+    }
+}
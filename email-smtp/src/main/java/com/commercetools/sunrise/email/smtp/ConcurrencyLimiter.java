@@ -0,0 +1,109 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The adaptive limit of concurrent transfers of an {@link SmtpAuthEmailSender}, see
+ * {@link AdaptiveConcurrencyConfiguration}.
+ * <p>
+ * A task of the executor that is not permitted to transfer a message is parked: it ends and leaves its message in the
+ * send queue. Releasing a permit tells how many parked tasks the sender has to submit again, so that every queued
+ * message keeps exactly one task. Permits and parked tasks are counted under one lock, so no wake-up is lost.
+ */
+final class ConcurrencyLimiter {
+
+    private final AdaptiveConcurrencyConfiguration configuration;
+
+    private final long latencyThresholdNanos;
+
+    /**
+     * The current limit, fractional so that it can grow by less than one per transfer.
+     */
+    private double limit;
+
+    private int inFlight = 0;
+
+    private int parked = 0;
+
+    ConcurrencyLimiter(@Nonnull final AdaptiveConcurrencyConfiguration configuration) {
+        this.configuration = configuration;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getLatencyThresholdMs());
+        this.limit = configuration.getInitialLimit();
+    }
+
+    /**
+     * @return {@code true} if a transfer may start, which must be followed by one of the release methods, or
+     * {@code false} if the calling task is parked
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight < getLimit()) {
+            inFlight++;
+            return true;
+        }
+        parked++;
+        return false;
+    }
+
+    /**
+     * Releases a permit without a transfer, e.g. because there was no message to send.
+     *
+     * @return the number of parked tasks to submit again
+     */
+    synchronized int release() {
+        inFlight--;
+        return unpark();
+    }
+
+    /**
+     * Releases the permit of a successful transfer, and grows or shrinks the limit depending on its latency.
+     *
+     * @param latencyNanos how long the transfer took
+     * @return the number of parked tasks to submit again
+     */
+    synchronized int releaseSucceeded(final long latencyNanos) {
+        if (latencyNanos > latencyThresholdNanos) {
+            backOff();
+        } else if (inFlight * 2 >= limit) {// only grow a limit that is used, or it would grow without bounds
+            limit = Math.min(configuration.getMaxLimit(), limit + 1 / limit);
+        }
+        inFlight--;
+        return unpark();
+    }
+
+    /**
+     * Releases the permit of a transfer that failed because the SMTP server is unavailable or overloaded, and shrinks
+     * the limit.
+     *
+     * @return the number of parked tasks to submit again
+     */
+    synchronized int releaseOverloaded() {
+        backOff();
+        inFlight--;
+        return unpark();
+    }
+
+    /**
+     * @return the number of concurrent transfers that is currently permitted
+     */
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of transfers in progress
+     */
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void backOff() {
+        limit = Math.max(configuration.getMinLimit(), limit * configuration.getBackoffRatio());
+    }
+
+    private int unpark() {
+        final int unparked = Math.max(0, Math.min(parked, getLimit() - inFlight));
+        parked -= unparked;
+        return unparked;
+    }
+}
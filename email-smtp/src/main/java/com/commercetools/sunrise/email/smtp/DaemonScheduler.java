@@ -0,0 +1,33 @@
+package com.commercetools.sunrise.email.smtp;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Holds the single daemon thread that e-mail senders use to trigger delayed work. Scheduled tasks must only hand off
+ * work to an {@link java.util.concurrent.Executor}, they must never block the scheduler thread.
+ */
+final class DaemonScheduler {
+
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private DaemonScheduler() {
+    }
+
+    /**
+     * @return the scheduler shared by all e-mail senders, it never needs to be shut down
+     */
+    static ScheduledExecutorService get() {
+        return SCHEDULER;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "sunrise-email-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+}
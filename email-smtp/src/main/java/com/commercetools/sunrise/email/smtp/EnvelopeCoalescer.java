@@ -0,0 +1,310 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.ParameterList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Combines the messages of an {@link SmtpAuthEmailSender} that only differ in their {@code Bcc} recipients into one
+ * message, see {@link CoalescingConfiguration}. Messages are grouped by a digest of their content without the
+ * {@code Bcc}, {@code Message-ID} and {@code Date} headers and without multipart boundaries, and by priority. A group is handed to the send queue when
+ * its window elapses or it reaches the maximum number of recipients.
+ */
+final class EnvelopeCoalescer {
+
+    private static final String[] IGNORED_HEADERS = {"Bcc", "Message-ID", "Date"};
+
+    private static final String[] NO_HEADERS = {};
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final CoalescingConfiguration configuration;
+
+    private final Executor executor;
+
+    private final Consumer<SendQueue.Entry> sink;
+
+    private final Map<String, Group> groups = new HashMap<>();
+
+    /**
+     * @param configuration the window and the maximum number of recipients
+     * @param executor      runs the flushes of groups whose window elapsed, because adding to the send queue may block
+     * @param sink          adds a message to the send queue
+     */
+    EnvelopeCoalescer(@Nonnull final CoalescingConfiguration configuration, @Nonnull final Executor executor,
+                      @Nonnull final Consumer<SendQueue.Entry> sink) {
+        this.configuration = configuration;
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a message to the group of identical messages, or passes it on to the send queue if it cannot be combined.
+     *
+     * @param entry the message to send
+     */
+    void add(@Nonnull final SendQueue.Entry entry) {
+        final Address[] bcc;
+        final String key;
+        try {
+            bcc = entry.message.getRecipients(Message.RecipientType.BCC);
+            key = bcc != null && bcc.length > 0 && bcc.length < configuration.getMaxRecipients()
+                    ? keyOf(entry.message, entry.priority)
+                    : null;
+        } catch (MessagingException | IOException e) {
+            sink.accept(entry);// sending will most likely report the same problem
+            return;
+        }
+        if (key == null) {
+            sink.accept(entry);
+            return;
+        }
+        Group full = null;
+        synchronized (groups) {
+            Group group = groups.get(key);
+            if (group != null && group.recipientCount + bcc.length > configuration.getMaxRecipients()) {
+                groups.remove(key);
+                full = group;
+                group = null;
+            }
+            if (group == null) {
+                group = new Group(entry.priority);
+                groups.put(key, group);
+                final Group scheduled = group;
+                DaemonScheduler.get().schedule(() -> scheduleFlush(key, scheduled), configuration.getWindowMs(),
+                        TimeUnit.MILLISECONDS);
+            }
+            group.members.add(new Member(entry, bcc));
+            group.recipientCount += bcc.length;
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Hands all groups to the send queue without waiting for their windows to elapse.
+     */
+    void flushAll() {
+        final List<Group> flushed;
+        synchronized (groups) {
+            flushed = new ArrayList<>(groups.values());
+            groups.clear();
+        }
+        flushed.forEach(this::send);
+    }
+
+    /**
+     * Hands the flush of a group whose window elapsed to the executor, so that the scheduler thread does not block
+     * on a full send queue. If the executor rejects it, the messages of the group are rejected.
+     */
+    private void scheduleFlush(@Nonnull final String key, @Nonnull final Group group) {
+        try {
+            executor.execute(() -> flush(key, group));
+        } catch (RejectedExecutionException e) {
+            synchronized (groups) {
+                if (!groups.remove(key, group)) {
+                    return;
+                }
+            }
+            final EmailRejectedException rejected = new EmailRejectedException("The executor rejected the e-mail", e);
+            group.members.forEach(member -> member.entry.result.completeExceptionally(rejected));
+        }
+    }
+
+    private void flush(@Nonnull final String key, @Nonnull final Group group) {
+        synchronized (groups) {
+            if (!groups.remove(key, group)) {
+                return;// flushed already because it was full
+            }
+        }
+        send(group);
+    }
+
+    /**
+     * Adds one message for the whole group to the send queue. The first message of the group receives the
+     * {@code Bcc} recipients of all messages. If the combined message fails permanently, the messages are sent one by
+     * one, each with its original recipients.
+     */
+    private void send(@Nonnull final Group group) {
+        group.members.removeIf(member -> member.entry.result.isDone());// cancelled or expired while waiting
+        if (group.members.isEmpty()) {
+            return;
+        }
+        if (group.members.size() == 1) {
+            sink.accept(group.members.get(0).entry);
+            return;
+        }
+        // The messages are transferred together from now on, so none of them may be dropped on its own anymore
+        group.members.removeIf(member -> !member.entry.transfer.start());
+        if (group.members.isEmpty()) {
+            return;
+        }
+        final MimeMessage combined = group.members.get(0).entry.message;
+        final Set<Address> recipients = new LinkedHashSet<>();
+        for (final Member member : group.members) {
+            for (final Address address : member.bcc) {
+                recipients.add(address);
+            }
+        }
+        try {
+            combined.setRecipients(Message.RecipientType.BCC, recipients.toArray(new Address[recipients.size()]));
+        } catch (MessagingException e) {
+            group.members.forEach(member -> sink.accept(member.entry));
+            return;
+        }
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        result.whenComplete((messageId, throwable) -> {
+            if (throwable == null) {
+                group.members.forEach(member -> member.entry.result.complete(messageId));
+            } else if (throwable instanceof EmailDeliveryException
+                    && ((EmailDeliveryException) throwable).isPermanent()) {
+                sendOneByOne(group);
+            } else {
+                group.members.forEach(member -> member.entry.result.completeExceptionally(throwable));
+            }
+        });
+        sink.accept(new SendQueue.Entry(combined, group.priority, result));
+    }
+
+    private void sendOneByOne(@Nonnull final Group group) {
+        for (final Member member : group.members) {
+            try {
+                member.entry.message.setRecipients(Message.RecipientType.BCC, member.bcc);
+            } catch (MessagingException e) {
+                member.entry.result.completeExceptionally(SmtpFailures.classify(e));
+                continue;
+            }
+            sink.accept(member.entry);
+        }
+    }
+
+    /**
+     * @return a digest of the priority and of the content without the ignored headers
+     */
+    @Nonnull
+    private static String keyOf(@Nonnull final MimeMessage message, @Nonnull final EmailPriority priority)
+            throws MessagingException, IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        message.saveChanges();
+        try (final OutputStream out = new DigestOutputStream(new NullOutputStream(), digest)) {
+            digestPart(message, IGNORED_HEADERS, out);
+        }
+        return priority + ":" + Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * Writes the headers and the content of a part to the digest. Multipart content is written part by part, and the
+     * {@code boundary} parameter is left out of its {@code Content-Type}, because every {@link MimeMultipart} generates
+     * a random boundary and identical messages would never share a key otherwise.
+     */
+    private static void digestPart(@Nonnull final MimePart part, @Nonnull final String[] ignoredHeaders,
+                                   @Nonnull final OutputStream out) throws MessagingException, IOException {
+        final boolean multipart = part.isMimeType("multipart/*");
+        final String[] ignored = multipart ? withContentType(ignoredHeaders) : ignoredHeaders;
+        for (final Enumeration<?> lines = part.getNonMatchingHeaderLines(ignored); lines.hasMoreElements(); ) {
+            writeLine(lines.nextElement().toString(), out);
+        }
+        if (multipart) {
+            final ContentType contentType = new ContentType(part.getContentType());
+            final ParameterList parameters = contentType.getParameterList();
+            if (parameters != null) {
+                parameters.remove("boundary");
+            }
+            writeLine("Content-Type: " + contentType, out);
+            writeLine("", out);
+            final Multipart content = (Multipart) part.getContent();
+            for (int i = 0; i < content.getCount(); i++) {
+                writeLine("--", out);
+                digestPart((MimePart) content.getBodyPart(i), NO_HEADERS, out);
+            }
+        } else {
+            writeLine("", out);
+            part.getDataHandler().writeTo(out);
+        }
+    }
+
+    private static String[] withContentType(@Nonnull final String[] headers) {
+        final String[] result = Arrays.copyOf(headers, headers.length + 1);
+        result[headers.length] = "Content-Type";
+        return result;
+    }
+
+    private static void writeLine(@Nonnull final String line, @Nonnull final OutputStream out) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write(CRLF);
+    }
+
+    private static final class Group {
+
+        final EmailPriority priority;
+
+        final List<Member> members = new ArrayList<>();
+
+        int recipientCount;
+
+        Group(@Nonnull final EmailPriority priority) {
+            this.priority = priority;
+        }
+    }
+
+    private static final class Member {
+
+        final SendQueue.Entry entry;
+
+        final Address[] bcc;
+
+        Member(@Nonnull final SendQueue.Entry entry, @Nonnull final Address[] bcc) {
+            this.entry = entry;
+            this.bcc = bcc;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(@Nullable final byte[] bytes, final int offset, final int length) {
+        }
+    }
+}
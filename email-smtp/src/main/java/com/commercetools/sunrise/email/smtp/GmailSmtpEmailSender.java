@@ -6,13 +6,15 @@ import java.util.concurrent.Executor;
 import static com.commercetools.sunrise.email.smtp.SmtpConfiguration.TransportSecurity.STARTTLS;
 
 /**
- * An e-mail sender pre-configured for Gmail servers.
+ * An e-mail sender pre-configured for Gmail servers. By default, the sender stays within the sending limits of a
+ * consumer Gmail account, see {@link RateLimitConfiguration#gmail()}.
  */
 public class GmailSmtpEmailSender extends SmtpAuthEmailSender {
 
     /**
      * Create an e-mail sender that connects to smtp.gmail.com:587 using (and requiring)
-     * {@link SmtpConfiguration.TransportSecurity#STARTTLS} security.
+     * {@link SmtpConfiguration.TransportSecurity#STARTTLS} security, limiting the sending rate with
+     * {@link RateLimitConfiguration#gmail()}.
      * <p>
      * See {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}
      * for details on how to configure this service.
@@ -30,8 +32,29 @@ public class GmailSmtpEmailSender extends SmtpAuthEmailSender {
      */
     public GmailSmtpEmailSender(@Nonnull final String username, @Nonnull final String password, @Nonnull final Executor executor,
                                 final int timeoutMs) {
+        this(username, password, executor, timeoutMs,
+                SmtpSenderOptions.builder().rateLimit(RateLimitConfiguration.gmail()).build());
+    }
+
+    /**
+     * Create an e-mail sender that connects to smtp.gmail.com:587 like
+     * {@link #GmailSmtpEmailSender(String, String, Executor, int)}, with the given optional settings. Use
+     * {@link SmtpSenderOptions.Builder#rateLimit(RateLimitConfiguration)} with e.g.
+     * {@link RateLimitConfiguration#googleWorkspace()} to adapt the sending limits to the account.
+     *
+     * @param username  the complete Gmail e-mail address
+     * @param password  the Gmail password
+     * @param executor  the executor to use, see {@link #GmailSmtpEmailSender(String, String, Executor, int)}
+     * @param timeoutMs the timeout for creating, reading from and writing to SMTP connections in milliseconds, see
+     *                  {@link #GmailSmtpEmailSender(String, String, Executor, int)}
+     * @param options   optional settings, e.g. {@link SmtpSenderOptions#defaults()} for no rate limits
+     */
+    public GmailSmtpEmailSender(@Nonnull final String username, @Nonnull final String password,
+                                @Nonnull final Executor executor, final int timeoutMs,
+                                @Nonnull final SmtpSenderOptions options) {
         // Configuration is based on https://support.google.com/a/answer/176600?hl=en
-        super(new SmtpConfiguration("smtp.gmail.com", 587, STARTTLS, username, password), executor, timeoutMs);
+        super(new SmtpConfiguration("smtp.gmail.com", 587, STARTTLS, username, password), executor, timeoutMs,
+                options);
     }
 
 }
@@ -0,0 +1,52 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.SendOptions;
+
+/**
+ * Instances of this class specify how long and for how many e-mails an {@link SmtpAuthEmailSender} remembers the
+ * {@link SendOptions#getIdempotencyKey() idempotency keys} of e-mails, so that repeated requests to send an e-mail,
+ * e.g. caused by events that are delivered at least once, do not send the e-mail again.
+ * <p>
+ * A request with the key of an e-mail that is being sent or has been sent within {@link #getTtlMs()} does not fill a
+ * message and does not contact the SMTP server; its completion stage completes like the one of the original e-mail,
+ * e.g. with the same message ID. Keys of e-mails that failed are forgotten, so that the e-mail can be requested again.
+ * At most {@link #getMaxKeys()} keys are remembered; beyond that, the oldest keys are forgotten early, which bounds
+ * the memory used. Keys are only remembered in memory and per sender.
+ *
+ * @see SmtpSenderOptions.Builder#idempotency(IdempotencyConfiguration)
+ */
+public class IdempotencyConfiguration {
+
+    private final long ttlMs;
+
+    private final int maxKeys;
+
+    /**
+     * Create a configuration for idempotent sends.
+     *
+     * @param ttlMs   how long in milliseconds the key of an e-mail is remembered after the e-mail has been requested
+     * @param maxKeys the maximum number of keys remembered at the same time
+     */
+    public IdempotencyConfiguration(final long ttlMs, final int maxKeys) {
+        if (ttlMs < 1)
+            throw new IllegalArgumentException("The time to live must be positive: " + ttlMs);
+        if (maxKeys < 1)
+            throw new IllegalArgumentException("At least one key must be remembered: " + maxKeys);
+        this.ttlMs = ttlMs;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @return how long in milliseconds the key of an e-mail is remembered after the e-mail has been requested
+     */
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    /**
+     * @return the maximum number of keys remembered at the same time
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+}
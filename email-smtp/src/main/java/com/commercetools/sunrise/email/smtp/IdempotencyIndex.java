@@ -0,0 +1,132 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The idempotency keys of an {@link SmtpAuthEmailSender} with the results of their e-mails, see
+ * {@link IdempotencyConfiguration}. Keys are spread over stripes with one lock each, so that concurrent sends rarely
+ * contend. Each stripe holds its keys in insertion order, hence expired keys and, if a stripe is full, the oldest keys
+ * are evicted from its head.
+ */
+final class IdempotencyIndex {
+
+    private static final int MAX_STRIPES = 16;
+
+    private final LongSupplier nanoTime;
+
+    private final long ttlNanos;
+
+    private final int maxKeysPerStripe;
+
+    private final Stripe[] stripes;
+
+    IdempotencyIndex(@Nonnull final IdempotencyConfiguration configuration) {
+        this(configuration, System::nanoTime);
+    }
+
+    IdempotencyIndex(@Nonnull final IdempotencyConfiguration configuration, @Nonnull final LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getTtlMs());
+        // a power of two that does not exceed the maximum number of keys, so that the stripes do not exceed it either
+        this.stripes = new Stripe[Math.min(MAX_STRIPES, Integer.highestOneBit(configuration.getMaxKeys()))];
+        this.maxKeysPerStripe = configuration.getMaxKeys() / stripes.length;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Remembers the result of an e-mail for the given key, unless the key is remembered already.
+     *
+     * @param key    the idempotency key of the e-mail
+     * @param result the result of the e-mail, if it is sent
+     * @return the result remembered for the key, or {@code null} if the key was not remembered and the e-mail shall be
+     * sent
+     */
+    @Nullable
+    CompletableFuture<String> putIfAbsent(@Nonnull final String key, @Nonnull final CompletableFuture<String> result) {
+        final Stripe stripe = stripeOf(key);
+        final long now = nanoTime.getAsLong();
+        synchronized (stripe) {
+            stripe.evict(now, ttlNanos, maxKeysPerStripe);
+            final Remembered remembered = stripe.keys.get(key);
+            if (remembered != null) {
+                return remembered.result;
+            }
+            stripe.keys.put(key, new Remembered(result, now));
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the given key if it is remembered with the given result, e.g. because the e-mail failed.
+     *
+     * @param key    the idempotency key of the e-mail
+     * @param result the result of the e-mail
+     */
+    void remove(@Nonnull final String key, @Nonnull final CompletableFuture<String> result) {
+        final Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            final Remembered remembered = stripe.keys.get(key);
+            if (remembered != null && remembered.result == result) {
+                stripe.keys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return the number of remembered keys, including expired keys that have not been evicted yet
+     */
+    int size() {
+        int size = 0;
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.keys.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(@Nonnull final String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static final class Stripe {
+
+        final LinkedHashMap<String, Remembered> keys = new LinkedHashMap<>();
+
+        /**
+         * Evicts expired keys and, if the stripe is full, the oldest key. Must be invoked while holding the lock.
+         */
+        void evict(final long now, final long ttlNanos, final int maxKeys) {
+            final Iterator<Map.Entry<String, Remembered>> oldest = keys.entrySet().iterator();
+            while (oldest.hasNext()) {
+                final Map.Entry<String, Remembered> entry = oldest.next();
+                if (now - entry.getValue().rememberedAt < ttlNanos && keys.size() < maxKeys) {
+                    break;
+                }
+                oldest.remove();
+            }
+        }
+    }
+
+    private static final class Remembered {
+
+        final CompletableFuture<String> result;
+
+        final long rememberedAt;
+
+        Remembered(@Nonnull final CompletableFuture<String> result, final long rememberedAt) {
+            this.result = result;
+            this.rememberedAt = rememberedAt;
+        }
+    }
+}
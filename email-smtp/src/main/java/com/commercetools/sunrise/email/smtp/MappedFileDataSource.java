@@ -0,0 +1,167 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.activation.DataSource;
+import javax.activation.FileTypeMap;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only data source for large attachments that maps the file into memory instead of reading it through heap
+ * buffers. The file is mapped when it is read first; all streams returned by {@link #getInputStream()} share that
+ * mapping, so that the same attachment in many concurrently sent e-mails is backed by the page cache of the operating
+ * system instead of one heap copy per e-mail. Java Mail encodes the attachment while it reads from the stream, hence
+ * only a few kilobytes of heap are needed per e-mail.
+ * <p>
+ * The following example attaches a mapped file, see {@link javax.mail.internet.MimeBodyPart}.
+ * <pre>{@code
+ * MimeBodyPart attachmentPart = new MimeBodyPart();
+ * attachmentPart.setDataHandler(new DataHandler(new MappedFileDataSource(invoicePath)));
+ * attachmentPart.setFileName("invoice.pdf");
+ * }</pre>
+ * The file must not be modified or truncated while it is mapped; the mapping is released when the data source is
+ * garbage collected. Files larger than {@link Integer#MAX_VALUE} bytes are not supported.
+ */
+public class MappedFileDataSource implements DataSource {
+
+    @Nonnull
+    private final Path file;
+
+    private volatile ByteBuffer mapping;
+
+    /**
+     * Create a data source for the given file. The file is not accessed before it is read.
+     *
+     * @param file the file to attach
+     */
+    public MappedFileDataSource(@Nonnull final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Get a stream over the mapped file, mapping the file if that has not happened yet.
+     *
+     * @return a new stream that reads the file from the beginning
+     * @throws IOException if the file cannot be mapped
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new MappedInputStream(getMapping().duplicate());
+    }
+
+    /**
+     * @throws IOException always, this data source is read-only
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Mapped files are read-only: " + file);
+    }
+
+    /**
+     * @return the type of the file according to the default {@link FileTypeMap}, which is derived from the file name
+     */
+    @Override
+    public String getContentType() {
+        return FileTypeMap.getDefaultFileTypeMap().getContentType(getName());
+    }
+
+    /**
+     * @return the name of the file without its directory
+     */
+    @Override
+    public String getName() {
+        return file.getFileName().toString();
+    }
+
+    /**
+     * @return the file of this data source
+     */
+    @Nonnull
+    public Path getFile() {
+        return file;
+    }
+
+    private ByteBuffer getMapping() throws IOException {
+        ByteBuffer result = mapping;
+        if (result == null) {
+            synchronized (this) {
+                result = mapping;
+                if (result == null) {
+                    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        if (channel.size() > Integer.MAX_VALUE) {
+                            throw new IOException("File too large to be mapped: " + file);
+                        }
+                        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        result = mapped.asReadOnlyBuffer();
+                        mapping = result;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A stream over a buffer that is owned by the stream, i.e. a duplicate of the shared mapping.
+     */
+    private static final class MappedInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        MappedInputStream(@Nonnull final ByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.mark();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(@Nonnull final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(final int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
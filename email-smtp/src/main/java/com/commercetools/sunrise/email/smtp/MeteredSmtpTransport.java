@@ -0,0 +1,144 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailSenderMetrics;
+import com.commercetools.sunrise.email.SendPhase;
+import com.sun.mail.smtp.SMTPTransport;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.URLName;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An SMTP transport that reports the durations of connecting, authenticating and transferring as well as the number
+ * of bytes transferred to the {@link EmailSenderMetrics} stored in the session properties under
+ * {@link #METRICS_PROPERTY}.
+ * <p>
+ * This class is registered by {@link SmtpAuthEmailSender} as the SMTP provider of its {@link Session} and is only
+ * public because the Java Mail API instantiates it reflectively. It is not meant to be used directly.
+ */
+public class MeteredSmtpTransport extends SMTPTransport {
+
+    /**
+     * The session property that holds the {@link EmailSenderMetrics} instance.
+     */
+    static final String METRICS_PROPERTY = "com.commercetools.sunrise.email.metrics";
+
+    @Nullable
+    private final EmailSenderMetrics metrics;
+
+    private long lastGreetingNanos;
+
+    private long transferStartNanos;
+
+    private CountingOutputStream dataStream;
+
+    public MeteredSmtpTransport(@Nonnull final Session session, @Nonnull final URLName urlName) {
+        super(session, urlName);
+        final Object metrics = session.getProperties().get(METRICS_PROPERTY);
+        this.metrics = metrics instanceof EmailSenderMetrics ? (EmailSenderMetrics) metrics : null;
+    }
+
+    /**
+     * Makes this class the SMTP transport of the given session.
+     *
+     * @param session the session whose properties hold the metrics
+     */
+    static void install(@Nonnull final Session session) {
+        try {
+            session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", MeteredSmtpTransport.class.getName(),
+                    "commercetools", null));
+        } catch (NoSuchProviderException e) {
+            throw new IllegalStateException("Failed to install the metered SMTP transport", e);
+        }
+    }
+
+    @Override
+    protected synchronized boolean protocolConnect(final String host, final int port, final String user,
+                                                   final String password) throws MessagingException {
+        final long start = System.nanoTime();
+        lastGreetingNanos = 0;
+        final boolean connected = super.protocolConnect(host, port, user, password);
+        if (connected && metrics != null) {
+            // Authentication follows the last EHLO, which is sent again after STARTTLS
+            final long end = System.nanoTime();
+            final long authenticationStart = lastGreetingNanos != 0 ? lastGreetingNanos : end;
+            metrics.recordPhase(SendPhase.CONNECT, authenticationStart - start);
+            metrics.recordPhase(SendPhase.AUTHENTICATE, end - authenticationStart);
+        }
+        return connected;
+    }
+
+    @Override
+    protected boolean ehlo(final String domain) throws MessagingException {
+        try {
+            return super.ehlo(domain);
+        } finally {
+            lastGreetingNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected void helo(final String domain) throws MessagingException {
+        try {
+            super.helo(domain);
+        } finally {
+            lastGreetingNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected void mailFrom() throws MessagingException {
+        transferStartNanos = System.nanoTime();
+        super.mailFrom();
+    }
+
+    @Override
+    protected OutputStream data() throws MessagingException {
+        final OutputStream stream = super.data();
+        if (metrics == null) {
+            return stream;
+        }
+        dataStream = new CountingOutputStream(stream);
+        return dataStream;
+    }
+
+    @Override
+    protected void finishData() throws IOException, MessagingException {
+        super.finishData();
+        if (metrics != null) {
+            metrics.recordPhase(SendPhase.TRANSFER, System.nanoTime() - transferStartNanos);
+            if (dataStream != null) {
+                metrics.recordBytesSent(dataStream.count);
+                dataStream = null;
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        private CountingOutputStream(@Nonnull final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
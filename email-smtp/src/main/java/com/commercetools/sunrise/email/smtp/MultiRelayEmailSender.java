@@ -0,0 +1,302 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailCreationException;
+import com.commercetools.sunrise.email.EmailSender;
+import com.commercetools.sunrise.email.MessageEditor;
+import com.commercetools.sunrise.email.SendOptions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.MessagingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An e-mail sender that spreads e-mails across several SMTP servers (relays), so that throughput scales with the
+ * number of relays and a single relay is not a single point of failure.
+ * <p>
+ * Each relay is served by its own {@link SmtpAuthEmailSender}. An e-mail is given to the healthy relay with the
+ * fewest e-mails in flight relative to its {@link WeightedRelay#getWeight()}; ties are broken round-robin. If an
+ * e-mail fails because of the relay, i.e. the relay could not be connected to, authentication failed, the relay
+ * replied that it is not available or the circuit breaker of the relay is open, the e-mail is sent via another relay,
+ * for which the {@link MessageEditor} is invoked again. Relays that fail
+ * repeatedly are ejected and re-admitted once they can be connected to again, see {@link RelayHealthConfiguration}.
+ * If all relays are ejected, all of them are used, as if they were healthy.
+ * <p>
+ * The sender should be closed with {@link #close()} when it is no longer used.
+ */
+public class MultiRelayEmailSender implements EmailSender, AutoCloseable {
+
+    private final List<Relay> relays;
+
+    private final Executor executor;
+
+    private final RelayHealthConfiguration health;
+
+    private final AtomicInteger nextRelay = new AtomicInteger();
+
+    private final ScheduledFuture<?> probeTask;
+
+    /**
+     * Create a new instance that sends e-mails via the given relays. See
+     * {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)} for details on the executor
+     * and timeouts.
+     *
+     * @param relays    the SMTP servers to send e-mails via, at least one
+     * @param executor  the executor that is shared by the senders of all relays and runs the health checks
+     * @param timeoutMs the timeout for creating, reading from and writing to SMTP connections in milliseconds
+     * @param options   optional settings that apply to the sender of each relay separately, e.g. each relay gets a
+     *                  connection pool of its own. An outbox cannot be configured.
+     * @param health    when relays are ejected and re-admitted
+     */
+    public MultiRelayEmailSender(@Nonnull final List<WeightedRelay> relays, @Nonnull final Executor executor,
+                                 final int timeoutMs, @Nonnull final SmtpSenderOptions options,
+                                 @Nonnull final RelayHealthConfiguration health) {
+        if (relays.isEmpty())
+            throw new IllegalArgumentException("At least one relay is required");
+        if (options.getOutbox() != null)
+            throw new IllegalArgumentException("An outbox cannot be shared by several relays");
+        final List<Relay> created = new ArrayList<>(relays.size());
+        for (final WeightedRelay relay : relays) {
+            created.add(new Relay(createSender(relay.getSmtpConfiguration(), executor, timeoutMs, options),
+                    relay.getWeight()));
+        }
+        this.relays = Collections.unmodifiableList(created);
+        this.executor = executor;
+        this.health = health;
+        this.probeTask = DaemonScheduler.get().scheduleWithFixedDelay(this::scheduleProbes,
+                health.getProbeIntervalMs(), health.getProbeIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the sender for one relay.
+     * <p>
+     * This method may be overridden to customize the senders, e.g. to return subclasses of
+     * {@link SmtpAuthEmailSender} that override {@link SmtpAuthEmailSender#properties(java.util.Properties)}. It is
+     * invoked by the constructor once per relay.
+     *
+     * @param smtpConfiguration how to connect to the relay
+     * @param executor          the executor passed to the constructor
+     * @param timeoutMs         the timeout passed to the constructor
+     * @param options           the options passed to the constructor
+     * @return the sender for the relay
+     */
+    protected SmtpAuthEmailSender createSender(@Nonnull final SmtpConfiguration smtpConfiguration,
+                                               @Nonnull final Executor executor, final int timeoutMs,
+                                               @Nonnull final SmtpSenderOptions options) {
+        return new SmtpAuthEmailSender(smtpConfiguration, executor, timeoutMs, options);
+    }
+
+    @Override
+    @Nonnull
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
+        return send(messageEditor, SendOptions.defaults());
+    }
+
+    @Override
+    @Nonnull
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor,
+                                        @Nonnull final SendOptions options) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final Set<Relay> tried = new HashSet<>();
+        sendVia(selectRelay(tried), messageEditor, options, System.nanoTime(), result, tried);
+        return result;
+    }
+
+    /**
+     * Sends an e-mail via the given relay and fails over to another relay if the relay cannot be used.
+     *
+     * @throws EmailCreationException if there was an error while creating or filling the message
+     */
+    private void sendVia(@Nonnull final Relay relay, @Nonnull final MessageEditor messageEditor,
+                         @Nonnull final SendOptions options, final long start,
+                         @Nonnull final CompletableFuture<String> result, @Nonnull final Set<Relay> tried) {
+        tried.add(relay);
+        relay.outstanding.incrementAndGet();
+        final CompletionStage<String> stage;
+        try {
+            stage = relay.sender.send(messageEditor, options);
+        } catch (RuntimeException e) {
+            relay.outstanding.decrementAndGet();
+            throw e;
+        }
+        // cancelling the result cancels sending via the relay
+        result.whenComplete((messageId, throwable) -> stage.toCompletableFuture().cancel(false));
+        stage.whenComplete((messageId, throwable) -> {
+            relay.outstanding.decrementAndGet();
+            if (throwable == null) {
+                relay.succeeded();
+                result.complete(messageId);
+            } else if (isRelayFailure(throwable)) {
+                relay.failed(health.getFailureThreshold());
+                failOver(messageEditor, options, start, result, tried, throwable);
+            } else {
+                result.completeExceptionally(throwable instanceof CompletionException
+                        ? throwable.getCause()
+                        : throwable);
+            }
+        });
+    }
+
+    private void failOver(@Nonnull final MessageEditor messageEditor, @Nonnull final SendOptions options,
+                          final long start, @Nonnull final CompletableFuture<String> result,
+                          @Nonnull final Set<Relay> tried, @Nonnull final Throwable failure) {
+        if (result.isDone()) {
+            return;// cancelled
+        }
+        final Relay next = selectRelay(tried);
+        final long remainingMs = options.getTimeoutMs()
+                - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (next == null || (options.getTimeoutMs() > 0 && remainingMs <= 0)) {
+            result.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+            return;
+        }
+        try {
+            // the timeout covers all relays, so the next relay gets the remaining time only
+            final SendOptions remaining = options.getTimeoutMs() > 0 ? options.withTimeoutMs(remainingMs) : options;
+            sendVia(next, messageEditor, remaining, start, result, tried);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @param excluded relays that must not be selected
+     * @return the healthy relay with the fewest e-mails in flight relative to its weight, any relay if no relay is
+     * healthy, or {@code null} if all relays are excluded or all healthy relays are excluded
+     */
+    @Nullable
+    private Relay selectRelay(@Nonnull final Set<Relay> excluded) {
+        final boolean anyHealthy = relays.stream().anyMatch(relay -> !relay.ejected);
+        final int size = relays.size();
+        final int start = Math.floorMod(nextRelay.getAndIncrement(), size);
+        Relay selected = null;
+        double selectedLoad = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            final Relay relay = relays.get((start + i) % size);
+            if (excluded.contains(relay) || (anyHealthy && relay.ejected)) {
+                continue;
+            }
+            final double load = (relay.outstanding.get() + 1.0) / relay.weight;
+            if (load < selectedLoad) {
+                selected = relay;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param throwable the reason an e-mail failed
+     * @return whether the e-mail failed because of the relay rather than because of the e-mail, i.e. the circuit
+     * breaker of the relay is open, see {@link CircuitOpenException}, or the relay could not be connected to,
+     * authentication failed or the relay is not available, see {@link SmtpFailures#isServerFailure(Throwable)}
+     */
+    static boolean isRelayFailure(@Nonnull final Throwable throwable) {
+        final Throwable failure = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return failure instanceof CircuitOpenException || SmtpFailures.isServerFailure(failure);
+    }
+
+    private void scheduleProbes() {
+        for (final Relay relay : relays) {
+            if (relay.ejected && relay.probing.compareAndSet(false, true)) {
+                try {
+                    executor.execute(() -> probe(relay));
+                } catch (RejectedExecutionException e) {
+                    relay.probing.set(false);
+                }
+            }
+        }
+    }
+
+    private void probe(@Nonnull final Relay relay) {
+        try {
+            relay.sender.probe();
+            relay.succeeded();
+        } catch (MessagingException | RuntimeException e) {
+            // The relay remains ejected until the next probe
+        } finally {
+            relay.probing.set(false);
+        }
+    }
+
+    /**
+     * @return the number of relays that are currently used for sending e-mails
+     */
+    public int getHealthyRelayCount() {
+        return (int) relays.stream().filter(relay -> !relay.ejected).count();
+    }
+
+    /**
+     * @param index the index of the relay in the list passed to the constructor
+     * @return whether the relay is currently used for sending e-mails
+     */
+    public boolean isHealthy(final int index) {
+        return !relays.get(index).ejected;
+    }
+
+    /**
+     * @param index the index of the relay in the list passed to the constructor
+     * @return the number of e-mails that have been given to the relay and have not completed yet
+     */
+    public int getOutstandingCount(final int index) {
+        return relays.get(index).outstanding.get();
+    }
+
+    /**
+     * Stops the health checks and closes the senders of all relays, see {@link SmtpAuthEmailSender#close()}.
+     */
+    @Override
+    public void close() {
+        probeTask.cancel(false);
+        relays.forEach(relay -> relay.sender.close());
+    }
+
+    /**
+     * A relay together with its load and health.
+     */
+    private static final class Relay {
+
+        private final SmtpAuthEmailSender sender;
+
+        private final int weight;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private final AtomicBoolean probing = new AtomicBoolean();
+
+        private volatile boolean ejected = false;
+
+        private Relay(@Nonnull final SmtpAuthEmailSender sender, final int weight) {
+            this.sender = sender;
+            this.weight = weight;
+        }
+
+        void succeeded() {
+            consecutiveFailures.set(0);
+            ejected = false;
+        }
+
+        void failed(final int failureThreshold) {
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                ejected = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailCreationException;
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.commercetools.sunrise.email.EmailSender;
+import com.commercetools.sunrise.email.MessageEditor;
+import com.commercetools.sunrise.email.MessageTemplate;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPOutputStream;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * An e-mail sender that sends e-mail via SMTP with non-blocking I/O instead of the blocking transports of the Java Mail
+ * API. The Java Mail API is only used to create and serialize messages.
+ * <p>
+ * In contrast to {@link SmtpAuthEmailSender}, this sender does not occupy a thread while it waits for the SMTP server,
+ * so there is no {@link Executor} to size. Threads of an {@link AsynchronousChannelGroup} are only busy while data is
+ * encrypted, decrypted or parsed, so a few threads can keep thousands of SMTP conversations in flight. Each message is
+ * sent over a new connection. If the server supports command pipelining (RFC 2920), the {@code MAIL}, {@code RCPT}
+ * and {@code DATA} commands of a message are sent in a single round trip. The host name of the server is resolved
+ * once, when the sender is created, because resolving it blocks; create a new sender to follow changes of its address.
+ * <p>
+ * The sender authenticates with {@code AUTH PLAIN} or {@code AUTH LOGIN} if the server supports authentication.
+ * Failures are reported with the same exception types that the Java Mail API uses, wrapped in an
+ * {@link EmailDeliveryException}. A message is not sent to any recipient if the server rejects one of its
+ * recipients, which corresponds to the default behavior of the Java Mail API.
+ * <h1>Logging</h1>
+ * This class does not log. Failures are reported in the completion stages returned by {@link #send(MessageEditor)}.
+ */
+public class NioSmtpEmailSender implements EmailSender {
+
+    private final SmtpConfiguration smtpConfiguration;
+
+    @Nullable
+    private final AsynchronousChannelGroup channelGroup;
+
+    private final int timeoutMs;
+
+    /**
+     * The session used to create messages.
+     */
+    private final Session session;
+
+    /**
+     * The host name sent with the {@code EHLO} command.
+     */
+    private final String localHostName;
+
+    /**
+     * The address of the SMTP server, or {@code null} if its host name could not be resolved yet. Resolving a host
+     * name blocks, so it is resolved once instead of for every message.
+     */
+    @Nullable
+    private volatile InetSocketAddress serverAddress;
+
+    /**
+     * Create a new instance that completes I/O operations in the default {@link AsynchronousChannelGroup} of the JVM.
+     *
+     * @param smtpConfiguration how to connect to the SMTP server
+     * @param timeoutMs         the timeout for connecting to, reading from and writing to SMTP connections in
+     *                          milliseconds, see {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}
+     */
+    public NioSmtpEmailSender(@Nonnull final SmtpConfiguration smtpConfiguration, final int timeoutMs) {
+        this(smtpConfiguration, null, timeoutMs);
+    }
+
+    /**
+     * Create a new instance that completes I/O operations in the given {@link AsynchronousChannelGroup}. The group is
+     * not shut down by this sender.
+     *
+     * @param smtpConfiguration how to connect to the SMTP server
+     * @param channelGroup      the group whose threads complete I/O operations, or {@code null} for the default group
+     * @param timeoutMs         the timeout for connecting to, reading from and writing to SMTP connections in
+     *                          milliseconds, see {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}
+     */
+    public NioSmtpEmailSender(@Nonnull final SmtpConfiguration smtpConfiguration,
+                              @Nullable final AsynchronousChannelGroup channelGroup, final int timeoutMs) {
+        this.smtpConfiguration = smtpConfiguration;
+        this.channelGroup = channelGroup;
+        this.timeoutMs = timeoutMs;
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", smtpConfiguration.getHost());
+        this.session = Session.getInstance(properties);
+        this.localHostName = determineLocalHostName();
+        try {
+            this.serverAddress = resolveServerAddress();
+        } catch (UnknownHostException e) {
+            this.serverAddress = null;// resolved again when the first message is sent
+        }
+    }
+
+    @Override
+    @Nonnull
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
+        final MimeMessage message = createAndFillMessage(messageEditor);
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        try {
+            final Conversation conversation = new Conversation(message);
+            conversation.run().whenComplete((messageId, t) -> {
+                if (t == null) {
+                    result.complete(messageId);
+                } else {
+                    final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    result.completeExceptionally(SmtpFailures.classify(cause));
+                }
+            });
+        } catch (final Throwable t) {//see SmtpAuthEmailSender.sendNext() on why Throwable is caught
+            result.completeExceptionally(SmtpFailures.classify(t));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new {@link MimeMessage} and passes it to the given {@link MessageEditor} that fills the message.
+     * <p>
+     * Messages for a {@link MessageTemplate.Editor} are created from the encoded template instead, and only the
+     * editor of the e-mail is invoked.
+     * <p>
+     * This method may be overridden to customize message creation; it is invoked by {@link #send(MessageEditor)}.
+     *
+     * @param messageEditor the editor that will be used to fill the empty message created by this method
+     * @return the message that is ready for being sent
+     * @throws EmailCreationException if there was an error while creating or filling the message
+     */
+    protected MimeMessage createAndFillMessage(@Nonnull final MessageEditor messageEditor) {
+        try {
+            if (messageEditor instanceof MessageTemplate.Editor) {
+                return ((MessageTemplate.Editor) messageEditor).createMessage(session);
+            }
+            final MimeMessage message = new MimeMessage(session);
+            messageEditor.edit(message);
+            return message;
+        } catch (Exception e) {
+            throw new EmailCreationException("Failed to create e-mail", e);
+        }
+    }
+
+    /**
+     * Creates the engine that secures a connection if {@link SmtpConfiguration.TransportSecurity#SSL_TLS} or
+     * {@link SmtpConfiguration.TransportSecurity#STARTTLS} is used. The default implementation uses the default
+     * {@link SSLContext} of the JVM and checks the identity of the server like HTTPS clients do.
+     * <p>
+     * This method may be overridden to customize TLS, e.g. to trust self-signed certificates in test setups.
+     *
+     * @param smtpConfiguration how to connect to the SMTP server
+     * @return an engine in client mode
+     * @throws NoSuchAlgorithmException if the default {@link SSLContext} is not available
+     */
+    protected SSLEngine createSslEngine(@Nonnull final SmtpConfiguration smtpConfiguration) throws NoSuchAlgorithmException {
+        final SSLEngine engine = SSLContext.getDefault()
+                .createSSLEngine(smtpConfiguration.getHost(), smtpConfiguration.getPort());
+        engine.setUseClientMode(true);
+        final SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    /**
+     * @return the address of the SMTP server, which is only resolved as long as resolving it failed so far
+     * @throws UnknownHostException if the host name of the SMTP server cannot be resolved
+     */
+    private InetSocketAddress serverAddress() throws UnknownHostException {
+        InetSocketAddress address = serverAddress;
+        if (address == null) {
+            address = resolveServerAddress();
+            serverAddress = address;
+        }
+        return address;
+    }
+
+    private InetSocketAddress resolveServerAddress() throws UnknownHostException {
+        return new InetSocketAddress(InetAddress.getByName(smtpConfiguration.getHost()), smtpConfiguration.getPort());
+    }
+
+    private static String determineLocalHostName() {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * The SMTP conversation that sends a single message over a new connection.
+     */
+    private final class Conversation {
+
+        private final MimeMessage message;
+
+        private final InternetAddress sender;
+
+        private final InternetAddress[] recipients;
+
+        /**
+         * The dot-stuffed message including the terminating {@code CRLF.CRLF} sequence.
+         */
+        private final ByteBuffer data;
+
+        private final Map<String, String> extensions = new HashMap<>();
+
+        @Nullable
+        private AsyncSmtpChannel channel;
+
+        private Conversation(@Nonnull final MimeMessage message) throws MessagingException, IOException {
+            this.message = message;
+            message.saveChanges();
+            final Address[] allRecipients = message.getAllRecipients();
+            if (allRecipients == null || allRecipients.length == 0) {
+                throw new SendFailedException("No recipient addresses");
+            }
+            this.recipients = internetAddresses(allRecipients);
+            this.sender = determineSender(message);
+            this.data = serialize(message);
+        }
+
+        private CompletableFuture<String> run() throws UnknownHostException {
+            final InetSocketAddress address = serverAddress();
+            final SmtpConfiguration.TransportSecurity security = smtpConfiguration.getTransportSecurity();
+            final CompletableFuture<String> result = AsyncSmtpChannel.connect(channelGroup, address, timeoutMs)
+                    .thenCompose(connected -> {
+                        channel = connected;
+                        return security == SmtpConfiguration.TransportSecurity.SSL_TLS ? startTls() : done();
+                    })
+                    .thenCompose(ignored -> expect(channel.readReply(), 220, "connect"))
+                    .thenCompose(ignored -> ehlo())
+                    .thenCompose(ignored -> security == SmtpConfiguration.TransportSecurity.STARTTLS
+                            ? startTlsCommand() : done())
+                    .thenCompose(ignored -> authenticate())
+                    .thenCompose(ignored -> transaction())
+                    .thenApply(ignored -> messageId());
+            result.whenComplete((messageId, t) -> {
+                if (channel != null) {
+                    if (t == null) {
+                        quit();
+                    } else {
+                        channel.close();
+                    }
+                }
+            });
+            return result;
+        }
+
+        private CompletableFuture<Void> ehlo() {
+            return channel.writeCommand("EHLO " + localHostName)
+                    .thenCompose(ignored -> channel.readReply())
+                    .thenCompose(reply -> {
+                        if (reply.getCode() == 250) {
+                            parseExtensions(reply);
+                            return done();
+                        }
+                        return command("HELO " + localHostName, 250);
+                    });
+        }
+
+        private CompletableFuture<Void> startTlsCommand() {
+            if (!extensions.containsKey("STARTTLS")) {
+                return failed(new MessagingException("STARTTLS is required but host does not support STARTTLS"));
+            }
+            return command("STARTTLS", 220)
+                    .thenCompose(ignored -> startTls())
+                    .thenCompose(ignored -> ehlo());
+        }
+
+        private CompletableFuture<Void> startTls() {
+            try {
+                return channel.startTls(createSslEngine(smtpConfiguration));
+            } catch (NoSuchAlgorithmException | RuntimeException e) {
+                return failed(e);
+            }
+        }
+
+        private CompletableFuture<Void> authenticate() {
+            final String mechanisms = extensions.get("AUTH");
+            if (mechanisms == null) {
+                return done();
+            }
+            final List<String> supported = Arrays.asList(mechanisms.toUpperCase(Locale.ROOT).split(" "));
+            final String username = smtpConfiguration.getUsername();
+            final String password = smtpConfiguration.getPassword();
+            if (supported.contains("PLAIN")) {
+                return authCommand("AUTH PLAIN " + base64("\0" + username + "\0" + password), 235);
+            } else if (supported.contains("LOGIN")) {
+                return authCommand("AUTH LOGIN", 334)
+                        .thenCompose(ignored -> authCommand(base64(username), 334))
+                        .thenCompose(ignored -> authCommand(base64(password), 235));
+            }
+            return failed(new AuthenticationFailedException("No supported authentication mechanism: " + mechanisms));
+        }
+
+        private CompletableFuture<Void> authCommand(@Nonnull final String command, final int expectedCode) {
+            return channel.writeCommand(command)
+                    .thenCompose(ignored -> channel.readReply())
+                    .thenCompose(reply -> reply.getCode() == expectedCode
+                            ? done()
+                            : failed(new AuthenticationFailedException(reply.toString())));
+        }
+
+        /**
+         * Sends the envelope and the message. With pipelining, all commands are sent before the first reply is read.
+         */
+        private CompletableFuture<Void> transaction() {
+            final List<String> commands = new ArrayList<>(recipients.length + 2);
+            commands.add("MAIL FROM:<" + sender.getAddress() + ">");
+            for (final InternetAddress recipient : recipients) {
+                commands.add("RCPT TO:<" + recipient.getAddress() + ">");
+            }
+            commands.add("DATA");
+            final List<SmtpReply> replies = new ArrayList<>(commands.size());
+            final CompletableFuture<Void> envelope;
+            if (extensions.containsKey("PIPELINING")) {
+                envelope = channel.writeCommand(String.join("\r\n", commands))
+                        .thenCompose(ignored -> readReplies(replies, commands.size()));
+            } else {
+                envelope = sendLockStep(commands, replies, 0);
+            }
+            return envelope
+                    .thenCompose(ignored -> checkEnvelope(commands, replies))
+                    .thenCompose(ignored -> channel.write(data))
+                    .thenCompose(ignored -> channel.readReply())
+                    .thenCompose(reply -> reply.getCode() == 250
+                            ? done()
+                            : failed(sendFailed(".", reply)));
+        }
+
+        private CompletableFuture<Void> readReplies(@Nonnull final List<SmtpReply> replies, final int count) {
+            if (replies.size() == count) {
+                return done();
+            }
+            return channel.readReply().thenCompose(reply -> {
+                replies.add(reply);
+                return readReplies(replies, count);
+            });
+        }
+
+        /**
+         * Sends one command at a time. Stops after a rejected {@code MAIL} command and before {@code DATA} if a
+         * recipient has been rejected, like the Java Mail API does.
+         */
+        private CompletableFuture<Void> sendLockStep(@Nonnull final List<String> commands,
+                                                     @Nonnull final List<SmtpReply> replies, final int index) {
+            final boolean senderRejected = index > 0 && replies.get(0).getCode() != 250;
+            final boolean dataFollows = index == commands.size() - 1;
+            if (index == commands.size() || senderRejected || (dataFollows && hasRejectedRecipient(replies))) {
+                return done();
+            }
+            return channel.writeCommand(commands.get(index))
+                    .thenCompose(ignored -> channel.readReply())
+                    .thenCompose(reply -> {
+                        replies.add(reply);
+                        return sendLockStep(commands, replies, index + 1);
+                    });
+        }
+
+        private boolean hasRejectedRecipient(@Nonnull final List<SmtpReply> replies) {
+            for (int i = 1; i < replies.size(); i++) {
+                if (!isAcceptedRecipient(replies.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private CompletableFuture<Void> checkEnvelope(@Nonnull final List<String> commands,
+                                                      @Nonnull final List<SmtpReply> replies) {
+            final SmtpReply mailReply = replies.get(0);
+            if (mailReply.getCode() != 250) {
+                return failed(new SMTPSenderFailedException(sender, commands.get(0), mailReply.getCode(),
+                        mailReply.toString()));
+            }
+            final List<Address> valid = new ArrayList<>();
+            final List<Address> invalid = new ArrayList<>();
+            MessagingException chain = null;
+            for (int i = 0; i < recipients.length && i + 1 < replies.size(); i++) {
+                final SmtpReply reply = replies.get(i + 1);
+                if (isAcceptedRecipient(reply)) {
+                    valid.add(recipients[i]);
+                } else {
+                    invalid.add(recipients[i]);
+                    final SMTPAddressFailedException failure = new SMTPAddressFailedException(
+                            recipients[i], commands.get(i + 1), reply.getCode(), reply.toString());
+                    if (chain == null) {
+                        chain = failure;
+                    } else {
+                        chain.setNextException(failure);
+                    }
+                }
+            }
+            if (!invalid.isEmpty()) {
+                // The DATA command may have been accepted with pipelining, but no data must be sent in that case.
+                // Closing the connection aborts the transaction.
+                return failed(new SendFailedException("Invalid Addresses", chain, new Address[0],
+                        valid.toArray(new Address[valid.size()]), invalid.toArray(new Address[invalid.size()])));
+            }
+            final SmtpReply dataReply = replies.get(replies.size() - 1);
+            if (dataReply.getCode() != 354) {
+                return failed(sendFailed("DATA", dataReply));
+            }
+            return done();
+        }
+
+        private boolean isAcceptedRecipient(@Nonnull final SmtpReply reply) {
+            return reply.getCode() == 250 || reply.getCode() == 251;
+        }
+
+        private SMTPSendFailedException sendFailed(@Nonnull final String command, @Nonnull final SmtpReply reply) {
+            return new SMTPSendFailedException(command, reply.getCode(), reply.toString(), null,
+                    new Address[0], recipients, new Address[0]);
+        }
+
+        private CompletableFuture<Void> command(@Nonnull final String command, final int expectedCode) {
+            return expect(channel.writeCommand(command).thenCompose(ignored -> channel.readReply()),
+                    expectedCode, command);
+        }
+
+        private CompletableFuture<Void> expect(@Nonnull final CompletableFuture<SmtpReply> reply,
+                                               final int expectedCode, @Nonnull final String command) {
+            return reply.thenCompose(received -> received.getCode() == expectedCode
+                    ? done()
+                    : failed(new MessagingException("Unexpected reply to " + command + ": " + received)));
+        }
+
+        private void parseExtensions(@Nonnull final SmtpReply reply) {
+            extensions.clear();
+            final List<String> lines = reply.getLines();
+            for (int i = 1; i < lines.size(); i++) {
+                final String extension = SmtpReply.textOf(lines.get(i)).trim();
+                final int separator = indexOfSeparator(extension);
+                final String keyword = (separator < 0 ? extension : extension.substring(0, separator))
+                        .toUpperCase(Locale.ROOT);
+                final String parameters = separator < 0 ? "" : extension.substring(separator + 1).trim();
+                extensions.merge(keyword, parameters, (first, second) -> (first + " " + second).trim());
+            }
+        }
+
+        private int indexOfSeparator(@Nonnull final String extension) {
+            for (int i = 0; i < extension.length(); i++) {
+                final char c = extension.charAt(i);
+                if (c == ' ' || c == '=') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void quit() {
+            channel.writeCommand("QUIT")
+                    .thenCompose(ignored -> channel.readReply())
+                    .whenComplete((reply, t) -> channel.close());
+        }
+
+        private String messageId() {
+            try {
+                return message.getMessageID();
+            } catch (MessagingException e) {
+                throw new CompletionException(e);
+            }
+        }
+
+        /**
+         * @throws SendFailedException if a recipient is not an {@link InternetAddress}, which SMTP cannot address
+         */
+        private InternetAddress[] internetAddresses(@Nonnull final Address[] addresses) throws SendFailedException {
+            final InternetAddress[] result = new InternetAddress[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                if (!(addresses[i] instanceof InternetAddress)) {
+                    throw new SendFailedException("Unsupported recipient address type: " + addresses[i].getType(),
+                            null, new Address[0], new Address[0], new Address[]{addresses[i]});
+                }
+                result[i] = (InternetAddress) addresses[i];
+            }
+            return result;
+        }
+
+        private InternetAddress determineSender(@Nonnull final MimeMessage message) throws MessagingException {
+            final Address[] from = message.getFrom();
+            if (from != null && from.length > 0 && from[0] instanceof InternetAddress) {
+                return (InternetAddress) from[0];
+            }
+            final InternetAddress localAddress = InternetAddress.getLocalAddress(session);
+            if (localAddress == null) {
+                throw new MessagingException("Cannot determine the sender address of the message");
+            }
+            return localAddress;
+        }
+    }
+
+    /**
+     * Serializes the message like the Java Mail API does for the {@code DATA} command: line endings are normalized
+     * to CRLF, lines starting with a dot are escaped, and the terminating {@code CRLF.CRLF} is appended.
+     */
+    private static ByteBuffer serialize(@Nonnull final MimeMessage message) throws MessagingException, IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        final SMTPOutputStream out = new SMTPOutputStream(bytes);
+        message.writeTo(out, new String[]{"Bcc", "Content-Length"});
+        out.ensureAtBOL();
+        out.flush();
+        bytes.write(new byte[]{'.', '\r', '\n'});
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static String base64(@Nonnull final String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static CompletableFuture<Void> done() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private static <T> CompletableFuture<T> failed(@Nonnull final Throwable t) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(t);
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+
+/**
+ * Instances of this class specify where an {@link SmtpAuthEmailSender} persists the e-mails it accepts, so that
+ * e-mails which have not been sent when the JVM stops are sent after a restart.
+ * <p>
+ * Accepted e-mails are appended to memory-mapped journal files (segments) in {@link #getDirectory()}. An e-mail is
+ * marked as done in the journal once its completion stage completes, and a segment is deleted once all of its e-mails
+ * are done. The directory must only be used by a single sender at a time.
+ * <p>
+ * Only e-mails sent with {@link SmtpAuthEmailSender#send(com.commercetools.sunrise.email.MessageEditor)} are written
+ * to the journal; e-mails sent as a batch with {@link SmtpAuthEmailSender#sendAll(java.util.Collection)} are not.
+ *
+ * @see SmtpSenderOptions.Builder#outbox(OutboxConfiguration)
+ * @see SmtpAuthEmailSender#replayOutbox()
+ */
+public class OutboxConfiguration {
+
+    @Nonnull
+    private final Path directory;
+
+    private final int segmentSizeBytes;
+
+    private final boolean syncOnAppend;
+
+    /**
+     * Create a configuration for a journal of accepted e-mails.
+     *
+     * @param directory        the directory that holds the journal segments, it is created if it does not exist
+     * @param segmentSizeBytes the size of a journal segment in bytes. E-mails larger than this size are written to a
+     *                         segment of their own.
+     * @param syncOnAppend     whether every e-mail is flushed to the storage device before it is accepted. Without
+     *                         flushing, accepted e-mails survive a crash of the JVM, but not of the operating system.
+     */
+    public OutboxConfiguration(@Nonnull final Path directory, final int segmentSizeBytes, final boolean syncOnAppend) {
+        if (segmentSizeBytes < 1024)
+            throw new IllegalArgumentException("The segment size must be at least 1024 bytes: " + segmentSizeBytes);
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.syncOnAppend = syncOnAppend;
+    }
+
+    /**
+     * @return the directory that holds the journal segments
+     */
+    @Nonnull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the size of a journal segment in bytes
+     */
+    public int getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * @return whether every e-mail is flushed to the storage device before it is accepted
+     */
+    public boolean isSyncOnAppend() {
+        return syncOnAppend;
+    }
+}
@@ -0,0 +1,296 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of serialized messages in memory-mapped segment files.
+ * <p>
+ * A record consists of a header of {@value #HEADER_SIZE} bytes followed by the message bytes: the length of the
+ * message, its CRC-32 checksum, a state byte and the ordinal of its {@link EmailPriority}. The length is written last,
+ * so a zero length marks the end of a segment, while a record that was torn by a crash fails the checksum. Records
+ * are marked as done by overwriting their state byte in place; segments are deleted once all records are done.
+ * <p>
+ * All methods are synchronized, appending only copies the message into the mapped segment.
+ */
+final class OutboxJournal implements AutoCloseable {
+
+    static final int HEADER_SIZE = 10;
+
+    private static final byte PENDING = 0;
+
+    private static final byte DONE = 1;
+
+    private static final String PREFIX = "outbox-";
+
+    private static final String SUFFIX = ".seg";
+
+    private static final EmailPriority[] PRIORITIES = EmailPriority.values();
+
+    private final OutboxConfiguration configuration;
+
+    private final List<Record> recovered;
+
+    private long nextSequence;
+
+    private Segment active;
+
+    private boolean closed = false;
+
+    private OutboxJournal(@Nonnull final OutboxConfiguration configuration, @Nonnull final List<Record> recovered,
+                          final long nextSequence) {
+        this.configuration = configuration;
+        this.recovered = recovered;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Opens the journal in the configured directory and reads the records that are not done yet. Segments without
+     * such records are deleted.
+     *
+     * @param configuration where the journal is stored
+     * @return the opened journal
+     * @throws IOException if the directory or a segment could not be read
+     */
+    static OutboxJournal open(@Nonnull final OutboxConfiguration configuration) throws IOException {
+        final Path directory = Files.createDirectories(configuration.getDirectory());
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        final List<Record> recovered = new ArrayList<>();
+        long nextSequence = 0;
+        for (final Path file : files) {
+            nextSequence = Math.max(nextSequence, sequenceOf(file) + 1);
+            final Segment segment = Segment.recover(file, recovered);
+            if (segment.pending == 0) {
+                segment.delete();
+            }
+        }
+        return new OutboxJournal(configuration, recovered, nextSequence);
+    }
+
+    /**
+     * @return the records that were not done when the journal was opened, in the order they were appended; the
+     * records are only returned by the first invocation
+     */
+    synchronized List<Record> takeRecovered() {
+        final List<Record> records = new ArrayList<>(recovered);
+        recovered.clear();
+        return records;
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param bytes    the serialized message
+     * @param priority the priority to send the message with after a restart
+     * @return the appended record, to be passed to {@link #done(Record)} once the message has been handled
+     * @throws IOException if the record could not be written
+     */
+    synchronized Record append(@Nonnull final byte[] bytes, @Nonnull final EmailPriority priority) throws IOException {
+        if (closed) {
+            throw new IOException("The outbox is closed");
+        }
+        final int recordSize = HEADER_SIZE + bytes.length;
+        if (active == null || active.buffer.remaining() < recordSize) {
+            if (active != null) {
+                retire(active);
+            }
+            // An empty trailing header must fit, so that the end of the segment is found on recovery
+            final int size = Math.max(configuration.getSegmentSizeBytes(), recordSize + HEADER_SIZE);
+            active = Segment.create(configuration.getDirectory().resolve(fileName(nextSequence++)), size);
+        }
+        final Record record = active.append(bytes, priority);
+        if (configuration.isSyncOnAppend()) {
+            active.buffer.force();
+        }
+        return record;
+    }
+
+    /**
+     * Marks a record as done, so that it is not recovered again.
+     *
+     * @param record a record returned by {@link #append(byte[], EmailPriority)} or {@link #takeRecovered()}
+     */
+    synchronized void done(@Nonnull final Record record) {
+        if (closed || record.done) {
+            return;
+        }
+        record.done = true;
+        final Segment segment = record.segment;
+        segment.buffer.put(record.offset + 8, DONE);
+        if (--segment.pending == 0 && segment != active) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Flushes and closes the journal. Records that are not done are recovered when the journal is opened again.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (active != null) {
+            active.buffer.force();
+            retire(active);
+            active = null;
+        }
+    }
+
+    private static void retire(@Nonnull final Segment segment) {
+        if (segment.pending == 0) {
+            segment.delete();
+        }
+    }
+
+    private static String fileName(final long sequence) {
+        return String.format("%s%019d%s", PREFIX, sequence, SUFFIX);
+    }
+
+    private static long sequenceOf(@Nonnull final Path file) {
+        final String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int checksum(@Nonnull final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A message in the journal.
+     */
+    static final class Record {
+
+        private final Segment segment;
+
+        private final int offset;
+
+        private final EmailPriority priority;
+
+        /**
+         * The serialized message of a recovered record, empty for appended records.
+         */
+        private final byte[] bytes;
+
+        private boolean done = false;
+
+        private Record(@Nonnull final Segment segment, final int offset, @Nonnull final EmailPriority priority,
+                       @Nonnull final byte[] bytes) {
+            this.segment = segment;
+            this.offset = offset;
+            this.priority = priority;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the priority the message was sent with
+         */
+        EmailPriority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the serialized message
+         */
+        byte[] getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * A journal file mapped into memory.
+     */
+    private static final class Segment {
+
+        private final Path file;
+
+        private final MappedByteBuffer buffer;
+
+        private int pending = 0;
+
+        private Segment(@Nonnull final Path file, @Nonnull final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(@Nonnull final Path file, final int size) throws IOException {
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        /**
+         * Maps an existing segment and adds its pending records to the given list, up to the first record that is
+         * incomplete.
+         */
+        static Segment recover(@Nonnull final Path file, @Nonnull final List<Record> recovered) throws IOException {
+            final Segment segment;
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            final MappedByteBuffer buffer = segment.buffer;
+            while (buffer.remaining() >= HEADER_SIZE) {
+                final int offset = buffer.position();
+                final int length = buffer.getInt(offset);
+                if (length <= 0 || length > buffer.remaining() - HEADER_SIZE) {
+                    break;
+                }
+                final byte[] bytes = new byte[length];
+                buffer.position(offset + HEADER_SIZE);
+                buffer.get(bytes);
+                final byte state = buffer.get(offset + 8);
+                final int priority = buffer.get(offset + 9);
+                if (checksum(bytes) != buffer.getInt(offset + 4) || priority < 0 || priority >= PRIORITIES.length) {
+                    break;
+                }
+                if (state == PENDING) {
+                    recovered.add(new Record(segment, offset, PRIORITIES[priority], bytes));
+                    segment.pending++;
+                }
+            }
+            return segment;
+        }
+
+        Record append(@Nonnull final byte[] bytes, @Nonnull final EmailPriority priority) {
+            final int offset = buffer.position();
+            buffer.putInt(offset + 4, checksum(bytes));
+            buffer.put(offset + 8, PENDING);
+            buffer.put(offset + 9, (byte) priority.ordinal());
+            buffer.position(offset + HEADER_SIZE);
+            buffer.put(bytes);
+            buffer.putInt(offset, bytes.length);
+            pending++;
+            return new Record(this, offset, priority, new byte[0]);
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // The segment only holds records that are done, it is deleted when the journal is opened again
+            }
+        }
+    }
+}
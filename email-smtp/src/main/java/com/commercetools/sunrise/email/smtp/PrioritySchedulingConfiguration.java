@@ -0,0 +1,53 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Instances of this class specify how an {@link SmtpAuthEmailSender} shares its capacity between the
+ * {@link EmailPriority priorities} of the e-mails that wait in its send queue.
+ * <p>
+ * Without this configuration, the send queue has one lane per priority and always sends an e-mail of the highest
+ * priority first, so e.g. a password reset never waits behind a newsletter, but newsletters do not progress while
+ * transactional e-mails keep arriving. With this configuration, the lanes are served by weighted round robin instead:
+ * out of every {@code n} e-mails, where {@code n} is the sum of the weights of all lanes with waiting e-mails, each such
+ * lane sends as many e-mails as its weight, interleaved as evenly as possible. Lanes without waiting e-mails do not use
+ * up their share. For example, weights of 100, 10 and 1 for {@link EmailPriority#TRANSACTIONAL},
+ * {@link EmailPriority#NORMAL} and {@link EmailPriority#BULK} keep transactional e-mails fast during a newsletter
+ * campaign and still let the campaign progress.
+ *
+ * @see SmtpSenderOptions.Builder#priorityScheduling(PrioritySchedulingConfiguration)
+ */
+public class PrioritySchedulingConfiguration {
+
+    private final Map<EmailPriority, Integer> weights;
+
+    /**
+     * Create a configuration for weighted scheduling.
+     *
+     * @param weights the positive weight of every priority
+     */
+    public PrioritySchedulingConfiguration(@Nonnull final Map<EmailPriority, Integer> weights) {
+        this.weights = new EnumMap<>(EmailPriority.class);
+        for (final EmailPriority priority : EmailPriority.values()) {
+            final Integer weight = weights.get(priority);
+            if (weight == null)
+                throw new IllegalArgumentException("The weight of priority " + priority + " is missing");
+            if (weight < 1)
+                throw new IllegalArgumentException("The weight of priority " + priority + " must be positive: "
+                        + weight);
+            this.weights.put(priority, weight);
+        }
+    }
+
+    /**
+     * @param priority the priority of e-mails
+     * @return the share of the capacity of the sender used for e-mails with the given priority
+     */
+    public int getWeight(@Nonnull final EmailPriority priority) {
+        return weights.get(priority);
+    }
+}
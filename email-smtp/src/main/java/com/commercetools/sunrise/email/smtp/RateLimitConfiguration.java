@@ -0,0 +1,105 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+/**
+ * Instances of this class specify how many e-mails an {@link SmtpAuthEmailSender} sends at most, so that the sender
+ * stays within the quotas of the SMTP server instead of being throttled or blocked by it.
+ * <p>
+ * Each limit is a token bucket that refills continuously: a per-second limit allows bursts of up to one second's
+ * worth of e-mails, a per-day limit allows up to a day's worth, spread over any 24 hours. E-mails beyond a limit wait
+ * in the send queue until the limit permits them, without blocking a thread of the {@link java.util.concurrent.Executor}.
+ * E-mails that would have to wait longer than {@link #getMaxDelayMs()} since they were queued, e.g. because the daily
+ * quota is used up or too many e-mails are queued before them, fail with an {@link EmailRejectedException} instead. A
+ * limit of 0 disables the respective limit.
+ * <p>
+ * The buckets are kept in memory and start full, so quotas that have been used before the sender was created are not
+ * taken into account.
+ *
+ * @see SmtpSenderOptions.Builder#rateLimit(RateLimitConfiguration)
+ */
+public class RateLimitConfiguration {
+
+    private final double messagesPerSecond;
+
+    private final long messagesPerDay;
+
+    private final long recipientsPerDay;
+
+    private final long maxDelayMs;
+
+    /**
+     * Create a configuration for rate limits.
+     *
+     * @param messagesPerSecond the maximum number of e-mails sent per second, 0 for no limit
+     * @param messagesPerDay    the maximum number of e-mails sent per day, 0 for no limit
+     * @param recipientsPerDay  the maximum number of recipients (To, Cc and Bcc) of all e-mails sent per day, 0 for
+     *                          no limit
+     * @param maxDelayMs        the maximum time in milliseconds an e-mail waits for the limits to permit it
+     */
+    public RateLimitConfiguration(final double messagesPerSecond, final long messagesPerDay,
+                                  final long recipientsPerDay, final long maxDelayMs) {
+        if (messagesPerSecond < 0 || Double.isNaN(messagesPerSecond))
+            throw new IllegalArgumentException("The messages per second must not be negative: " + messagesPerSecond);
+        if (messagesPerDay < 0)
+            throw new IllegalArgumentException("The messages per day must not be negative: " + messagesPerDay);
+        if (recipientsPerDay < 0)
+            throw new IllegalArgumentException("The recipients per day must not be negative: " + recipientsPerDay);
+        if (maxDelayMs < 0)
+            throw new IllegalArgumentException("The maximum delay must not be negative: " + maxDelayMs);
+        this.messagesPerSecond = messagesPerSecond;
+        this.messagesPerDay = messagesPerDay;
+        this.recipientsPerDay = recipientsPerDay;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Limits for a consumer Gmail account: 500 e-mails and 500 recipients per day, at most one e-mail per second.
+     * E-mails wait for at most 5 minutes.
+     *
+     * @return the limits used by {@link GmailSmtpEmailSender} by default
+     * @see <a href="https://support.google.com/mail/answer/22839">Gmail sending limits</a>
+     */
+    public static RateLimitConfiguration gmail() {
+        return new RateLimitConfiguration(1, 500, 500, 5 * 60 * 1000);
+    }
+
+    /**
+     * Limits for a Google Workspace account: 2000 e-mails and 10000 recipients per day, at most one e-mail per
+     * second. E-mails wait for at most 5 minutes.
+     *
+     * @return limits for a Google Workspace account
+     * @see <a href="https://support.google.com/a/answer/166852">Google Workspace sending limits</a>
+     */
+    public static RateLimitConfiguration googleWorkspace() {
+        return new RateLimitConfiguration(1, 2000, 10000, 5 * 60 * 1000);
+    }
+
+    /**
+     * @return the maximum number of e-mails sent per second, 0 if unlimited
+     */
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * @return the maximum number of e-mails sent per day, 0 if unlimited
+     */
+    public long getMessagesPerDay() {
+        return messagesPerDay;
+    }
+
+    /**
+     * @return the maximum number of recipients of all e-mails sent per day, 0 if unlimited
+     */
+    public long getRecipientsPerDay() {
+        return recipientsPerDay;
+    }
+
+    /**
+     * @return the maximum time in milliseconds an e-mail waits for the limits to permit it
+     */
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+}
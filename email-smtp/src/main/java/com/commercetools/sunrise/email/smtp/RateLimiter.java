@@ -0,0 +1,138 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets for the limits of a {@link RateLimitConfiguration}. A message takes a token from each message bucket
+ * before it is sent. The recipients of a message are only known once the message has been taken from the send queue,
+ * so the recipient bucket may go into debt, which delays subsequent messages until it is paid back.
+ */
+final class RateLimiter {
+
+    private static final long NANOS_PER_DAY = TimeUnit.DAYS.toNanos(1);
+
+    private final LongSupplier nanoTime;
+
+    private final long maxDelayNanos;
+
+    @Nullable
+    private final TokenBucket messagesPerSecond;
+
+    @Nullable
+    private final TokenBucket messagesPerDay;
+
+    @Nullable
+    private final TokenBucket recipientsPerDay;
+
+    RateLimiter(@Nonnull final RateLimitConfiguration configuration) {
+        this(configuration, System::nanoTime);
+    }
+
+    RateLimiter(@Nonnull final RateLimitConfiguration configuration, @Nonnull final LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getMaxDelayMs());
+        final long now = nanoTime.getAsLong();
+        final double perSecond = configuration.getMessagesPerSecond();
+        this.messagesPerSecond = perSecond > 0
+                ? new TokenBucket(Math.max(1, perSecond), perSecond / TimeUnit.SECONDS.toNanos(1), now)
+                : null;
+        this.messagesPerDay = bucketPerDay(configuration.getMessagesPerDay(), now);
+        this.recipientsPerDay = bucketPerDay(configuration.getRecipientsPerDay(), now);
+    }
+
+    /**
+     * Takes the tokens for one message if all limits permit it.
+     *
+     * @return 0 if the message may be sent now, otherwise the time in nanoseconds until it may be sent
+     */
+    synchronized long tryAcquire() {
+        final long now = nanoTime.getAsLong();
+        final long waitNanos = Math.max(nanosUntil(messagesPerSecond, 1, now),
+                Math.max(nanosUntil(messagesPerDay, 1, now), nanosUntil(recipientsPerDay, 1, now)));
+        if (waitNanos == 0) {
+            take(messagesPerSecond, 1);
+            take(messagesPerDay, 1);
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Tells when the next message may be sent, without taking any tokens.
+     *
+     * @return 0 if a message may be sent now, otherwise the time in nanoseconds until one may be sent
+     */
+    synchronized long nanosUntilAvailable() {
+        final long now = nanoTime.getAsLong();
+        return Math.max(nanosUntil(messagesPerSecond, 1, now),
+                Math.max(nanosUntil(messagesPerDay, 1, now), nanosUntil(recipientsPerDay, 1, now)));
+    }
+
+    /**
+     * Takes the tokens for the recipients of a message acquired with {@link #tryAcquire()}.
+     *
+     * @param recipients the number of envelope recipients of the message
+     */
+    synchronized void takeRecipients(final int recipients) {
+        take(recipientsPerDay, recipients);
+    }
+
+    /**
+     * @param waitNanos a time returned by {@link #tryAcquire()}
+     * @return whether a message may wait that long
+     */
+    boolean isWithinMaxDelay(final long waitNanos) {
+        return waitNanos <= maxDelayNanos;
+    }
+
+    /**
+     * @return the maximum time in nanoseconds a message may wait for the limits to permit it
+     */
+    long getMaxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    @Nullable
+    private static TokenBucket bucketPerDay(final long perDay, final long now) {
+        return perDay > 0 ? new TokenBucket(perDay, (double) perDay / NANOS_PER_DAY, now) : null;
+    }
+
+    private static long nanosUntil(@Nullable final TokenBucket bucket, final double tokens, final long now) {
+        if (bucket == null) {
+            return 0;
+        }
+        bucket.refill(now);
+        return bucket.tokens >= tokens ? 0 : (long) Math.ceil((tokens - bucket.tokens) / bucket.tokensPerNano);
+    }
+
+    private static void take(@Nullable final TokenBucket bucket, final double tokens) {
+        if (bucket != null) {
+            bucket.tokens -= tokens;
+        }
+    }
+
+    private static final class TokenBucket {
+
+        private final double capacity;
+
+        private final double tokensPerNano;
+
+        private double tokens;
+
+        private long lastRefillNanos;
+
+        private TokenBucket(final double capacity, final double tokensPerNano, final long now) {
+            this.capacity = capacity;
+            this.tokensPerNano = tokensPerNano;
+            this.tokens = capacity;
+            this.lastRefillNanos = now;
+        }
+
+        void refill(final long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
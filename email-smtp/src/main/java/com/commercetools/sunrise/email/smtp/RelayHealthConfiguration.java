@@ -0,0 +1,46 @@
+package com.commercetools.sunrise.email.smtp;
+
+/**
+ * Instances of this class specify when a {@link MultiRelayEmailSender} stops using an SMTP server and when it checks
+ * whether the server can be used again.
+ * <p>
+ * A relay is ejected after {@link #getFailureThreshold()} consecutive e-mails failed because no connection could be
+ * established or authentication failed. Every {@link #getProbeIntervalMs()} the sender tries to connect to and
+ * authenticate with each ejected relay, and re-admits the relays for which this succeeds.
+ */
+public class RelayHealthConfiguration {
+
+    private final int failureThreshold;
+
+    private final long probeIntervalMs;
+
+    /**
+     * Create a configuration for the health checks of relays.
+     *
+     * @param failureThreshold the number of consecutive connection or authentication failures after which a relay is
+     *                         ejected
+     * @param probeIntervalMs  the time in milliseconds between two attempts to connect to an ejected relay
+     */
+    public RelayHealthConfiguration(final int failureThreshold, final long probeIntervalMs) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("The failure threshold must be positive: " + failureThreshold);
+        if (probeIntervalMs < 1)
+            throw new IllegalArgumentException("The probe interval must be positive: " + probeIntervalMs);
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalMs = probeIntervalMs;
+    }
+
+    /**
+     * @return the number of consecutive connection or authentication failures after which a relay is ejected
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @return the time in milliseconds between two attempts to connect to an ejected relay
+     */
+    public long getProbeIntervalMs() {
+        return probeIntervalMs;
+    }
+}
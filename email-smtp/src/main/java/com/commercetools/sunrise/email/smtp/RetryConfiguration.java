@@ -0,0 +1,77 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+
+/**
+ * Instances of this class specify how often an {@link SmtpAuthEmailSender} attempts to send an e-mail that failed
+ * temporarily, i.e. with an {@link EmailDeliveryException} for which {@link EmailDeliveryException#isPermanent()} is
+ * {@code false}: the SMTP server replied with a 4xx reply code, or the connection failed.
+ * <p>
+ * The time between two attempts is chosen randomly between 0 and a maximum, which starts at
+ * {@link #getInitialBackoffMs()} and doubles with every attempt up to {@link #getMaxBackoffMs()}, so that senders
+ * retrying at the same time do not overwhelm a recovering SMTP server. No thread is blocked while waiting.
+ * <p>
+ * Note that if a connection fails after the SMTP server received the content of an e-mail but before it confirmed the
+ * e-mail, the e-mail may be delivered twice.
+ *
+ * @see SmtpSenderOptions.Builder#retry(RetryConfiguration)
+ */
+public class RetryConfiguration {
+
+    private final int maxAttempts;
+
+    private final long initialBackoffMs;
+
+    private final long maxBackoffMs;
+
+    /**
+     * Create a configuration for retries.
+     *
+     * @param maxAttempts      the maximum number of attempts per e-mail, including the first one
+     * @param initialBackoffMs the maximum time in milliseconds before the second attempt
+     * @param maxBackoffMs     the maximum time in milliseconds between any two attempts
+     */
+    public RetryConfiguration(final int maxAttempts, final long initialBackoffMs, final long maxBackoffMs) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+        if (initialBackoffMs < 1)
+            throw new IllegalArgumentException("The initial backoff must be positive: " + initialBackoffMs);
+        if (maxBackoffMs < initialBackoffMs)
+            throw new IllegalArgumentException("The maximum backoff must not be lower than the initial backoff: "
+                    + maxBackoffMs);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * @return the maximum number of attempts per e-mail, including the first one
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return the maximum time in milliseconds before the second attempt
+     */
+    public long getInitialBackoffMs() {
+        return initialBackoffMs;
+    }
+
+    /**
+     * @return the maximum time in milliseconds between any two attempts
+     */
+    public long getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    /**
+     * @param attempt the number of the attempt that failed, starting with 1
+     * @return the upper bound of the time in milliseconds before the next attempt
+     */
+    long getBackoffBoundMs(final int attempt) {
+        final int doublings = Math.min(attempt - 1, 62);
+        final long bound = initialBackoffMs << doublings;
+        return bound <= 0 || bound >> doublings != initialBackoffMs ? maxBackoffMs : Math.min(bound, maxBackoffMs);
+    }
+}
@@ -0,0 +1,375 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The messages of an {@link SmtpAuthEmailSender} that wait to be sent, with one FIFO lane per {@link EmailPriority}.
+ * Messages are taken from the lane with the highest priority first, or with a {@link PrioritySchedulingConfiguration},
+ * by smooth weighted round robin: every lane with messages earns its weight in credits per message taken, and the
+ * lane with the most credits pays the weights of all these lanes for taking the next message.
+ * <p>
+ * Messages whose result completes while they are queued, because they were cancelled or expired, are removed from the
+ * queue right away, so that they give up their permit and no longer count as queued.
+ * <p>
+ * The number of queued messages is bounded by a semaphore with one permit per message. Every message holds a permit
+ * from {@link #add(Entry)} until it is taken out again; a message that is shed to make room passes its permit on to
+ * the message that replaces it.
+ */
+final class SendQueue {
+
+    private static final EmailPriority[] PRIORITIES = EmailPriority.values();
+
+    @Nullable
+    private final SendQueueConfiguration configuration;
+
+    private final Deque<Entry>[] lanes;
+
+    private final AtomicInteger[] depths;
+
+    private final Semaphore permits;
+
+    /**
+     * The weight of each lane, or {@code null} if the lanes are served by strict priority.
+     */
+    @Nullable
+    private final int[] weights;
+
+    /**
+     * The credits of each lane for weighted round robin, guarded by itself.
+     */
+    private final int[] credits;
+
+    /**
+     * @param configuration the bound and overload policy, or {@code null} for an unbounded queue
+     */
+    SendQueue(@Nullable final SendQueueConfiguration configuration) {
+        this(configuration, null);
+    }
+
+    /**
+     * @param configuration the bound and overload policy, or {@code null} for an unbounded queue
+     * @param scheduling    the weight of each lane, or {@code null} to serve the lanes by strict priority
+     */
+    @SuppressWarnings("unchecked")
+    SendQueue(@Nullable final SendQueueConfiguration configuration,
+              @Nullable final PrioritySchedulingConfiguration scheduling) {
+        this.configuration = configuration;
+        this.credits = new int[PRIORITIES.length];
+        if (scheduling != null) {
+            this.weights = new int[PRIORITIES.length];
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                weights[i] = scheduling.getWeight(PRIORITIES[i]);
+            }
+        } else {
+            this.weights = null;
+        }
+        this.lanes = new Deque[PRIORITIES.length];
+        this.depths = new AtomicInteger[PRIORITIES.length];
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            lanes[i] = new ConcurrentLinkedDeque<>();
+            depths[i] = new AtomicInteger();
+        }
+        this.permits = new Semaphore(configuration != null ? configuration.getCapacity() : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds a message to the queue, applying the overload policy if the queue is full. The result of a message that is
+     * shed to make room is completed with an {@link EmailRejectedException}.
+     *
+     * @param entry the message to add
+     * @throws EmailRejectedException if the message is not accepted
+     */
+    void add(@Nonnull final Entry entry) {
+        if (!permits.tryAcquire()) {
+            if (configuration == null) {
+                throw new EmailRejectedException("The send queue is full");
+            }
+            switch (configuration.getOverloadPolicy()) {
+                case BLOCK:
+                    awaitPermit();
+                    break;
+                case SHED_LOWEST_PRIORITY:
+                    if (replaceLowerPriority(entry)) {
+                        return;
+                    }
+                    throw new EmailRejectedException("The send queue is full of e-mails with priority "
+                            + entry.priority + " or higher");
+                default:
+                    throw new EmailRejectedException("The send queue is full");
+            }
+        }
+        enqueue(entry);
+    }
+
+    /**
+     * @return the queued message with the highest priority, or the message chosen by weighted round robin, or
+     * {@code null} if the queue is empty
+     */
+    @Nullable
+    Entry poll() {
+        if (weights != null) {
+            return pollWeighted(weights);
+        }
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            final Entry entry = pollLane(i);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first message of the lane whose result has not completed yet, or {@code null} if there is none
+     */
+    @Nullable
+    private Entry pollLane(final int lane) {
+        Entry entry;
+        while ((entry = lanes[lane].pollFirst()) != null) {
+            taken(lane, entry);
+            if (!entry.result.isDone()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private Entry pollWeighted(@Nonnull final int[] weights) {
+        synchronized (credits) {
+            while (true) {
+                int selected = -1;
+                int totalWeight = 0;
+                for (int i = 0; i < PRIORITIES.length; i++) {
+                    if (lanes[i].isEmpty()) {
+                        credits[i] = 0;// an idle lane must not save up credits for a burst later
+                        continue;
+                    }
+                    credits[i] += weights[i];
+                    totalWeight += weights[i];
+                    if (selected < 0 || credits[i] > credits[selected]) {
+                        selected = i;
+                    }
+                }
+                if (selected < 0) {
+                    return null;
+                }
+                credits[selected] -= totalWeight;
+                final Entry entry = pollLane(selected);
+                if (entry != null) {
+                    return entry;
+                }
+                // dropped or removed concurrently, choose again
+            }
+        }
+    }
+
+    /**
+     * Takes the messages out of the queue that were added before the given time. The lanes are ordered by the time
+     * their messages were added, so only the messages that are taken out and the next one of each lane are inspected.
+     *
+     * @param deadlineNanos the time before which messages have to be added to be taken out, see
+     *                      {@link System#nanoTime()}
+     * @return the messages taken out whose result has not completed yet, possibly none
+     */
+    @Nonnull
+    List<Entry> pollEnqueuedBefore(final long deadlineNanos) {
+        final List<Entry> overdue = new ArrayList<>();
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            Entry entry;
+            while ((entry = lanes[i].peekFirst()) != null && entry.enqueuedNanos - deadlineNanos < 0) {
+                if (lanes[i].removeFirstOccurrence(entry)) {
+                    taken(i, entry);
+                    if (!entry.result.isDone()) {
+                        overdue.add(entry);
+                    }
+                }
+            }
+        }
+        return overdue;
+    }
+
+    /**
+     * @param entry the message to take out of the queue
+     * @return {@code true} if the message was queued, {@code false} if it has already been taken out
+     */
+    boolean remove(@Nonnull final Entry entry) {
+        final int lane = entry.priority.ordinal();
+        if (lanes[lane].removeFirstOccurrence(entry)) {
+            taken(lane, entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    int size() {
+        int size = 0;
+        for (final AtomicInteger depth : depths) {
+            size += depth.get();
+        }
+        return size;
+    }
+
+    /**
+     * @param priority the priority of the messages to count
+     * @return the number of queued messages with the given priority
+     */
+    int size(@Nonnull final EmailPriority priority) {
+        return depths[priority.ordinal()].get();
+    }
+
+    private void awaitPermit() {
+        try {
+            if (!permits.tryAcquire(configuration.getBlockTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw new EmailRejectedException("The send queue is still full after "
+                        + configuration.getBlockTimeoutMs() + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EmailRejectedException("Interrupted while waiting for room in the send queue", e);
+        }
+    }
+
+    /**
+     * Sheds the most recent message of the lowest priority below the priority of the given message and queues the
+     * given message with the permit of the shed one.
+     *
+     * @return {@code true} if the given message has been queued
+     */
+    private boolean replaceLowerPriority(@Nonnull final Entry entry) {
+        for (int i = PRIORITIES.length - 1; i > entry.priority.ordinal(); i--) {
+            final Entry shed = lanes[i].pollLast();
+            if (shed != null) {
+                shed.queued = false;
+                depths[i].decrementAndGet();
+                enqueue(entry);
+                shed.result.completeExceptionally(new EmailRejectedException("Shed from the full send queue for an "
+                        + "e-mail with priority " + entry.priority));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends a message to its lane and removes it again as soon as its result completes while it is queued.
+     */
+    private void enqueue(@Nonnull final Entry entry) {
+        final int lane = entry.priority.ordinal();
+        entry.enqueuedNanos = System.nanoTime();
+        entry.queued = true;
+        depths[lane].incrementAndGet();
+        lanes[lane].addLast(entry);
+        if (!entry.removalRegistered) {
+            entry.removalRegistered = true;
+            entry.result.whenComplete((messageId, throwable) -> {
+                if (entry.queued) {// avoids searching the lane for messages that have been sent
+                    remove(entry);
+                }
+            });
+        }
+    }
+
+    private void taken(final int lane, @Nonnull final Entry entry) {
+        entry.queued = false;
+        depths[lane].decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * A queued message together with its priority, result and the number of attempts to send it.
+     */
+    static final class Entry {
+
+        final MimeMessage message;
+
+        final EmailPriority priority;
+
+        final CompletableFuture<String> result;
+
+        /**
+         * The number of attempts to send the message so far, only accessed by the task that sends the message.
+         */
+        int attempts = 0;
+
+        /**
+         * When the message was added to the queue most recently, see {@link System#nanoTime()}.
+         */
+        volatile long enqueuedNanos;
+
+        /**
+         * Whether the message may still be in the queue, only {@code true} between adding and taking it out.
+         */
+        volatile boolean queued;
+
+        /**
+         * Whether the message is removed from the queue once its result completes, so that messages that are added
+         * again for another attempt do not register the removal twice.
+         */
+        boolean removalRegistered;
+
+        /**
+         * Whether the transfer of the message has started, shared with the timeout of the message.
+         */
+        final TransferState transfer;
+
+        Entry(@Nonnull final MimeMessage message, @Nonnull final EmailPriority priority,
+              @Nonnull final CompletableFuture<String> result) {
+            this(message, priority, result, new TransferState());
+        }
+
+        Entry(@Nonnull final MimeMessage message, @Nonnull final EmailPriority priority,
+              @Nonnull final CompletableFuture<String> result, @Nonnull final TransferState transfer) {
+            this.message = message;
+            this.priority = priority;
+            this.result = result;
+            this.transfer = transfer;
+        }
+    }
+
+    /**
+     * Tells whether a message may still be dropped without having been transferred, because its transfer has not
+     * started. Each message either starts or is dropped, whichever happens first; a message that has started remains
+     * started, also when it is attempted again.
+     */
+    static final class TransferState {
+
+        private static final int PENDING = 0;
+
+        private static final int STARTED = 1;
+
+        private static final int DROPPED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        /**
+         * @return {@code true} if the transfer may start, {@code false} if the message has been dropped
+         */
+        boolean start() {
+            return state.compareAndSet(PENDING, STARTED) || state.get() == STARTED;
+        }
+
+        /**
+         * @return {@code true} if the message is dropped, {@code false} if its transfer has started
+         */
+        boolean drop() {
+            return state.compareAndSet(PENDING, DROPPED) || state.get() == DROPPED;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Instances of this class specify how many e-mails an {@link SmtpAuthEmailSender} accepts that wait to be sent, and
+ * what happens to further e-mails while that many are waiting.
+ * <p>
+ * Without a bound, e-mails pile up in memory for as long as the SMTP server is slow or unreachable. With a bound,
+ * {@link OverloadPolicy} decides how the sender degrades instead: e-mails that are not accepted fail with an
+ * {@link EmailRejectedException} and may be sent again later.
+ *
+ * @see SmtpSenderOptions.Builder#sendQueue(SendQueueConfiguration)
+ */
+public class SendQueueConfiguration {
+
+    /**
+     * What an {@link SmtpAuthEmailSender} does with an e-mail while its send queue is full.
+     */
+    public enum OverloadPolicy {
+
+        /**
+         * The e-mail is rejected immediately.
+         */
+        FAIL,
+
+        /**
+         * The caller blocks until there is room in the queue, for at most {@link #getBlockTimeoutMs()}; the e-mail
+         * is rejected if the time elapses.
+         */
+        BLOCK,
+
+        /**
+         * The most recently queued e-mail of the lowest {@link EmailPriority} that is lower than the priority of the
+         * new e-mail is rejected to make room for the new e-mail. If there is no such e-mail, the new e-mail is
+         * rejected.
+         */
+        SHED_LOWEST_PRIORITY
+    }
+
+    private final int capacity;
+
+    @Nonnull
+    private final OverloadPolicy overloadPolicy;
+
+    private final long blockTimeoutMs;
+
+    /**
+     * Create a configuration for a bounded send queue.
+     *
+     * @param capacity       the maximum number of e-mails that wait to be sent. E-mails that are being sent do not
+     *                       count towards this limit.
+     * @param overloadPolicy what happens to e-mails sent while the queue is full
+     * @param blockTimeoutMs the maximum time in milliseconds that the caller waits for room in the queue, only
+     *                       relevant for {@link OverloadPolicy#BLOCK}
+     */
+    public SendQueueConfiguration(final int capacity, @Nonnull final OverloadPolicy overloadPolicy,
+                                  final long blockTimeoutMs) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        if (blockTimeoutMs < 0)
+            throw new IllegalArgumentException("The block timeout must not be negative: " + blockTimeoutMs);
+        this.capacity = capacity;
+        this.overloadPolicy = overloadPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    /**
+     * @return the maximum number of e-mails that wait to be sent
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return what happens to e-mails sent while the queue is full
+     */
+    @Nonnull
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+
+    /**
+     * @return the maximum time in milliseconds that the caller waits for room in the queue
+     */
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+}
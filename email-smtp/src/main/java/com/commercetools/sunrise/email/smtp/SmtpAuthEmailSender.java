@@ -2,14 +2,36 @@ package com.commercetools.sunrise.email.smtp;
 
 import com.commercetools.sunrise.email.EmailCreationException;
 import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
 import com.commercetools.sunrise.email.EmailSender;
+import com.commercetools.sunrise.email.EmailSenderMetrics;
 import com.commercetools.sunrise.email.MessageEditor;
+import com.commercetools.sunrise.email.MessageTemplate;
+import com.commercetools.sunrise.email.SendOptions;
+import com.commercetools.sunrise.email.SendPhase;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.mail.*;
 import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * An e-mail sender that asynchronously sends e-mail via SMTP over TLS using the default implementation of the Java Mail API.
@@ -27,7 +49,10 @@ import java.util.concurrent.*;
  * <a href="https://javamail.java.net/nonav/docs/api/index.html?com/sun/mail/smtp/package-summary.html">com.sun.mail.smtp</a>,
  * and other packages provide details on log levels.
  */
-public class SmtpAuthEmailSender implements EmailSender {
+public class SmtpAuthEmailSender implements EmailSender, AutoCloseable {
+
+    private static final EmailSenderMetrics NO_METRICS = new EmailSenderMetrics() {
+    };
 
     /**
      * The executor used to send messages asynchronously.
@@ -39,6 +64,92 @@ public class SmtpAuthEmailSender implements EmailSender {
      */
     private final Session session;
 
+    /**
+     * The pool of SMTP connections, or {@code null} if every message is sent over a new connection.
+     */
+    @Nullable
+    private final SmtpConnectionPool connectionPool;
+
+    /**
+     * The messages that wait to be sent.
+     */
+    private final SendQueue sendQueue;
+
+    /**
+     * The journal of accepted messages, or {@code null} if messages are only kept in memory.
+     */
+    @Nullable
+    private final OutboxJournal outbox;
+
+    /**
+     * The limits for sending messages, or {@code null} if messages are sent as fast as possible.
+     */
+    @Nullable
+    private final RateLimiter rateLimiter;
+
+    /**
+     * The number of tasks that wait for the rate limits to permit a message. Instead of each task waking up for every
+     * token, a single wake-up per sender submits one of them again, see {@link #parkForRateLimit(long)}.
+     */
+    private final AtomicInteger rateParkedTasks = new AtomicInteger();
+
+    /**
+     * Whether a wake-up of a task parked by the rate limits has been scheduled.
+     */
+    private final AtomicBoolean rateWakeUpScheduled = new AtomicBoolean();
+
+    /**
+     * The adaptive limit of concurrent transfers, or {@code null} if transfers are only limited by the executor.
+     */
+    @Nullable
+    private final ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * The circuit breaker, or {@code null} if every message is attempted.
+     */
+    @Nullable
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * How often messages that failed temporarily are attempted, or {@code null} if they are attempted once.
+     */
+    @Nullable
+    private final RetryConfiguration retry;
+
+    /**
+     * The listener that is notified about sent messages.
+     */
+    private final EmailSenderMetrics metrics;
+
+    /**
+     * The executor used to create messages asynchronously, or {@code null} if messages are created by the caller.
+     */
+    @Nullable
+    private final Executor creationExecutor;
+
+    /**
+     * The idempotency keys of recently sent messages, or {@code null} if idempotency keys are ignored.
+     */
+    @Nullable
+    private final IdempotencyIndex idempotencyIndex;
+
+    /**
+     * Combines identical messages to several recipients, or {@code null} if every message is sent on its own.
+     */
+    @Nullable
+    private final EnvelopeCoalescer coalescer;
+
+    /**
+     * The TLS context that secures and resumes connections, or {@code null} if the default context of the JVM is used.
+     */
+    @Nullable
+    private final SSLContext sslContext;
+
+    /**
+     * The warm-up of the connection pool started by the constructor.
+     */
+    private final CompletionStage<Integer> initialWarmUp;
+
     /**
      * Create a new instance using the given executor and configuration. The following example shows how to create an
      * instance of this sender for exploring its functionality. Make sure to read below notes, though.
@@ -60,7 +171,8 @@ public class SmtpAuthEmailSender implements EmailSender {
      * of available processors. You may also create a custom {@link ForkJoinPool} instance, or another kind of
      * {@link Executor}. Note that blocked I/O while sending e-mails will block a pool thread. A fork join pool
      * will also queue tasks while all threads are busy or blocked and offers methods like
-     * {@link ForkJoinPool#getQueuedTaskCount()} that may be used to monitor the pool at run-time.
+     * {@link ForkJoinPool#getQueuedTaskCount()} that may be used to monitor the pool at run-time. On Java 21 or later,
+     * a {@link VirtualThreadExecutor} avoids blocking pool threads altogether.
      * <p>
      * The constructor also requires a timeout to be specified in milliseconds. If this timeout elapses while the e-mail
      * sender waits to be connected to the SMTP server, waits to read data from the SMTP server, or waits to write data
@@ -74,11 +186,13 @@ public class SmtpAuthEmailSender implements EmailSender {
      * The e-mail sender does not limit the size of the messages it accepts. Because the {@link #send(MessageEditor)}
      * method fills messages before sending is attempted within the {@link Executor}, it is theoretically possible that
      * a large queue of messages waiting to be send consumes all available memory. Users of this API should therefore
-     * ensure that messages do not exceed a certain size.
+     * ensure that messages do not exceed a certain size, or bound the number of waiting messages with
+     * {@link SmtpSenderOptions#getSendQueue()}.
      * <h1>Configuration correctness</h1>
      * Note that this constructor does not fail fast: the constructor does not create a connection to the mail server to
      * ensure that the connection details and credentials are correct. If you would like to ensure a correct
-     * configuration, send a test message at startup and decide on your own what to do if that fails.
+     * configuration, send a test message at startup and decide on your own what to do if that fails, or configure
+     * warm connections and check {@link #getInitialWarmUp()}.
      * <h1>Shutdown</h1>
      * If the JVM running this e-mail sender is shut down, the {@link Executor} passed to this constructor should be
      * shut down, too, in a way that ensures that all messages submitted to {@link #send(MessageEditor)} have been sent
@@ -95,10 +209,162 @@ public class SmtpAuthEmailSender implements EmailSender {
      */
     public SmtpAuthEmailSender(@Nonnull final SmtpConfiguration smtpConfiguration, @Nonnull final Executor executor,
                                final int timeoutMs) {
+        this(smtpConfiguration, executor, timeoutMs, SmtpSenderOptions.defaults());
+    }
+
+    /**
+     * Create a new instance using the given executor, configuration and optional settings. See
+     * {@link #SmtpAuthEmailSender(SmtpConfiguration, Executor, int)} for details on the executor and timeouts.
+     * <h1>Connection pooling</h1>
+     * By default, the sender opens a new SMTP connection for every e-mail, which involves a TCP connection, possibly a
+     * TLS handshake, and authentication with the SMTP server. If {@link SmtpSenderOptions#getConnectionPool()} is
+     * configured, authenticated connections are kept open and reused instead. Then at most
+     * {@link SmtpConnectionPoolConfiguration#getMaxConnections()} messages are transferred concurrently, further
+     * sends wait for a connection for at most {@code timeoutMs} within the {@link Executor}. A sender with a
+     * connection pool should be closed with {@link #close()} when it is no longer used.
+     * <h1>Warm-up</h1>
+     * If {@link SmtpConnectionPoolConfiguration#getWarmConnections()} is positive, the constructor starts opening and
+     * authenticating that many connections within the {@link Executor}, and the pool opens them again after idle
+     * connections have been evicted, so that the first e-mails do not wait for the SMTP server. The constructor does
+     * not wait for the warm-up; {@link #getInitialWarmUp()} tells whether it succeeded, e.g. to fail a readiness check
+     * if the SMTP server cannot be reached.
+     * <h1>TLS</h1>
+     * If {@link SmtpSenderOptions#getTls()} is configured and the SMTP configuration uses TLS, the sender secures
+     * connections with its own {@link SSLContext}, see {@link #createSslContext(TlsConfiguration)}, whose session
+     * cache lets new connections to the SMTP server resume a previous TLS session with an abbreviated handshake. The
+     * configured protocols and cipher suites restrict the ones offered to the SMTP server, see
+     * {@link TlsConfiguration}.
+     * <h1>Send queue</h1>
+     * Messages passed to {@link #send(MessageEditor)} wait in a queue until a task of the {@link Executor} sends them,
+     * messages with a higher {@link EmailPriority} first. If {@link SmtpSenderOptions#getSendQueue()} is configured, at
+     * most {@link SendQueueConfiguration#getCapacity()} messages wait at the same time, and the
+     * {@link SendQueueConfiguration.OverloadPolicy} decides which messages are rejected beyond that. Rejected messages
+     * complete their stage with an {@link EmailRejectedException}. The same applies to messages the {@link Executor}
+     * refuses to run with a {@link RejectedExecutionException}. Use {@link #getQueuedMessageCount()} to monitor the
+     * queue at run-time.
+     * <h1>Priority scheduling</h1>
+     * By default, the send queue always hands out an e-mail of the highest priority first. If
+     * {@link SmtpSenderOptions#getPriorityScheduling()} is configured, the priorities share the {@link Executor} and
+     * the connection pool by weight instead, so that e-mails of lower priorities are not starved, see
+     * {@link PrioritySchedulingConfiguration}. {@link EmailSenderMetrics} receive the queue depth and the time spent
+     * in the queue per priority.
+     * <h1>Outbox</h1>
+     * If {@link SmtpSenderOptions#getOutbox()} is configured, {@link #send(MessageEditor)} appends every message to a
+     * journal on disk before it returns, and the message is removed from the journal once its completion stage
+     * completes. Messages that remain in the journal because the JVM stopped are read when the sender is created and
+     * sent again with {@link #replayOutbox()}. Note that such messages may have been sent already, shortly before the
+     * JVM stopped. Messages sent with {@link #sendAll(Collection)} are not written to the outbox.
+     * <h1>Rate limits</h1>
+     * If {@link SmtpSenderOptions#getRateLimit()} is configured, messages wait in the send queue until the limits
+     * permit them, and messages that would wait too long complete their stage with an {@link EmailRejectedException}.
+     * Waiting does not block a thread of the {@link Executor}, except for {@link #sendAll(Collection)}, which waits
+     * between the messages of a batch.
+     * <h1>Failures and retries</h1>
+     * Messages that could not be sent complete their stage with an {@link EmailDeliveryException} that tells the reply
+     * code of the SMTP server, if any, and whether the failure is permanent, see
+     * {@link EmailDeliveryException#isPermanent()}. If {@link SmtpSenderOptions#getRetry()} is configured, messages
+     * that failed temporarily are added to the send queue again after a randomized, exponentially growing delay, until
+     * they are sent or the attempts are exhausted.
+     * <h1>Adaptive concurrency</h1>
+     * By default, as many messages are transferred concurrently as the {@link Executor} runs tasks and, with a
+     * connection pool, as there are connections. If {@link SmtpSenderOptions#getAdaptiveConcurrency()} is configured,
+     * the sender limits concurrent transfers further, raising the limit while the SMTP server keeps up and lowering it
+     * when transfers become slow or fail temporarily, see {@link AdaptiveConcurrencyConfiguration}. Then the
+     * {@link Executor} may be sized generously, because messages beyond the limit wait in the send queue without
+     * blocking a thread. Use {@link #getConcurrencyLimit()} to monitor the limit at run-time. Messages sent with
+     * {@link #sendAll(Collection)} are not limited.
+     * <h1>Circuit breaker</h1>
+     * If {@link SmtpSenderOptions#getCircuitBreaker()} is configured, the sender stops contacting the SMTP server once
+     * too many recent transfers failed because the server could not be connected to, the connection failed or
+     * authentication failed. While the circuit is open, messages that are sent or taken from the send queue complete
+     * their stage with a {@link CircuitOpenException} immediately, instead of each blocking a thread until the
+     * connection times out. After a while a few messages are sent as probes, and the circuit closes again once they
+     * succeed, see {@link CircuitBreakerConfiguration}. Use {@link #getCircuitState()} to monitor the circuit. The
+     * messages of a batch sent with {@link #sendAll(Collection)} are checked one by one before they are transferred.
+     * <h1>Metrics</h1>
+     * If {@link SmtpSenderOptions#getMetrics()} is configured, the sender reports the duration of each
+     * {@link SendPhase}, successes, failures, the depth of the send queue and the bytes transferred. Connecting,
+     * authenticating and transferring are measured by an SMTP transport that replaces the default one of the
+     * {@link Session}, see {@link MeteredSmtpTransport}.
+     * <h1>Coalescing</h1>
+     * If {@link SmtpSenderOptions#getCoalescing()} is configured, messages that only differ in their {@code Bcc}
+     * recipients and are sent within a short window are combined into one SMTP transaction, see
+     * {@link CoalescingConfiguration}. The completion stage of each message completes with the result of the combined
+     * message. Messages sent with {@link #sendAll(Collection)} are not combined.
+     * <h1>Idempotent sends</h1>
+     * If {@link SmtpSenderOptions#getIdempotency()} is configured, e-mails sent with an
+     * {@link SendOptions#getIdempotencyKey() idempotency key} are sent at most once while their key is remembered,
+     * see {@link IdempotencyConfiguration}.
+     * <h1>Asynchronous message creation</h1>
+     * By default, {@link #send(MessageEditor)} invokes the message editor on the calling thread. If
+     * {@link SmtpSenderOptions#getCreationExecutor()} is configured, messages are created within that executor, so
+     * that {@link #send(MessageEditor)} returns immediately and failures to create a message are contained in the
+     * returned stage. This does not apply to {@link #sendAll(Collection)}.
+     * <h1>Timeouts and cancellation</h1>
+     * The {@code timeoutMs} of the constructor bounds each blocking network operation. In addition,
+     * {@link SendOptions#getTimeoutMs()} bounds the whole time from {@link #send(MessageEditor, SendOptions)} to the
+     * completion of the returned stage, including the time spent in the send queue, waiting for the rate limits, and
+     * between retries. A message whose stage has completed because its timeout elapsed or because it has been
+     * cancelled with {@link CompletableFuture#cancel(boolean)} is dropped before it is created, queued, retried or
+     * transferred, so an overloaded sender does not spend the capacity of the SMTP server on e-mails that nobody waits
+     * for anymore. A message whose transfer has already started is not aborted and may still be delivered; if its
+     * timeout elapses, its stage completes with an {@link EmailDeliveryException} rather than an
+     * {@link EmailRejectedException}, so that it is not sent again as if it had been rejected.
+     *
+     * @param smtpConfiguration how to connect to the SMTP server
+     * @param executor          the executor to use, see {@link #SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}
+     * @param timeoutMs         the timeout for creating, reading from and writing to SMTP connections in
+     *                          milliseconds, see {@link #SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}
+     * @param options           optional settings, e.g. {@link SmtpSenderOptions#defaults()}
+     * @throws UncheckedIOException if an outbox is configured and it could not be opened
+     */
+    public SmtpAuthEmailSender(@Nonnull final SmtpConfiguration smtpConfiguration, @Nonnull final Executor executor,
+                               final int timeoutMs, @Nonnull final SmtpSenderOptions options) {
         this.executor = executor;
+        final EmailSenderMetrics configuredMetrics = options.getMetrics();
+        this.metrics = configuredMetrics != null ? configuredMetrics : NO_METRICS;
         final Properties properties = createProperties(smtpConfiguration, timeoutMs);
+        final TlsConfiguration tls = options.getTls();
+        if (tls != null && smtpConfiguration.getTransportSecurity() != SmtpConfiguration.TransportSecurity.None) {
+            this.sslContext = createSslContext(tls);
+            configureTls(properties, tls, sslContext, smtpConfiguration.getTransportSecurity());
+        } else {
+            this.sslContext = null;
+        }
+        if (configuredMetrics != null) {
+            properties.put(MeteredSmtpTransport.METRICS_PROPERTY, configuredMetrics);
+        }
         properties(properties);
         this.session = createSession(properties, smtpConfiguration);
+        if (configuredMetrics != null) {
+            MeteredSmtpTransport.install(session);
+        }
+        final SmtpConnectionPoolConfiguration poolConfiguration = options.getConnectionPool();
+        this.connectionPool = poolConfiguration != null
+                ? new SmtpConnectionPool(session, poolConfiguration, executor, timeoutMs)
+                : null;
+        this.sendQueue = new SendQueue(options.getSendQueue(), options.getPriorityScheduling());
+        final RateLimitConfiguration rateLimit = options.getRateLimit();
+        this.rateLimiter = rateLimit != null ? new RateLimiter(rateLimit) : null;
+        this.retry = options.getRetry();
+        final AdaptiveConcurrencyConfiguration adaptiveConcurrency = options.getAdaptiveConcurrency();
+        this.concurrencyLimiter = adaptiveConcurrency != null ? new ConcurrencyLimiter(adaptiveConcurrency) : null;
+        final CircuitBreakerConfiguration circuitBreakerConfiguration = options.getCircuitBreaker();
+        this.circuitBreaker = circuitBreakerConfiguration != null
+                ? new CircuitBreaker(circuitBreakerConfiguration)
+                : null;
+        this.creationExecutor = options.getCreationExecutor();
+        final IdempotencyConfiguration idempotency = options.getIdempotency();
+        this.idempotencyIndex = idempotency != null ? new IdempotencyIndex(idempotency) : null;
+        final CoalescingConfiguration coalescing = options.getCoalescing();
+        this.coalescer = coalescing != null ? new EnvelopeCoalescer(coalescing, executor, this::enqueue) : null;
+        final OutboxConfiguration outboxConfiguration = options.getOutbox();
+        try {
+            this.outbox = outboxConfiguration != null ? OutboxJournal.open(outboxConfiguration) : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the outbox in " + outboxConfiguration.getDirectory(), e);
+        }
+        this.initialWarmUp = startWarmUp();
     }
 
     /**
@@ -160,6 +426,60 @@ public class SmtpAuthEmailSender implements EmailSender {
         return properties;
     }
 
+    /**
+     * Creates the {@link SSLContext} that secures connections if {@link SmtpSenderOptions#getTls()} is configured.
+     * The sender sizes the session cache of the returned context as configured and uses the context for all of its
+     * connections. The default implementation returns a new context with the default key and trust managers of the
+     * JVM.
+     * <p>
+     * This method may be overridden to customize TLS, e.g. to trust self-signed certificates in test setups. It is
+     * invoked by the {@link #SmtpAuthEmailSender(SmtpConfiguration, Executor, int, SmtpSenderOptions)} constructor.
+     *
+     * @param tls the TLS configuration of this sender
+     * @return an initialized context
+     * @throws IllegalStateException if the context could not be created
+     */
+    @Nonnull
+    protected SSLContext createSslContext(@Nonnull final TlsConfiguration tls) {
+        try {
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to create the TLS context", e);
+        }
+    }
+
+    /**
+     * Sizes the session cache of the given context and makes the Java Mail API use the context instead of the default
+     * one of the JVM.
+     *
+     * @param properties        the properties created by {@link #createProperties(SmtpConfiguration, int)}
+     * @param tls               the TLS configuration of this sender
+     * @param context           the context to secure connections with
+     * @param transportSecurity either {@link SmtpConfiguration.TransportSecurity#SSL_TLS} or
+     *                          {@link SmtpConfiguration.TransportSecurity#STARTTLS}
+     */
+    private static void configureTls(@Nonnull final Properties properties, @Nonnull final TlsConfiguration tls,
+                                     @Nonnull final SSLContext context,
+                                     @Nonnull final SmtpConfiguration.TransportSecurity transportSecurity) {
+        final SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(tls.getSessionCacheSize());
+        sessions.setSessionTimeout(tls.getSessionTimeoutSeconds());
+        if (transportSecurity == SmtpConfiguration.TransportSecurity.SSL_TLS) {
+            // Socket factory instances take precedence over classes, which can only provide the default context
+            properties.remove("mail.smtp.socketFactory.class");
+            properties.put("mail.smtp.socketFactory", context.getSocketFactory());
+        }
+        properties.put("mail.smtp.ssl.socketFactory", context.getSocketFactory());
+        if (tls.getProtocols() != null) {
+            properties.setProperty("mail.smtp.ssl.protocols", String.join(" ", tls.getProtocols()));
+        }
+        if (tls.getCipherSuites() != null) {
+            properties.setProperty("mail.smtp.ssl.ciphersuites", String.join(" ", tls.getCipherSuites()));
+        }
+    }
+
     /**
      * This method does nothing by default but may be overridden to customize the configuration of the Java Mail API
      * used by this e-mail sender. The method receives as argument the configuration of the Java Mail API
@@ -193,23 +513,325 @@ public class SmtpAuthEmailSender implements EmailSender {
     @Override
     @Nonnull
     public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor) {
-        final MimeMessage message = createAndFillMessage(messageEditor);
+        return send(messageEditor, SendOptions.defaults());
+    }
+
+    /**
+     * Creates the message and adds it to the send queue with the priority given in the options. If the queue does not
+     * accept the message, the returned stage is completed with an {@link EmailRejectedException}; depending on the
+     * {@link SendQueueConfiguration.OverloadPolicy} this method may block before. With an outbox, the message is
+     * written to the outbox before this method returns, and the returned stage is completed with an
+     * {@link EmailRejectedException} if that fails.
+     * <p>
+     * If {@link SmtpSenderOptions#getCreationExecutor()} is configured, the message is created within that executor
+     * instead, and this method returns without waiting for the message editor, the send queue or the outbox. Then
+     * {@link EmailCreationException}s are not thrown but contained in the returned stage, and the stage is completed
+     * with an {@link EmailRejectedException} if that executor rejects the message.
+     * <p>
+     * If {@link SmtpSenderOptions#getIdempotency()} is configured and the options have an idempotency key that has been
+     * used recently, neither the message editor is invoked nor is a message sent; the returned stage completes like the
+     * one returned for the original e-mail.
+     * <p>
+     * If the options have a {@link SendOptions#getTimeoutMs() timeout}, the returned stage is completed once it
+     * elapses: with an {@link EmailRejectedException} if the message is dropped without being transferred, or with an
+     * {@link EmailDeliveryException} if its transfer has already started, in which case it may still be delivered.
+     * Cancelling the returned stage drops the message immediately, unless its transfer has already started.
+     *
+     * @param messageEditor the editor that fills the message
+     * @param options       how to send this e-mail
+     * @return a completion stage like the one returned by {@link #send(MessageEditor)}
+     * @throws EmailCreationException if there was an error while creating or filling the message
+     */
+    @Override
+    @Nonnull
+    public CompletionStage<String> send(@Nonnull final MessageEditor messageEditor,
+                                        @Nonnull final SendOptions options) {
+        final long start = System.nanoTime();
         final CompletableFuture<String> result = new CompletableFuture<>();
-        executor.execute(() -> {
+        final String idempotencyKey = options.getIdempotencyKey();
+        if (idempotencyIndex != null && idempotencyKey != null) {
+            final CompletableFuture<String> original = idempotencyIndex.putIfAbsent(idempotencyKey, result);
+            if (original != null) {
+                return original.thenApply(Function.identity());
+            }
+            result.whenComplete((messageId, throwable) -> {
+                if (throwable != null) {
+                    idempotencyIndex.remove(idempotencyKey, result);
+                }
+            });
+        }
+        final SendQueue.TransferState transfer = new SendQueue.TransferState();
+        if (options.getTimeoutMs() > 0) {
+            expireAfter(result, transfer, options.getTimeoutMs());
+        }
+        if (creationExecutor == null) {
+            final MimeMessage message;
             try {
-                sendMessage(message);
-                result.complete(message.getMessageID());
-            } catch (final Throwable t) {//IDE may warn about this, but if fatals are not in the result, it might hang forever
-                EmailDeliveryException wrapper = new EmailDeliveryException("Failed to send e-mail", t);
-                result.completeExceptionally(wrapper);
+                message = createAndRecord(messageEditor, start);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                throw e;
             }
-        });
+            accept(message, options.getPriority(), result, transfer, start);
+            return result;
+        }
+        try {
+            creationExecutor.execute(() -> {
+                if (result.isDone()) {
+                    return;// cancelled or expired while waiting for the creation executor
+                }
+                final MimeMessage message;
+                try {
+                    message = createAndRecord(messageEditor, start);
+                } catch (final Throwable t) {//see sendNext() on why Throwable is caught
+                    result.completeExceptionally(t);
+                    return;
+                }
+                accept(message, options.getPriority(), result, transfer, start);
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new EmailRejectedException("The creation executor rejected the e-mail", e));
+        }
         return result;
     }
 
+    /**
+     * Writes a created message to the outbox, if any, and adds it to the send queue.
+     *
+     * @param message  the message that is ready for being sent
+     * @param priority the urgency of the message
+     * @param result   the result of the message
+     * @param transfer whether the transfer of the message has started
+     * @param start    when sending started, see {@link System#nanoTime()}
+     */
+    private void accept(@Nonnull final MimeMessage message, @Nonnull final EmailPriority priority,
+                        @Nonnull final CompletableFuture<String> result,
+                        @Nonnull final SendQueue.TransferState transfer, final long start) {
+        recordCompletion(result, start);
+        if (result.isDone()) {
+            return;// cancelled or expired while the message was created
+        }
+        if (circuitBreaker != null && circuitBreaker.isRejecting()) {
+            result.completeExceptionally(circuitOpen());
+            return;
+        }
+        if (outbox != null) {
+            final OutboxJournal.Record record;
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                message.writeTo(bytes);
+                record = outbox.append(bytes.toByteArray(), priority);
+            } catch (IOException | MessagingException e) {
+                result.completeExceptionally(new EmailRejectedException("Failed to write e-mail to the outbox", e));
+                return;
+            }
+            result.whenComplete((messageId, throwable) -> outbox.done(record));
+        }
+        final SendQueue.Entry entry = new SendQueue.Entry(message, priority, result, transfer);
+        if (coalescer != null) {
+            coalescer.add(entry);
+        } else {
+            enqueue(entry);
+        }
+    }
+
+    /**
+     * Completes the result of a message once the timeout elapses, unless the result has completed before. A message
+     * whose transfer has not started is dropped and completes with an {@link EmailRejectedException}. A message whose
+     * transfer has started may still be delivered, so it completes with an {@link EmailDeliveryException} that must
+     * not be taken as a reason to send the message again right away. The result is completed within the
+     * {@link Executor}, because its dependent actions must not run on the scheduler thread.
+     *
+     * @param result    the result of the message
+     * @param transfer  whether the transfer of the message has started
+     * @param timeoutMs the timeout of the message, see {@link SendOptions#getTimeoutMs()}
+     */
+    private void expireAfter(@Nonnull final CompletableFuture<String> result,
+                             @Nonnull final SendQueue.TransferState transfer, final long timeoutMs) {
+        final Runnable expire = () -> result.completeExceptionally(transfer.drop()
+                ? new EmailRejectedException("The e-mail was not sent within its timeout of " + timeoutMs + "ms")
+                : new EmailDeliveryException("The e-mail was not sent within its timeout of " + timeoutMs
+                        + "ms, but its transfer has started and it may still be delivered"));
+        final ScheduledFuture<?> expiry = DaemonScheduler.get().schedule(() -> {
+            try {
+                executor.execute(expire);
+            } catch (RejectedExecutionException e) {
+                expire.run();
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((messageId, throwable) -> expiry.cancel(false));
+    }
+
+    /**
+     * Sends the messages that were in the outbox when this sender was created, because they had not been handled
+     * before the JVM stopped. This method should be invoked once after the sender has been created; later invocations
+     * return an empty list. Messages that are rejected by the send queue or the {@link Executor} remain in the outbox
+     * until the sender is created again.
+     *
+     * @return one completion stage per message from the outbox, in the order they were originally sent
+     */
+    @Nonnull
+    public List<CompletionStage<String>> replayOutbox() {
+        if (outbox == null) {
+            return Collections.emptyList();
+        }
+        final List<CompletionStage<String>> results = new ArrayList<>();
+        for (final OutboxJournal.Record record : outbox.takeRecovered()) {
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            results.add(result);
+            recordCompletion(result, System.nanoTime());
+            final MimeMessage message;
+            try {
+                message = new MimeMessage(session, new ByteArrayInputStream(record.getBytes()));
+            } catch (MessagingException e) {
+                outbox.done(record);
+                result.completeExceptionally(new EmailCreationException("Failed to read e-mail from the outbox", e));
+                continue;
+            }
+            result.whenComplete((messageId, throwable) -> {
+                if (!(throwable instanceof EmailRejectedException)) {
+                    outbox.done(record);
+                }
+            });
+            enqueue(new SendQueue.Entry(message, record.getPriority(), result));
+        }
+        return results;
+    }
+
+    /**
+     * Creates a message like {@link #createAndFillMessage(MessageEditor)} and reports the duration or the failure.
+     *
+     * @param messageEditor the editor that fills the message
+     * @param start         when sending started, see {@link System#nanoTime()}
+     * @return the message that is ready for being sent
+     * @throws EmailCreationException if there was an error while creating or filling the message
+     */
+    private MimeMessage createAndRecord(@Nonnull final MessageEditor messageEditor, final long start) {
+        try {
+            final MimeMessage message = createAndFillMessage(messageEditor);
+            metrics.recordPhase(SendPhase.CREATE, System.nanoTime() - start);
+            return message;
+        } catch (RuntimeException e) {
+            metrics.recordFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Reports the outcome and the total duration of sending a message once its result completes.
+     *
+     * @param result the result of the message
+     * @param start  when sending started, see {@link System#nanoTime()}
+     */
+    private void recordCompletion(@Nonnull final CompletableFuture<String> result, final long start) {
+        if (metrics == NO_METRICS) {
+            return;
+        }
+        result.whenComplete((messageId, throwable) -> {
+            metrics.recordPhase(SendPhase.TOTAL, System.nanoTime() - start);
+            if (throwable == null) {
+                metrics.recordSuccess();
+            } else {
+                metrics.recordFailure(throwable);
+            }
+        });
+    }
+
+    /**
+     * Adds a message to the send queue and schedules a task that sends a message. Completes the result of the message
+     * with an {@link EmailRejectedException} if the message is not accepted.
+     *
+     * @param entry the message to send
+     */
+    private void enqueue(@Nonnull final SendQueue.Entry entry) {
+        try {
+            sendQueue.add(entry);
+        } catch (EmailRejectedException e) {
+            entry.result.completeExceptionally(e);
+            return;
+        }
+        metrics.recordQueueDepth(sendQueue.size());
+        metrics.recordQueueDepth(entry.priority, sendQueue.size(entry.priority));
+        submit(entry);
+    }
+
+    /**
+     * Schedules a task that sends whichever message is first in the send queue when the task runs. There is one task
+     * per queued message, which may be parked while the rate limits or the adaptive concurrency limit do not permit
+     * another message.
+     *
+     * @param entry the message that the task has been scheduled for, which is rejected if the {@link Executor} rejects
+     *              the task, or {@code null} if any message may be rejected
+     */
+    private void submit(@Nullable final SendQueue.Entry entry) {
+        try {
+            executor.execute(this::sendNext);
+        } catch (RejectedExecutionException e) {
+            // One task less, so one message less; it may be another one if the task of another message was faster
+            final SendQueue.Entry rejected = entry != null && sendQueue.remove(entry) ? entry : sendQueue.poll();
+            if (rejected != null) {
+                rejected.result.completeExceptionally(new EmailRejectedException("The executor rejected the e-mail", e));
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of messages over as few SMTP connections as possible. All messages are created before this method
+     * returns. Without a connection pool, the whole batch is sent over a single connection in one task of the
+     * {@link Executor}. With a connection pool, up to {@link SmtpConnectionPoolConfiguration#getMaxConnections()}
+     * tasks share the batch, each of them sending messages over one pooled connection until the batch is exhausted.
+     * If a message is rejected by the SMTP server, the connection is reset and used for the remaining messages. If the
+     * {@link Executor} rejects all tasks, the messages complete their stage with an {@link EmailRejectedException}.
+     * <p>
+     * Note that {@link #sendMessage(MimeMessage)} is not invoked for messages sent with this method, that the
+     * messages of a batch do not pass the send queue, unless they are retried, and that they are not written to the
+     * outbox, so they are lost if the JVM stops before they are sent.
+     *
+     * @param messageEditors the editors that fill one message each
+     * @return one completion stage per editor, see {@link EmailSender#sendAll(Collection)}
+     */
+    @Override
+    @Nonnull
+    public List<CompletionStage<String>> sendAll(@Nonnull final Collection<? extends MessageEditor> messageEditors) {
+        final List<CompletionStage<String>> results = new ArrayList<>(messageEditors.size());
+        final Queue<SendQueue.Entry> batch = new ConcurrentLinkedQueue<>();
+        for (final MessageEditor messageEditor : messageEditors) {
+            final long start = System.nanoTime();
+            final CompletableFuture<String> result = new CompletableFuture<>();
+            try {
+                batch.add(new SendQueue.Entry(createAndRecord(messageEditor, start), EmailPriority.NORMAL, result));
+                recordCompletion(result, start);
+            } catch (EmailCreationException e) {
+                result.completeExceptionally(e);
+            }
+            results.add(result);
+        }
+        final int maxConnections = connectionPool != null ? connectionPool.getMaxConnections() : 1;
+        final int workers = Math.min(maxConnections, batch.size());
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(() -> sendBatch(batch));
+            } catch (RejectedExecutionException e) {
+                if (i == 0) {// otherwise the tasks that have been started send the whole batch
+                    final EmailRejectedException rejected = new EmailRejectedException(
+                            "The executor rejected the e-mail", e);
+                    SendQueue.Entry entry;
+                    while ((entry = batch.poll()) != null) {
+                        entry.result.completeExceptionally(rejected);
+                    }
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
     /**
      * Creates a new {@link MimeMessage} and passes it to the given {@link MessageEditor} that fills the message.
      * <p>
+     * Messages for a {@link MessageTemplate.Editor} are created from the encoded template instead, and only the
+     * editor of the e-mail is invoked.
+     * <p>
      * This method may be overridden to customize message creation; it is invoked by {@link #send(MessageEditor)}.
      *
      * @param messageEditor the editor that will be used to fill the empty message created by this method
@@ -218,7 +840,10 @@ public class SmtpAuthEmailSender implements EmailSender {
      */
     protected MimeMessage createAndFillMessage(@Nonnull final MessageEditor messageEditor) {
         try {
-            MimeMessage message = new MimeMessage(session);
+            if (messageEditor instanceof MessageTemplate.Editor) {
+                return ((MessageTemplate.Editor) messageEditor).createMessage(session);
+            }
+            final MimeMessage message = new MimeMessage(session);
             messageEditor.edit(message);
             return message;
         } catch (Exception e) {
@@ -231,15 +856,467 @@ public class SmtpAuthEmailSender implements EmailSender {
      * <p>
      * This method may be overridden to customize message sending; it is invoked by {@link #send(MessageEditor)}.
      * <p>
-     * The implementation of this method uses {@link Transport#send(Message)}, which uses the {@link Session}
-     * configuration from the given message and utilizes one SMTP connection per message. This approach avoids tracking
-     * connection state.
+     * Without a connection pool, the implementation of this method uses {@link Transport#send(Message)}, which uses
+     * the {@link Session} configuration from the given message and utilizes one SMTP connection per message. This
+     * approach avoids tracking connection state. With a connection pool, the message is transferred over a pooled
+     * connection; after a failed transaction the connection is reset with an SMTP {@code RSET} command and reused.
      *
      * @param message the edited message that is ready for being sent
      * @throws MessagingException may be raised while sending the message. This method does not handle exceptions.
      *                            Exceptions are handled by the invoking {@link #sendMessage(MimeMessage)} method.
      */
     protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
-        Transport.send(message);
+        if (connectionPool == null) {
+            Transport.send(message);
+            return;
+        }
+        final Address[] recipients = prepareForSending(message);
+        final SmtpConnectionPool.PooledConnection connection = connectionPool.borrow();
+        boolean reusable = false;
+        try {
+            connection.send(message, recipients);
+            reusable = true;
+        } catch (MessagingException e) {
+            reusable = connection.reset();
+            throw e;
+        } finally {
+            connectionPool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Sends the first message of the send queue.
+     */
+    private void sendNext() {
+        if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+            return;// the message stays queued, and the task is submitted again once a transfer completes
+        }
+        if (rateLimiter != null) {
+            if (sendQueue.size() == 0) {
+                // A surplus task, e.g. of a message that expired while queued, must not use up a token
+                if (concurrencyLimiter != null) {
+                    unpark(concurrencyLimiter.release());
+                }
+                return;
+            }
+            final long waitNanos = rateLimiter.tryAcquire();
+            if (waitNanos > 0) {
+                if (rateLimiter.isWithinMaxDelay(waitNanos)) {
+                    // The message stays queued, so that it can still be overtaken by messages of a higher priority
+                    parkForRateLimit(waitNanos);
+                } else {
+                    rejectNext();
+                }
+                if (concurrencyLimiter != null) {
+                    unpark(concurrencyLimiter.release());
+                }
+                return;
+            }
+        }
+        final SendQueue.Entry entry = sendQueue.poll();
+        if (rateLimiter != null && rateParkedTasks.get() > 0) {
+            final long nextWaitNanos = rateLimiter.nanosUntilAvailable();
+            rejectOverdue(nextWaitNanos);
+            scheduleRateWakeUp(nextWaitNanos);
+        }
+        if (entry == null || !entry.transfer.start()) {// dropped because its timeout elapsed
+            if (concurrencyLimiter != null) {
+                unpark(concurrencyLimiter.release());
+            }
+            return;
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            entry.result.completeExceptionally(circuitOpen());
+            if (concurrencyLimiter != null) {
+                unpark(concurrencyLimiter.release());
+            }
+            return;
+        }
+        final long waitNanos = System.nanoTime() - entry.enqueuedNanos;
+        metrics.recordPhase(SendPhase.QUEUE, waitNanos);
+        metrics.recordQueueWait(entry.priority, waitNanos);
+        metrics.recordQueueDepth(sendQueue.size());
+        metrics.recordQueueDepth(entry.priority, sendQueue.size(entry.priority));
+        try {
+            if (rateLimiter != null) {
+                rateLimiter.takeRecipients(countRecipients(entry.message));
+            }
+            entry.attempts++;
+            final long transferStart = System.nanoTime();
+            sendMessage(entry.message);
+            final String messageId = entry.message.getMessageID();
+            recordCircuitOutcome(null);
+            if (concurrencyLimiter != null) {
+                unpark(concurrencyLimiter.releaseSucceeded(System.nanoTime() - transferStart));
+            }
+            entry.result.complete(messageId);
+        } catch (final Throwable t) {//IDE may warn about this, but if fatals are not in the result, it might hang forever
+            recordCircuitOutcome(t);
+            if (concurrencyLimiter != null) {
+                unpark(SmtpFailures.classify(t).isPermanent()
+                        ? concurrencyLimiter.release()
+                        : concurrencyLimiter.releaseOverloaded());
+            }
+            handleFailure(entry, t);
+        }
+    }
+
+    /**
+     * Records the outcome of a transfer that the circuit breaker, if any, permitted.
+     *
+     * @param failure the reason the transfer failed, or {@code null} if it succeeded
+     */
+    private void recordCircuitOutcome(@Nullable final Throwable failure) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (failure != null && SmtpFailures.isServerFailure(failure)) {
+            circuitBreaker.recordFailure();
+        } else {
+            circuitBreaker.recordSuccess();// the server works, e.g. it rejected a recipient
+        }
+    }
+
+    private static CircuitOpenException circuitOpen() {
+        return new CircuitOpenException("The circuit breaker is open because the SMTP server failed recently");
+    }
+
+    /**
+     * Submits the tasks again that have been parked by the concurrency limit.
+     *
+     * @param tasks the number of tasks to submit
+     */
+    private void unpark(final int tasks) {
+        for (int i = 0; i < tasks; i++) {
+            submit(null);
+        }
+    }
+
+    /**
+     * Completes the result of a message that could not be sent, or schedules another attempt if the failure is
+     * temporary and the message has attempts left.
+     *
+     * @param entry   the message that could not be sent
+     * @param failure the reason
+     */
+    private void handleFailure(@Nonnull final SendQueue.Entry entry, @Nonnull final Throwable failure) {
+        final EmailDeliveryException classified = SmtpFailures.classify(failure);
+        if (retry == null || classified.isPermanent() || entry.attempts >= retry.getMaxAttempts()) {
+            entry.result.completeExceptionally(classified);
+            return;
+        }
+        final long backoffMs = ThreadLocalRandom.current().nextLong(retry.getBackoffBoundMs(entry.attempts) + 1);
+        // Adding to the send queue may block, so it must not happen on the scheduler thread
+        DaemonScheduler.get().schedule(() -> {
+            try {
+                executor.execute(() -> requeue(entry, classified));
+            } catch (RejectedExecutionException e) {
+                classified.addSuppressed(e);
+                entry.result.completeExceptionally(classified);
+            }
+        }, backoffMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a message to the send queue again for another attempt.
+     *
+     * @param entry   the message to attempt again
+     * @param failure the reason the last attempt failed, which completes the result if the queue is full
+     */
+    private void requeue(@Nonnull final SendQueue.Entry entry, @Nonnull final EmailDeliveryException failure) {
+        if (entry.result.isDone()) {
+            return;// cancelled or expired while waiting for the next attempt
+        }
+        try {
+            sendQueue.add(entry);
+        } catch (EmailRejectedException e) {
+            failure.addSuppressed(e);
+            entry.result.completeExceptionally(failure);
+            return;
+        }
+        submit(entry);
+    }
+
+    /**
+     * Parks the calling task until the rate limits permit a message: the task ends, its message stays queued, and the
+     * task is submitted again by a wake-up.
+     *
+     * @param waitNanos the time until the rate limits permit the next message
+     */
+    private void parkForRateLimit(final long waitNanos) {
+        rateParkedTasks.incrementAndGet();
+        rejectOverdue(waitNanos);
+        scheduleRateWakeUp(waitNanos);
+    }
+
+    /**
+     * Rejects the queued messages that cannot be permitted by the rate limits within the maximum delay counted from
+     * when they were queued, each together with a parked task.
+     *
+     * @param waitNanos the time until the rate limits permit the next message
+     */
+    private void rejectOverdue(final long waitNanos) {
+        final long deadlineNanos = System.nanoTime() + waitNanos - rateLimiter.getMaxDelayNanos();
+        for (final SendQueue.Entry overdue : sendQueue.pollEnqueuedBefore(deadlineNanos)) {
+            rateParkedTasks.getAndUpdate(tasks -> Math.max(0, tasks - 1));
+            overdue.result.completeExceptionally(new EmailRejectedException("The rate limit does not permit the "
+                    + "e-mail to be sent within the maximum delay"));
+        }
+    }
+
+    /**
+     * Schedules the wake-up of a task parked by the rate limits, unless no task is parked or a wake-up has been
+     * scheduled already. Each woken task that is permitted a message schedules the next wake-up.
+     *
+     * @param delayNanos the time until the rate limits permit the next message
+     */
+    private void scheduleRateWakeUp(final long delayNanos) {
+        if (rateParkedTasks.get() > 0 && rateWakeUpScheduled.compareAndSet(false, true)) {
+            DaemonScheduler.get().schedule(() -> {
+                rateWakeUpScheduled.set(false);
+                if (rateParkedTasks.getAndUpdate(tasks -> Math.max(0, tasks - 1)) > 0) {
+                    submit(null);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Rejects the first message of the send queue because the rate limits do not permit it within the maximum delay.
+     */
+    private void rejectNext() {
+        final SendQueue.Entry entry = sendQueue.poll();
+        if (entry != null) {
+            entry.result.completeExceptionally(new EmailRejectedException("The rate limit does not permit the e-mail"
+                    + " to be sent within the maximum delay"));
+        }
+    }
+
+    /**
+     * Waits until the rate limits permit a message of a batch.
+     *
+     * @return {@code false} if the message is not permitted within the maximum delay
+     */
+    private boolean awaitRateLimit() {
+        if (rateLimiter == null) {
+            return true;
+        }
+        long waitNanos;
+        while ((waitNanos = rateLimiter.tryAcquire()) > 0) {
+            if (!rateLimiter.isWithinMaxDelay(waitNanos)) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countRecipients(@Nonnull final MimeMessage message) throws MessagingException {
+        final Address[] recipients = message.getAllRecipients();
+        return recipients != null ? recipients.length : 0;
+    }
+
+    /**
+     * Sends messages taken from the given batch until the batch is empty, keeping one connection open as long as
+     * the connection remains usable.
+     *
+     * @param batch the messages to send, shared by all tasks that send the same batch
+     */
+    private void sendBatch(@Nonnull final Queue<SendQueue.Entry> batch) {
+        SmtpConnectionPool.PooledConnection connection = null;
+        try {
+            SendQueue.Entry entry;
+            while ((entry = batch.poll()) != null) {
+                if (!entry.transfer.start()) {
+                    continue;// dropped because its timeout elapsed
+                }
+                if (!awaitRateLimit()) {
+                    entry.result.completeExceptionally(new EmailRejectedException("The rate limit does not permit the"
+                            + " e-mail to be sent within the maximum delay"));
+                    continue;
+                }
+                if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                    entry.result.completeExceptionally(circuitOpen());
+                    continue;
+                }
+                try {
+                    final Address[] recipients = prepareForSending(entry.message);
+                    if (rateLimiter != null) {
+                        rateLimiter.takeRecipients(recipients.length);
+                    }
+                    entry.attempts++;
+                    if (connection == null) {
+                        connection = openConnection();
+                    }
+                    connection.send(entry.message, recipients);
+                    final String messageId = entry.message.getMessageID();
+                    recordCircuitOutcome(null);
+                    entry.result.complete(messageId);
+                } catch (final Throwable t) {//see sendNext() on why Throwable is caught
+                    recordCircuitOutcome(t);
+                    handleFailure(entry, t);
+                    if (connection != null && !connection.reset()) {
+                        closeConnection(connection, false);
+                        connection = null;
+                    }
+                }
+                if (connection != null && connection.getMessageCount() >= getMaxMessagesPerConnection()) {
+                    closeConnection(connection, true);
+                    connection = null;
+                }
+            }
+        } finally {
+            if (connection != null) {
+                closeConnection(connection, true);
+            }
+        }
+    }
+
+    /**
+     * Does what {@link Transport#send(Message)} does before the message is transferred to the SMTP server.
+     *
+     * @param message the message to send
+     * @return the envelope recipients of the message
+     * @throws MessagingException if the message has no recipients or its headers could not be updated
+     */
+    private static Address[] prepareForSending(@Nonnull final MimeMessage message) throws MessagingException {
+        message.saveChanges();
+        final Address[] recipients = message.getAllRecipients();
+        if (recipients == null || recipients.length == 0) {
+            throw new SendFailedException("No recipient addresses");
+        }
+        return recipients;
+    }
+
+    /**
+     * Opens a new SMTP connection, authenticates and closes the connection again, to check that the SMTP server can
+     * be used.
+     *
+     * @throws MessagingException if the connection could not be established or authentication failed
+     */
+    void probe() throws MessagingException {
+        SmtpConnectionPool.PooledConnection.open(session).close();
+    }
+
+    private SmtpConnectionPool.PooledConnection openConnection() throws MessagingException {
+        return connectionPool != null ? connectionPool.borrow() : SmtpConnectionPool.PooledConnection.open(session);
+    }
+
+    private void closeConnection(@Nonnull final SmtpConnectionPool.PooledConnection connection, final boolean reusable) {
+        if (connectionPool != null) {
+            connectionPool.release(connection, reusable);
+        } else {
+            connection.close();
+        }
+    }
+
+    private int getMaxMessagesPerConnection() {
+        return connectionPool != null ? connectionPool.getMaxMessagesPerConnection() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Closes the pooled SMTP connections and the outbox, if any. Messages that are being sent are not affected, but
+     * their connections are closed afterwards. Messages sent after this method returns fail if a connection pool is
+     * used. Messages that have not been handled before the outbox is closed remain in the outbox, so the
+     * {@link Executor} should be shut down first.
+     */
+    @Override
+    public void close() {
+        if (coalescer != null) {
+            coalescer.flushAll();
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    /**
+     * Opens and authenticates pooled connections ahead of demand until
+     * {@link SmtpConnectionPoolConfiguration#getWarmConnections()} connections are idle. This happens when the sender
+     * is created and after idle connections have been evicted; this method may be invoked to warm up the pool at other
+     * times, e.g. before an expected peak of e-mails.
+     *
+     * @return a stage that completes with the number of connections opened, which is 0 without a connection pool or
+     * warm connections, or with an {@link EmailDeliveryException} if a connection could not be opened, or with an
+     * {@link EmailRejectedException} if the {@link Executor} rejected the warm-up
+     */
+    @Nonnull
+    public CompletionStage<Integer> warmUp() {
+        return startWarmUp();
+    }
+
+    /**
+     * Warms up the connection pool like {@link #warmUp()}, which the constructor must not invoke because subclasses
+     * may override it.
+     */
+    private CompletionStage<Integer> startWarmUp() {
+        if (connectionPool == null || connectionPool.getWarmConnections() == 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return connectionPool.warmUp();
+    }
+
+    /**
+     * @return the stage of the warm-up started when this sender was created, see {@link #warmUp()}
+     */
+    @Nonnull
+    public CompletionStage<Integer> getInitialWarmUp() {
+        return initialWarmUp;
+    }
+
+    /**
+     * @return the number of messages that may currently be transferred concurrently, or {@link Integer#MAX_VALUE} if
+     * {@link SmtpSenderOptions#getAdaptiveConcurrency()} is not configured
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter != null ? concurrencyLimiter.getLimit() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the state of the circuit breaker, which is always {@link CircuitBreakerConfiguration.State#CLOSED} if
+     * {@link SmtpSenderOptions#getCircuitBreaker()} is not configured
+     */
+    @Nonnull
+    public CircuitBreakerConfiguration.State getCircuitState() {
+        return circuitBreaker != null ? circuitBreaker.getState() : CircuitBreakerConfiguration.State.CLOSED;
+    }
+
+    /**
+     * @return the number of messages that wait to be sent
+     */
+    public int getQueuedMessageCount() {
+        return sendQueue.size();
+    }
+
+    /**
+     * @param priority the priority of the messages to count
+     * @return the number of messages with the given priority that wait to be sent
+     */
+    public int getQueuedMessageCount(@Nonnull final EmailPriority priority) {
+        return sendQueue.size(priority);
+    }
+
+    /**
+     * @return the TLS context of this sender, or {@code null} if the default context of the JVM is used
+     */
+    @Nullable
+    SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * @return the pool of SMTP connections, or {@code null} if connections are not pooled
+     */
+    @Nullable
+    SmtpConnectionPool getConnectionPool() {
+        return connectionPool;
     }
 }
@@ -0,0 +1,410 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+import com.sun.mail.smtp.SMTPTransport;
+
+import javax.annotation.Nonnull;
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of authenticated SMTP connections created from a single {@link Session}.
+ * <p>
+ * Connections are borrowed with {@link #borrow()} and must be handed back with
+ * {@link #release(PooledConnection, boolean)}. Idle connections are reused most-recently-used first, so surplus
+ * connections stay idle until they are evicted by a periodic task. With
+ * {@link SmtpConnectionPoolConfiguration#getWarmConnections()}, the same task opens connections again until that many
+ * are idle.
+ */
+final class SmtpConnectionPool implements AutoCloseable {
+
+    private final Session session;
+
+    private final SmtpConnectionPoolConfiguration configuration;
+
+    private final Executor executor;
+
+    private final long borrowTimeoutMs;
+
+    /**
+     * One permit per connection that may be in use; idle connections do not hold a permit.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The number of connections that are open, whether they are idle or in use, which warming up must not raise beyond
+     * the maximum number of connections.
+     */
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final Deque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+
+    private final AtomicLong createdConnections = new AtomicLong();
+
+    private final ScheduledFuture<?> evictionTask;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param session         the session to obtain transports from
+     * @param configuration   how connections are pooled
+     * @param executor        the executor that closes evicted connections, because closing involves I/O
+     * @param borrowTimeoutMs how long {@link #borrow()} waits for a connection if all connections are in use
+     */
+    SmtpConnectionPool(@Nonnull final Session session, @Nonnull final SmtpConnectionPoolConfiguration configuration,
+                       @Nonnull final Executor executor, final long borrowTimeoutMs) {
+        this.session = session;
+        this.configuration = configuration;
+        this.executor = executor;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.permits = new Semaphore(configuration.getMaxConnections(), true);
+        final long evictionPeriodMs = Math.max(configuration.getMaxIdleMs() / 2, 10);
+        this.evictionTask = DaemonScheduler.get().scheduleWithFixedDelay(this::scheduleEviction,
+                evictionPeriodMs, evictionPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Obtains an idle connection that passed its health check, or opens a new one if no idle connection is
+     * available and the pool is not exhausted. Blocks if all connections are in use.
+     *
+     * @return a connected transport that must be handed back with {@link #release(PooledConnection, boolean)}
+     * @throws UnavailableException if the pool has been closed or no connection became available in time
+     * @throws MessagingException   if a new connection could not be opened
+     */
+    PooledConnection borrow() throws MessagingException {
+        acquirePermit();
+        try {
+            do {
+                PooledConnection connection;
+                while ((connection = idleConnections.pollFirst()) != null) {
+                    if (isReusable(connection)) {
+                        return connection;
+                    }
+                    discard(connection);
+                }
+                if (reserveConnection()) {
+                    return open();
+                }
+                // a warm-up has just opened the last connection, which is idle now
+            } while (!idleConnections.isEmpty());
+            throw new UnavailableException("The maximum of " + configuration.getMaxConnections()
+                    + " SMTP connections is open");
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands back a borrowed connection. The connection is closed instead of being kept for reuse if it is not
+     * reusable, has transferred the maximum number of messages, or if the pool has been closed.
+     *
+     * @param connection the connection returned by {@link #borrow()}
+     * @param reusable   whether the connection is in a state that permits further transactions
+     */
+    void release(@Nonnull final PooledConnection connection, final boolean reusable) {
+        try {
+            if (reusable && !closed
+                    && connection.getMessageCount() < configuration.getMaxMessagesPerConnection()) {
+                connection.lastUsedNanos = System.nanoTime();
+                idleConnections.offerFirst(connection);
+                if (closed) {
+                    closeIdleConnections();
+                }
+            } else {
+                discard(connection);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens and authenticates connections within the executor until
+     * {@link SmtpConnectionPoolConfiguration#getWarmConnections()} connections are idle. No connections are opened while
+     * the maximum number of connections is open, counting both idle connections and connections in use.
+     *
+     * @return a stage that completes with the number of connections opened, or with an
+     * {@link com.commercetools.sunrise.email.EmailDeliveryException} if a connection could not be opened, or with an
+     * {@link EmailRejectedException} if the executor rejected the warm-up
+     */
+    CompletableFuture<Integer> warmUp() {
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(openWarmConnections());
+                } catch (final Throwable t) {//the stage must complete, or a caller waiting for it might hang forever
+                    result.completeExceptionally(SmtpFailures.classify(t));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new EmailRejectedException("The executor rejected the warm-up", e));
+        }
+        return result;
+    }
+
+    /**
+     * Closes all idle connections and prevents further reuse. Connections in use are closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictionTask.cancel(false);
+        closeIdleConnections();
+    }
+
+    /**
+     * @return the maximum number of connections that are open at the same time
+     */
+    int getMaxConnections() {
+        return configuration.getMaxConnections();
+    }
+
+    /**
+     * @return the number of messages after which a connection is replaced by a new one
+     */
+    int getMaxMessagesPerConnection() {
+        return configuration.getMaxMessagesPerConnection();
+    }
+
+    /**
+     * @return the number of idle connections that are opened ahead of demand
+     */
+    int getWarmConnections() {
+        return configuration.getWarmConnections();
+    }
+
+    /**
+     * @return the number of connections opened by this pool since its creation
+     */
+    long getCreatedConnectionCount() {
+        return createdConnections.get();
+    }
+
+    /**
+     * @return the number of connections that are currently open, whether they are idle or in use
+     */
+    int getOpenConnectionCount() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return the number of connections that are currently idle
+     */
+    int getIdleConnectionCount() {
+        return idleConnections.size();
+    }
+
+    private void acquirePermit() throws MessagingException {
+        if (closed) {
+            throw new UnavailableException("The SMTP connection pool has been closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new UnavailableException("No SMTP connection became available within " + borrowTimeoutMs + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+    }
+
+    private int openWarmConnections() throws MessagingException {
+        int opened = 0;
+        // The permit keeps borrowers from opening a connection of their own while the warm one is being opened
+        while (!closed && idleConnections.size() < configuration.getWarmConnections() && permits.tryAcquire()) {
+            try {
+                if (!reserveConnection()) {
+                    break;
+                }
+                idleConnections.offerFirst(open());
+                opened++;
+            } finally {
+                permits.release();
+            }
+        }
+        if (closed) {
+            closeIdleConnections();
+        }
+        return opened;
+    }
+
+    /**
+     * Opens a connection that has been counted with {@link #reserveConnection()} before, and stops counting it if it
+     * cannot be opened.
+     */
+    private PooledConnection open() throws MessagingException {
+        final PooledConnection connection;
+        try {
+            connection = PooledConnection.open(session);
+        } catch (MessagingException | RuntimeException e) {
+            openConnections.decrementAndGet();
+            throw e;
+        }
+        createdConnections.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Counts a connection that is about to be opened, unless the maximum number of connections is open already.
+     *
+     * @return whether the connection may be opened
+     */
+    private boolean reserveConnection() {
+        int open;
+        do {
+            open = openConnections.get();
+            if (open >= configuration.getMaxConnections()) {
+                return false;
+            }
+        } while (!openConnections.compareAndSet(open, open + 1));
+        return true;
+    }
+
+    private void discard(@Nonnull final PooledConnection connection) {
+        openConnections.decrementAndGet();
+        connection.close();
+    }
+
+    private boolean isReusable(@Nonnull final PooledConnection connection) {
+        final long idleMs = connection.getIdleMs();
+        if (idleMs >= configuration.getMaxIdleMs()
+                || connection.getMessageCount() >= configuration.getMaxMessagesPerConnection()) {
+            return false;
+        }
+        // Transport.isConnected() issues a NOOP command for SMTP transports
+        return idleMs < configuration.getValidationIntervalMs() || connection.transport.isConnected();
+    }
+
+    private void scheduleEviction() {
+        try {
+            executor.execute(this::evictIdleConnections);
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down, idle connections are going to be dropped by the server
+        }
+    }
+
+    private void evictIdleConnections() {
+        for (final PooledConnection connection : idleConnections) {
+            if (connection.getIdleMs() >= configuration.getMaxIdleMs() && idleConnections.remove(connection)) {
+                discard(connection);
+            }
+        }
+        if (configuration.getWarmConnections() > 0) {
+            try {
+                openWarmConnections();
+            } catch (MessagingException | RuntimeException e) {
+                // Connections are opened on demand, and the next eviction tries to open them ahead of demand again
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Signals that the pool did not provide a connection, because all connections stayed in use or the pool has been
+     * closed. This is back-pressure rather than a failure of the SMTP server or of the e-mail.
+     */
+    static final class UnavailableException extends MessagingException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnavailableException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An authenticated transport owned by a {@link SmtpConnectionPool}.
+     */
+    static final class PooledConnection {
+
+        private final Transport transport;
+
+        private int messageCount = 0;
+
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private PooledConnection(@Nonnull final Transport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * Opens an authenticated connection that is not owned by a pool and needs to be closed with
+         * {@link #close()}.
+         *
+         * @param session the session to obtain the transport from
+         * @return the connection
+         * @throws MessagingException if the connection could not be opened
+         */
+        static PooledConnection open(@Nonnull final Session session) throws MessagingException {
+            final Transport transport = session.getTransport("smtp");
+            transport.connect();
+            return new PooledConnection(transport);
+        }
+
+        /**
+         * Transfers a message for which {@link MimeMessage#saveChanges()} has been invoked.
+         *
+         * @param message    the message to send
+         * @param recipients the envelope recipients
+         * @throws MessagingException if the SMTP server rejects the message or the connection fails
+         */
+        void send(@Nonnull final MimeMessage message, @Nonnull final Address[] recipients) throws MessagingException {
+            messageCount++;
+            transport.sendMessage(message, recipients);
+        }
+
+        /**
+         * Aborts the current mail transaction with an SMTP {@code RSET} command, so the connection may be reused
+         * after a failed transaction.
+         *
+         * @return whether the connection may be reused
+         */
+        boolean reset() {
+            if (!(transport instanceof SMTPTransport)) {
+                return false;
+            }
+            try {
+                return ((SMTPTransport) transport).simpleCommand("RSET") == 250;
+            } catch (MessagingException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        int getMessageCount() {
+            return messageCount;
+        }
+
+        private long getIdleMs() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos);
+        }
+
+        void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // The connection is discarded anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.commercetools.sunrise.email.smtp;
+
+/**
+ * Instances of this class specify how an {@link SmtpAuthEmailSender} keeps authenticated SMTP connections open for
+ * reuse instead of connecting to the SMTP server once per e-mail.
+ * <p>
+ * A pooled connection is reused until it has been idle for longer than {@link #getMaxIdleMs()}, until it has
+ * transferred {@link #getMaxMessagesPerConnection()} messages, or until the SMTP server closes it. Connections that
+ * have been idle for at least {@link #getValidationIntervalMs()} are checked with an SMTP {@code NOOP} command before
+ * they are reused.
+ * <p>
+ * If {@link #getWarmConnections()} is positive, the pool opens and authenticates that many connections ahead of
+ * demand when the sender is created, and again whenever idle connections have been evicted, so that e-mails do not wait
+ * for connecting, the TLS handshake and authentication.
+ *
+ * @see SmtpSenderOptions.Builder#connectionPool(SmtpConnectionPoolConfiguration)
+ */
+public class SmtpConnectionPoolConfiguration {
+
+    private final int maxConnections;
+
+    private final long maxIdleMs;
+
+    private final int maxMessagesPerConnection;
+
+    private final long validationIntervalMs;
+
+    private final int warmConnections;
+
+    /**
+     * Create a configuration for a pool of SMTP connections.
+     *
+     * @param maxConnections           the maximum number of connections that are open at the same time, i.e. the
+     *                                 number of messages that may be transferred concurrently
+     * @param maxIdleMs                the time in milliseconds after which an unused connection is closed. SMTP
+     *                                 servers commonly drop idle clients after a few minutes, so this value should be
+     *                                 lower than the idle timeout of the SMTP server.
+     * @param maxMessagesPerConnection the number of messages after which a connection is closed and replaced by a new
+     *                                 one. Many SMTP servers limit the number of messages per connection.
+     * @param validationIntervalMs     connections that have been idle for at least this time in milliseconds are
+     *                                 checked with a {@code NOOP} command before reuse, 0 checks every connection
+     */
+    public SmtpConnectionPoolConfiguration(final int maxConnections, final long maxIdleMs,
+                                           final int maxMessagesPerConnection, final long validationIntervalMs) {
+        this(maxConnections, maxIdleMs, maxMessagesPerConnection, validationIntervalMs, 0);
+    }
+
+    /**
+     * Create a configuration for a pool of SMTP connections that are opened ahead of demand.
+     *
+     * @param maxConnections           the maximum number of connections that are open at the same time, see
+     *                                 {@link #SmtpConnectionPoolConfiguration(int, long, int, long)}
+     * @param maxIdleMs                the time in milliseconds after which an unused connection is closed
+     * @param maxMessagesPerConnection the number of messages after which a connection is replaced by a new one
+     * @param validationIntervalMs     the idle time in milliseconds after which a connection is checked before reuse
+     * @param warmConnections          the number of idle connections that are opened and authenticated ahead of
+     *                                 demand, at most {@code maxConnections}, 0 opens connections on demand only
+     */
+    public SmtpConnectionPoolConfiguration(final int maxConnections, final long maxIdleMs,
+                                           final int maxMessagesPerConnection, final long validationIntervalMs,
+                                           final int warmConnections) {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("At least one connection is required: " + maxConnections);
+        if (maxIdleMs < 1)
+            throw new IllegalArgumentException("The maximum idle time must be positive: " + maxIdleMs);
+        if (maxMessagesPerConnection < 1)
+            throw new IllegalArgumentException("At least one message per connection is required: " + maxMessagesPerConnection);
+        if (validationIntervalMs < 0)
+            throw new IllegalArgumentException("The validation interval must not be negative: " + validationIntervalMs);
+        if (warmConnections < 0 || warmConnections > maxConnections)
+            throw new IllegalArgumentException("The number of warm connections must be between 0 and the maximum "
+                    + "number of connections: " + warmConnections);
+        this.maxConnections = maxConnections;
+        this.maxIdleMs = maxIdleMs;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.validationIntervalMs = validationIntervalMs;
+        this.warmConnections = warmConnections;
+    }
+
+    /**
+     * @return the maximum number of connections that are open at the same time
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return the time in milliseconds after which an unused connection is closed
+     */
+    public long getMaxIdleMs() {
+        return maxIdleMs;
+    }
+
+    /**
+     * @return the number of messages after which a connection is replaced by a new one
+     */
+    public int getMaxMessagesPerConnection() {
+        return maxMessagesPerConnection;
+    }
+
+    /**
+     * @return the idle time in milliseconds after which a connection is checked before reuse
+     */
+    public long getValidationIntervalMs() {
+        return validationIntervalMs;
+    }
+
+    /**
+     * @return the number of idle connections that are opened and authenticated ahead of demand
+     */
+    public int getWarmConnections() {
+        return warmConnections;
+    }
+}
@@ -0,0 +1,142 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.util.MailConnectException;
+
+import javax.annotation.Nonnull;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Classifies why sending an e-mail failed. Failures caused by a reply of the SMTP server are temporary for 4xx reply
+ * codes and permanent for 5xx reply codes. Otherwise connection and I/O failures are temporary, as are failures to
+ * obtain a connection from the pool, and all other failures, e.g. malformed addresses, are permanent.
+ */
+final class SmtpFailures {
+
+    private SmtpFailures() {
+    }
+
+    /**
+     * @param failure the reason sending an e-mail failed
+     * @return an exception that wraps the failure and tells whether it is permanent; the failure itself if it is an
+     * {@link EmailDeliveryException} already
+     */
+    static EmailDeliveryException classify(@Nonnull final Throwable failure) {
+        if (failure instanceof EmailDeliveryException) {
+            return (EmailDeliveryException) failure;
+        }
+        final int replyCode = replyCodeOf(failure);
+        final boolean permanent = replyCode != EmailDeliveryException.NO_REPLY_CODE
+                ? replyCode >= 500
+                : !isConnectionFailure(failure) && !isPoolUnavailable(failure);
+        return new EmailDeliveryException("Failed to send e-mail", failure, replyCode, permanent);
+    }
+
+    /**
+     * @param failure the reason sending an e-mail failed
+     * @return the first 4xx or 5xx reply code in the chain of causes, or {@link EmailDeliveryException#NO_REPLY_CODE}
+     */
+    static int replyCodeOf(@Nonnull final Throwable failure) {
+        for (final Throwable cause : causesOf(failure)) {
+            final int code;
+            if (cause instanceof SMTPSendFailedException) {
+                code = ((SMTPSendFailedException) cause).getReturnCode();
+            } else if (cause instanceof SMTPAddressFailedException) {
+                code = ((SMTPAddressFailedException) cause).getReturnCode();
+            } else if (cause instanceof SMTPSenderFailedException) {
+                code = ((SMTPSenderFailedException) cause).getReturnCode();
+            } else if (cause instanceof AuthenticationFailedException) {
+                code = parseReplyCode(cause.getMessage());
+            } else {
+                continue;
+            }
+            if (code >= 400 && code < 600) {
+                return code;
+            }
+        }
+        return EmailDeliveryException.NO_REPLY_CODE;
+    }
+
+    /**
+     * @param failure the reason sending an e-mail failed
+     * @return whether the SMTP server could not be connected to or the connection failed, in which case an
+     * {@link AuthenticationFailedException} without reply code is not a connection failure
+     */
+    static boolean isConnectionFailure(@Nonnull final Throwable failure) {
+        for (final Throwable cause : causesOf(failure)) {
+            if (cause instanceof AuthenticationFailedException) {
+                return false;
+            }
+            if (cause instanceof MailConnectException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param failure the reason sending an e-mail failed
+     * @return whether the connection pool did not provide a connection, see
+     * {@link SmtpConnectionPool.UnavailableException}
+     */
+    static boolean isPoolUnavailable(@Nonnull final Throwable failure) {
+        for (final Throwable cause : causesOf(failure)) {
+            if (cause instanceof SmtpConnectionPool.UnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param failure the reason sending an e-mail failed
+     * @return whether the failure is caused by the SMTP server rather than by the e-mail, i.e. it is a connection
+     * failure, authentication failed or the server replied that the service is not available (421)
+     */
+    static boolean isServerFailure(@Nonnull final Throwable failure) {
+        for (final Throwable cause : causesOf(failure)) {
+            if (cause instanceof AuthenticationFailedException) {
+                return true;
+            }
+        }
+        return isConnectionFailure(failure) || replyCodeOf(failure) == 421;
+    }
+
+    /**
+     * @return the failure, its causes and the next exceptions of {@link MessagingException}s, each once
+     */
+    private static Iterable<Throwable> causesOf(@Nonnull final Throwable failure) {
+        final Set<Throwable> causes = Collections.newSetFromMap(new IdentityHashMap<>());
+        collect(failure, causes);
+        return causes;
+    }
+
+    private static void collect(final Throwable throwable, @Nonnull final Set<Throwable> causes) {
+        if (throwable == null || !causes.add(throwable)) {
+            return;
+        }
+        if (throwable instanceof MessagingException) {
+            collect(((MessagingException) throwable).getNextException(), causes);
+        }
+        collect(throwable.getCause(), causes);
+    }
+
+    private static int parseReplyCode(final String message) {
+        if (message == null || message.length() < 3) {
+            return EmailDeliveryException.NO_REPLY_CODE;
+        }
+        try {
+            return Integer.parseInt(message.substring(0, 3));
+        } catch (NumberFormatException e) {
+            return EmailDeliveryException.NO_REPLY_CODE;
+        }
+    }
+}
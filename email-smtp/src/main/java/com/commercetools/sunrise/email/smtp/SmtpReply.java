@@ -0,0 +1,62 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A complete, possibly multi-line reply of an SMTP server.
+ */
+final class SmtpReply {
+
+    private final int code;
+
+    private final List<String> lines;
+
+    private SmtpReply(final int code, @Nonnull final List<String> lines) {
+        this.code = code;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * @param lines the lines of the reply without line terminators, each starting with the reply code
+     * @return the parsed reply, with code -1 if the reply does not start with a three-digit code
+     */
+    static SmtpReply parse(@Nonnull final List<String> lines) {
+        final String first = lines.get(0);
+        int code;
+        try {
+            code = first.length() >= 3 ? Integer.parseInt(first.substring(0, 3)) : -1;
+        } catch (NumberFormatException e) {
+            code = -1;
+        }
+        return new SmtpReply(code, lines);
+    }
+
+    /**
+     * @return the three-digit reply code, or -1 if the reply was malformed
+     */
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the lines of the reply, each starting with the reply code
+     */
+    List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * @param line a line of this reply
+     * @return the text of the line without the reply code and separator
+     */
+    static String textOf(@Nonnull final String line) {
+        return line.length() > 4 ? line.substring(4) : "";
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", lines);
+    }
+}
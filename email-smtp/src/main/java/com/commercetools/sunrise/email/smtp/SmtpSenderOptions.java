@@ -0,0 +1,406 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailSenderMetrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.Executor;
+
+/**
+ * Optional settings of an {@link SmtpAuthEmailSender}. Each setting is disabled unless it is configured explicitly,
+ * so {@link #defaults()} yields a sender that behaves like one created by
+ * {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}.
+ * <p>
+ * Instances are immutable and created with a {@link Builder}:
+ * <pre>{@code
+ * final SmtpSenderOptions options = SmtpSenderOptions.builder()
+ *         .connectionPool(new SmtpConnectionPoolConfiguration(5, 60 * 1000, 100, 5 * 1000))
+ *         .build();
+ * }</pre>
+ *
+ * @see SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int, SmtpSenderOptions)
+ */
+public final class SmtpSenderOptions {
+
+    private static final SmtpSenderOptions DEFAULTS = builder().build();
+
+    @Nullable
+    private final SmtpConnectionPoolConfiguration connectionPool;
+
+    @Nullable
+    private final SendQueueConfiguration sendQueue;
+
+    @Nullable
+    private final OutboxConfiguration outbox;
+
+    @Nullable
+    private final RateLimitConfiguration rateLimit;
+
+    @Nullable
+    private final RetryConfiguration retry;
+
+    @Nullable
+    private final EmailSenderMetrics metrics;
+
+    @Nullable
+    private final Executor creationExecutor;
+
+    @Nullable
+    private final CoalescingConfiguration coalescing;
+
+    @Nullable
+    private final IdempotencyConfiguration idempotency;
+
+    @Nullable
+    private final TlsConfiguration tls;
+
+    @Nullable
+    private final PrioritySchedulingConfiguration priorityScheduling;
+
+    @Nullable
+    private final AdaptiveConcurrencyConfiguration adaptiveConcurrency;
+
+    @Nullable
+    private final CircuitBreakerConfiguration circuitBreaker;
+
+    private SmtpSenderOptions(@Nonnull final Builder builder) {
+        this.connectionPool = builder.connectionPool;
+        this.sendQueue = builder.sendQueue;
+        this.outbox = builder.outbox;
+        this.rateLimit = builder.rateLimit;
+        this.retry = builder.retry;
+        this.metrics = builder.metrics;
+        this.creationExecutor = builder.creationExecutor;
+        this.coalescing = builder.coalescing;
+        this.idempotency = builder.idempotency;
+        this.tls = builder.tls;
+        this.priorityScheduling = builder.priorityScheduling;
+        this.adaptiveConcurrency = builder.adaptiveConcurrency;
+        this.circuitBreaker = builder.circuitBreaker;
+    }
+
+    /**
+     * @return options that do not enable any optional behavior
+     */
+    public static SmtpSenderOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return a builder with all optional behavior disabled
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return how SMTP connections are pooled, or {@code null} if every message is sent over a new connection
+     */
+    @Nullable
+    public SmtpConnectionPoolConfiguration getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * @return how many e-mails may wait to be sent, or {@code null} if the number of waiting e-mails is unbounded
+     */
+    @Nullable
+    public SendQueueConfiguration getSendQueue() {
+        return sendQueue;
+    }
+
+    /**
+     * @return where accepted e-mails are persisted, or {@code null} if they are only kept in memory
+     */
+    @Nullable
+    public OutboxConfiguration getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @return how many e-mails are sent at most, or {@code null} if the number of e-mails is not limited
+     */
+    @Nullable
+    public RateLimitConfiguration getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @return how often e-mails that failed temporarily are attempted, or {@code null} if they are attempted once
+     */
+    @Nullable
+    public RetryConfiguration getRetry() {
+        return retry;
+    }
+
+    /**
+     * @return the listener that is notified about sent e-mails, or {@code null} if nothing is measured
+     */
+    @Nullable
+    public EmailSenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the executor that creates e-mails, or {@code null} if e-mails are created by the thread sending them
+     */
+    @Nullable
+    public Executor getCreationExecutor() {
+        return creationExecutor;
+    }
+
+    /**
+     * @return how identical e-mails to different recipients are combined, or {@code null} if each e-mail is sent on
+     * its own
+     */
+    @Nullable
+    public CoalescingConfiguration getCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * @return how long idempotency keys of e-mails are remembered, or {@code null} if idempotency keys are ignored
+     */
+    @Nullable
+    public IdempotencyConfiguration getIdempotency() {
+        return idempotency;
+    }
+
+    /**
+     * @return how TLS connections are secured and resumed, or {@code null} if the defaults of the JVM are used
+     */
+    @Nullable
+    public TlsConfiguration getTls() {
+        return tls;
+    }
+
+    /**
+     * @return how the priorities share the capacity of the sender, or {@code null} if e-mails of the highest priority
+     * are always sent first
+     */
+    @Nullable
+    public PrioritySchedulingConfiguration getPriorityScheduling() {
+        return priorityScheduling;
+    }
+
+    /**
+     * @return how the number of concurrent transfers adapts to the SMTP server, or {@code null} if it is only limited
+     * by the executor and the connection pool
+     */
+    @Nullable
+    public AdaptiveConcurrencyConfiguration getAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    /**
+     * @return when the sender stops contacting a failing SMTP server, or {@code null} if every e-mail is attempted
+     */
+    @Nullable
+    public CircuitBreakerConfiguration getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Creates {@link SmtpSenderOptions}. A builder may be used to create several instances.
+     */
+    public static final class Builder {
+
+        @Nullable
+        private SmtpConnectionPoolConfiguration connectionPool;
+
+        @Nullable
+        private SendQueueConfiguration sendQueue;
+
+        @Nullable
+        private OutboxConfiguration outbox;
+
+        @Nullable
+        private RateLimitConfiguration rateLimit;
+
+        @Nullable
+        private RetryConfiguration retry;
+
+        @Nullable
+        private EmailSenderMetrics metrics;
+
+        @Nullable
+        private Executor creationExecutor;
+
+        @Nullable
+        private CoalescingConfiguration coalescing;
+
+        @Nullable
+        private IdempotencyConfiguration idempotency;
+
+        @Nullable
+        private TlsConfiguration tls;
+
+        @Nullable
+        private PrioritySchedulingConfiguration priorityScheduling;
+
+        @Nullable
+        private AdaptiveConcurrencyConfiguration adaptiveConcurrency;
+
+        @Nullable
+        private CircuitBreakerConfiguration circuitBreaker;
+
+        private Builder() {
+        }
+
+        /**
+         * Keep authenticated SMTP connections open and reuse them for subsequent messages.
+         *
+         * @param connectionPool how connections are pooled, or {@code null} to open one connection per message
+         * @return this builder
+         */
+        public Builder connectionPool(@Nullable final SmtpConnectionPoolConfiguration connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        /**
+         * Bound the number of e-mails that wait to be sent.
+         *
+         * @param sendQueue the bound and what happens to e-mails beyond it, or {@code null} for no bound
+         * @return this builder
+         */
+        public Builder sendQueue(@Nullable final SendQueueConfiguration sendQueue) {
+            this.sendQueue = sendQueue;
+            return this;
+        }
+
+        /**
+         * Persist accepted e-mails until they have been handled, so that they are sent after a restart.
+         *
+         * @param outbox where e-mails are persisted, or {@code null} to keep them in memory only
+         * @return this builder
+         */
+        public Builder outbox(@Nullable final OutboxConfiguration outbox) {
+            this.outbox = outbox;
+            return this;
+        }
+
+        /**
+         * Limit the number of e-mails and recipients per time, to stay within the quotas of the SMTP server.
+         *
+         * @param rateLimit the limits, or {@code null} for no limits
+         * @return this builder
+         */
+        public Builder rateLimit(@Nullable final RateLimitConfiguration rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * Send e-mails again that failed temporarily, e.g. because the SMTP server replied with a 4xx reply code.
+         *
+         * @param retry how often and when e-mails are attempted, or {@code null} to attempt each e-mail once
+         * @return this builder
+         */
+        public Builder retry(@Nullable final RetryConfiguration retry) {
+            this.retry = retry;
+            return this;
+        }
+
+        /**
+         * Report latencies and outcomes of sending e-mails.
+         *
+         * @param metrics the listener to notify, e.g. a {@link com.commercetools.sunrise.email.HistogramEmailSenderMetrics},
+         *                or {@code null} to measure nothing
+         * @return this builder
+         */
+        public Builder metrics(@Nullable final EmailSenderMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Create e-mails asynchronously, such that the thread sending an e-mail does not run its message editor.
+         *
+         * @param creationExecutor the executor that runs message editors, which may be the executor of the sender, or
+         *                         {@code null} to run them on the thread sending an e-mail
+         * @return this builder
+         */
+        public Builder creationExecutor(@Nullable final Executor creationExecutor) {
+            this.creationExecutor = creationExecutor;
+            return this;
+        }
+
+        /**
+         * Combine e-mails that only differ in their {@code Bcc} recipients into one SMTP transaction.
+         *
+         * @param coalescing the window and the maximum number of recipients, or {@code null} to send each e-mail on
+         *                   its own
+         * @return this builder
+         */
+        public Builder coalescing(@Nullable final CoalescingConfiguration coalescing) {
+            this.coalescing = coalescing;
+            return this;
+        }
+
+        /**
+         * Send e-mails with the same {@link com.commercetools.sunrise.email.SendOptions#getIdempotencyKey()
+         * idempotency key} only once.
+         *
+         * @param idempotency how long and how many keys are remembered, or {@code null} to ignore idempotency keys
+         * @return this builder
+         */
+        public Builder idempotency(@Nullable final IdempotencyConfiguration idempotency) {
+            this.idempotency = idempotency;
+            return this;
+        }
+
+        /**
+         * Secure connections with an {@link javax.net.ssl.SSLContext} owned by the sender, which resumes TLS sessions.
+         *
+         * @param tls the session cache, protocols and cipher suites, or {@code null} to use the defaults of the JVM
+         * @return this builder
+         */
+        public Builder tls(@Nullable final TlsConfiguration tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        /**
+         * Share the capacity of the sender between the priorities of waiting e-mails by weight.
+         *
+         * @param priorityScheduling the weight of each priority, or {@code null} to always send e-mails of the
+         *                           highest priority first
+         * @return this builder
+         */
+        public Builder priorityScheduling(@Nullable final PrioritySchedulingConfiguration priorityScheduling) {
+            this.priorityScheduling = priorityScheduling;
+            return this;
+        }
+
+        /**
+         * Adapt the number of e-mails transferred concurrently to the latency and the failures of the SMTP server.
+         *
+         * @param adaptiveConcurrency the bounds and the sensitivity of the limit, or {@code null} to transfer as many
+         *                            e-mails concurrently as the executor and the connection pool permit
+         * @return this builder
+         */
+        public Builder adaptiveConcurrency(@Nullable final AdaptiveConcurrencyConfiguration adaptiveConcurrency) {
+            this.adaptiveConcurrency = adaptiveConcurrency;
+            return this;
+        }
+
+        /**
+         * Fail e-mails immediately while the SMTP server fails, instead of attempting each of them.
+         *
+         * @param circuitBreaker when the circuit opens and how it recovers, or {@code null} to attempt every e-mail
+         * @return this builder
+         */
+        public Builder circuitBreaker(@Nullable final CircuitBreakerConfiguration circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * @return the options configured with this builder
+         */
+        public SmtpSenderOptions build() {
+            return new SmtpSenderOptions(this);
+        }
+    }
+}
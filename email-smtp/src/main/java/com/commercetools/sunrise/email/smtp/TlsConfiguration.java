@@ -0,0 +1,102 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Instances of this class specify how an {@link SmtpAuthEmailSender} secures connections with
+ * {@link SmtpConfiguration.TransportSecurity#SSL_TLS} or {@link SmtpConfiguration.TransportSecurity#STARTTLS}.
+ * <p>
+ * With this configuration, the sender owns an {@link javax.net.ssl.SSLContext} instead of using the default context of
+ * the JVM. Its client session cache holds the TLS sessions of the SMTP server, which is identified by host and port, so
+ * that a new connection resumes a previous session with an abbreviated handshake instead of a full one, as long as the
+ * session has not expired and the server supports resumption. Connections that are opened frequently, e.g. one per
+ * e-mail without a connection pool, or after idle connections of a pool have been closed, benefit most.
+ * <p>
+ * The protocols and cipher suites restrict the ones offered to the SMTP server; {@code null} offers the defaults of
+ * the JVM.
+ *
+ * @see SmtpSenderOptions.Builder#tls(TlsConfiguration)
+ */
+public class TlsConfiguration {
+
+    private final int sessionCacheSize;
+
+    private final int sessionTimeoutSeconds;
+
+    @Nullable
+    private final List<String> protocols;
+
+    @Nullable
+    private final List<String> cipherSuites;
+
+    /**
+     * Create a configuration for TLS connections that offers the default protocols and cipher suites of the JVM.
+     *
+     * @param sessionCacheSize      the maximum number of TLS sessions kept for resumption, e.g. the number of SMTP
+     *                              servers; 0 does not limit the number
+     * @param sessionTimeoutSeconds the time in seconds after which a TLS session is no longer resumed; 0 does not limit
+     *                              the time, but SMTP servers usually do
+     */
+    public TlsConfiguration(final int sessionCacheSize, final int sessionTimeoutSeconds) {
+        this(sessionCacheSize, sessionTimeoutSeconds, null, null);
+    }
+
+    /**
+     * Create a configuration for TLS connections.
+     *
+     * @param sessionCacheSize      the maximum number of TLS sessions kept for resumption, 0 does not limit the number
+     * @param sessionTimeoutSeconds the time in seconds after which a TLS session is no longer resumed, 0 does not limit
+     *                              the time
+     * @param protocols             the protocols to offer, e.g. {@code TLSv1.3} and {@code TLSv1.2}, or {@code null}
+     *                              for the defaults of the JVM
+     * @param cipherSuites          the cipher suites to offer, or {@code null} for the defaults of the JVM
+     */
+    public TlsConfiguration(final int sessionCacheSize, final int sessionTimeoutSeconds,
+                            @Nullable final List<String> protocols, @Nullable final List<String> cipherSuites) {
+        if (sessionCacheSize < 0)
+            throw new IllegalArgumentException("The session cache size must not be negative: " + sessionCacheSize);
+        if (sessionTimeoutSeconds < 0)
+            throw new IllegalArgumentException("The session timeout must not be negative: " + sessionTimeoutSeconds);
+        if (protocols != null && protocols.isEmpty())
+            throw new IllegalArgumentException("At least one protocol is required");
+        if (cipherSuites != null && cipherSuites.isEmpty())
+            throw new IllegalArgumentException("At least one cipher suite is required");
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        this.protocols = protocols != null ? Collections.unmodifiableList(new ArrayList<>(protocols)) : null;
+        this.cipherSuites = cipherSuites != null ? Collections.unmodifiableList(new ArrayList<>(cipherSuites)) : null;
+    }
+
+    /**
+     * @return the maximum number of TLS sessions kept for resumption, 0 if the number is not limited
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * @return the time in seconds after which a TLS session is no longer resumed, 0 if the time is not limited
+     */
+    public int getSessionTimeoutSeconds() {
+        return sessionTimeoutSeconds;
+    }
+
+    /**
+     * @return the protocols to offer, or {@code null} for the defaults of the JVM
+     */
+    @Nullable
+    public List<String> getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * @return the cipher suites to offer, or {@code null} for the defaults of the JVM
+     */
+    @Nullable
+    public List<String> getCipherSuites() {
+        return cipherSuites;
+    }
+}
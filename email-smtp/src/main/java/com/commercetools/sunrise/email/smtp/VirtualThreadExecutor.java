@@ -0,0 +1,130 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An {@link Executor} that runs each task on a virtual thread of Java 21 or later, for {@link SmtpAuthEmailSender}s
+ * that send many e-mails concurrently. A virtual thread that blocks on SMTP I/O does not occupy a platform thread, so
+ * the executor needs no pool size to be tuned to the timeout and the traffic, see
+ * {@link SmtpAuthEmailSender#SmtpAuthEmailSender(SmtpConfiguration, Executor, int)}.
+ * <pre>{@code
+ * final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(smtpConfiguration, new VirtualThreadExecutor(1000),
+ *         timeoutMs);
+ * }</pre>
+ * At most {@code maxConcurrency} tasks run at the same time, which caps the number of concurrent SMTP conversations;
+ * further tasks wait in an unbounded queue without blocking the thread that submits them. The executor does not need
+ * to be shut down, virtual threads do not keep the JVM running.
+ * <p>
+ * This library is compiled for Java 8, hence virtual threads are created reflectively. Use {@link #isAvailable()} to
+ * check whether the running JVM supports them. Note that the Java Mail API blocks within {@code synchronized}
+ * methods, which pins virtual threads to their platform thread on Java versions before 24.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    @Nullable
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private final ThreadFactory threadFactory;
+
+    private final Semaphore permits;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create an executor that runs at most the given number of tasks at the same time.
+     *
+     * @param maxConcurrency the maximum number of tasks, i.e. virtual threads, that run at the same time
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     */
+    public VirtualThreadExecutor(final int maxConcurrency) {
+        this(maxConcurrency, requireVirtualThreadFactory());
+    }
+
+    VirtualThreadExecutor(final int maxConcurrency, @Nonnull final ThreadFactory threadFactory) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("At least one task must be allowed to run: " + maxConcurrency);
+        this.threadFactory = threadFactory;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * @return whether the running JVM supports virtual threads, i.e. whether instances of this class can be created
+     */
+    public static boolean isAvailable() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    @Override
+    public void execute(@Nonnull final Runnable command) {
+        tasks.add(command);
+        startThreads();
+    }
+
+    /**
+     * @return the number of tasks that wait because the maximum number of tasks is running
+     */
+    public int getQueuedTaskCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Starts a thread for each waiting task as long as the maximum number of tasks is not reached.
+     */
+    private void startThreads() {
+        while (!tasks.isEmpty() && permits.tryAcquire()) {
+            threadFactory.newThread(this::runTasks).start();
+        }
+    }
+
+    /**
+     * Runs waiting tasks until there are none, so that a thread is only started if fewer than the maximum number of
+     * tasks run. A task added after the queue has been found empty but before the permit has been released is not
+     * left behind, because the queue is checked again.
+     */
+    private void runTasks() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (final Throwable t) {//the failure must not stop the tasks waiting behind this one
+                    final Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+                }
+            }
+        } finally {
+            permits.release();
+            startThreads();
+        }
+    }
+
+    private static ThreadFactory requireVirtualThreadFactory() {
+        if (VIRTUAL_THREAD_FACTORY == null)
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running "
+                    + System.getProperty("java.version"));
+        return VIRTUAL_THREAD_FACTORY;
+    }
+
+    /**
+     * Creates the factory of {@code Thread.ofVirtual().name("smtp-", 0)} reflectively.
+     *
+     * @return the factory, or {@code null} if the running JVM does not support virtual threads
+     */
+    @Nullable
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "smtp-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
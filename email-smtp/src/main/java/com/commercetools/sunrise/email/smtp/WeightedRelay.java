@@ -0,0 +1,43 @@
+package com.commercetools.sunrise.email.smtp;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An SMTP server used by a {@link MultiRelayEmailSender} together with its share of the e-mails.
+ */
+public class WeightedRelay {
+
+    @Nonnull
+    private final SmtpConfiguration smtpConfiguration;
+
+    private final int weight;
+
+    /**
+     * Create a relay.
+     *
+     * @param smtpConfiguration how to connect to the SMTP server
+     * @param weight            the relative capacity of the SMTP server; a relay with weight 2 is given twice as many
+     *                          concurrent e-mails as a relay with weight 1
+     */
+    public WeightedRelay(@Nonnull final SmtpConfiguration smtpConfiguration, final int weight) {
+        if (weight < 1)
+            throw new IllegalArgumentException("The weight must be positive: " + weight);
+        this.smtpConfiguration = smtpConfiguration;
+        this.weight = weight;
+    }
+
+    /**
+     * @return how to connect to the SMTP server
+     */
+    @Nonnull
+    public SmtpConfiguration getSmtpConfiguration() {
+        return smtpConfiguration;
+    }
+
+    /**
+     * @return the relative capacity of the SMTP server
+     */
+    public int getWeight() {
+        return weight;
+    }
+}
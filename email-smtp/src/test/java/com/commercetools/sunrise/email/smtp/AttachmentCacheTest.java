@@ -0,0 +1,147 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Test;
+
+import javax.activation.DataSource;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AttachmentCacheTest {
+
+    @Test
+    public void attachmentIsReadOnceAndSharedByMessages() throws Exception {
+        final AttachmentCache cache = new AttachmentCache(1024 * 1024);
+        final CountingDataSource source = new CountingDataSource("terms.pdf", 3000);
+
+        final String first = writeMessageWith(cache.getBodyPart("terms", source));
+        final int reads = source.reads;
+        final String second = writeMessageWith(cache.getBodyPart("terms", source));
+
+        assertThat(source.reads).isEqualTo(reads);
+        assertThat(first).contains("filename=terms.pdf").contains("Content-Transfer-Encoding: base64");
+        assertThat(second).contains("filename=terms.pdf").contains("Content-Transfer-Encoding: base64");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedAttachmentDecodesToTheOriginalContent() throws Exception {
+        final AttachmentCache cache = new AttachmentCache(1024 * 1024);
+        final CountingDataSource source = new CountingDataSource("terms.pdf", 3000);
+        cache.getBodyPart("terms", source);
+
+        final MimeBodyPart part = cache.getBodyPart("terms", source);
+
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        part.getDataHandler().writeTo(decoded);
+        assertThat(decoded.toByteArray()).isEqualTo(source.content);
+        assertThat(part.getFileName()).isEqualTo("terms.pdf");
+    }
+
+    @Test
+    public void leastRecentlyUsedAttachmentsAreEvicted() throws Exception {
+        final AttachmentCache cache = new AttachmentCache(10 * 1024);
+        cache.getBodyPart("a", new CountingDataSource("a.bin", 3000));
+        cache.getBodyPart("b", new CountingDataSource("b.bin", 3000));
+        cache.getBodyPart("a", new CountingDataSource("a.bin", 3000));
+
+        cache.getBodyPart("c", new CountingDataSource("c.bin", 3000));
+
+        assertThat(cache.getEntryCount()).isEqualTo(2);
+        assertThat(cache.getSizeBytes()).isLessThanOrEqualTo(10 * 1024);
+        final long misses = cache.getMissCount();
+        cache.getBodyPart("a", new CountingDataSource("a.bin", 3000));
+        assertThat(cache.getMissCount()).isEqualTo(misses);
+        cache.getBodyPart("b", new CountingDataSource("b.bin", 3000));
+        assertThat(cache.getMissCount()).isEqualTo(misses + 1);
+    }
+
+    @Test
+    public void attachmentsLargerThanTheCacheAreNotCached() throws Exception {
+        final AttachmentCache cache = new AttachmentCache(1024);
+
+        final MimeBodyPart part = cache.getBodyPart("large", new CountingDataSource("large.bin", 4096));
+
+        assertThat(part.getFileName()).isEqualTo("large.bin");
+        assertThat(cache.getEntryCount()).isZero();
+        assertThat(cache.getSizeBytes()).isZero();
+    }
+
+    @Test
+    public void invalidatedAttachmentIsReadAgain() throws Exception {
+        final AttachmentCache cache = new AttachmentCache(1024 * 1024);
+        final CountingDataSource source = new CountingDataSource("terms.pdf", 100);
+        cache.getBodyPart("terms", source);
+        final int reads = source.reads;
+
+        cache.invalidate("terms");
+        cache.getBodyPart("terms", source);
+
+        assertThat(source.reads).isGreaterThan(reads);
+        assertThat(cache.getEntryCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void maximumSizeMustBePositive() {
+        assertThatThrownBy(() -> new AttachmentCache(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String writeMessageWith(final MimeBodyPart attachment) throws Exception {
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        final MimeBodyPart text = new MimeBodyPart();
+        text.setText("Thank you for your order!", "UTF-8");
+        message.setContent(new MimeMultipart(text, attachment));
+        message.saveChanges();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        message.writeTo(bytes);
+        return new String(bytes.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static class CountingDataSource implements DataSource {
+
+        private final String name;
+
+        private final byte[] content;
+
+        private int reads;
+
+        CountingDataSource(final String name, final int size) {
+            this.name = name;
+            this.content = new byte[size];
+            Arrays.fill(content, (byte) 0x80);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            reads++;
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/pdf";
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
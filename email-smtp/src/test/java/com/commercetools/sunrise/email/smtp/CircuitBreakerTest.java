@@ -0,0 +1,97 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.smtp.CircuitBreakerConfiguration.State;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void circuitOpensOnceTheFailureRateOfAFullWindowReachesTheThreshold() {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfiguration(4, 0.5, 1000, 1), now::get);
+
+        attempt(breaker, true);
+        attempt(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);// the window is not full yet
+        attempt(breaker, false);
+        attempt(breaker, false);
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.isRejecting()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    @Test
+    public void oldOutcomesLeaveTheWindow() {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfiguration(4, 0.5, 1000, 1), now::get);
+
+        attempt(breaker, true);
+        for (int i = 0; i < 10; i++) {
+            attempt(breaker, false);
+        }
+        attempt(breaker, true);
+        attempt(breaker, false);
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        attempt(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    }
+
+    @Test
+    public void successfulProbesCloseTheCircuit() {
+        final CircuitBreaker breaker = openedBreaker(2);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.isRejecting()).isFalse();
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();// only as many probes as configured
+        breaker.recordSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        breaker.recordSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        attempt(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);// the window starts empty again
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() {
+        final CircuitBreaker breaker = openedBreaker(2);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.recordFailure();
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertThat(breaker.tryAcquire()).isFalse();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    private CircuitBreaker openedBreaker(final int probeCount) {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfiguration(2, 1, 1000, probeCount),
+                now::get);
+        attempt(breaker, true);
+        attempt(breaker, true);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        return breaker;
+    }
+
+    private static void attempt(final CircuitBreaker breaker, final boolean fails) {
+        assertThat(breaker.tryAcquire()).isTrue();
+        if (fails) {
+            breaker.recordFailure();
+        } else {
+            breaker.recordSuccess();
+        }
+    }
+}
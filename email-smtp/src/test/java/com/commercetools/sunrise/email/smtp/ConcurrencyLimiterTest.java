@@ -0,0 +1,83 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    @Test
+    public void tasksBeyondTheLimitAreParkedAndUnparkedOnRelease() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AdaptiveConcurrencyConfiguration(2, 1, 2, 100, 0.5));
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.tryAcquire()).isFalse();
+
+        assertThat(limiter.release()).isEqualTo(1);
+        assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.release()).isEqualTo(1);
+        assertThat(limiter.release()).isZero();
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    public void fastTransfersGrowTheLimitAdditively() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AdaptiveConcurrencyConfiguration(2, 1, 3, 100, 0.5));
+
+        useFully(limiter);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        useFully(limiter);
+        useFully(limiter);
+        assertThat(limiter.getLimit()).isEqualTo(3);
+
+        for (int i = 0; i < 100; i++) {
+            useFully(limiter);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    public void unusedLimitsDoNotGrow() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AdaptiveConcurrencyConfiguration(4, 1, 100, 100, 0.5));
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.releaseSucceeded(FAST);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void slowOrOverloadedTransfersShrinkTheLimitMultiplicatively() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new AdaptiveConcurrencyConfiguration(8, 3, 8, 100, 0.5));
+
+        limiter.tryAcquire();
+        limiter.releaseSucceeded(SLOW);
+        assertThat(limiter.getLimit()).isEqualTo(4);
+
+        limiter.tryAcquire();
+        limiter.releaseOverloaded();
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    /**
+     * Starts as many transfers as permitted and completes them quickly.
+     */
+    private static void useFully(final ConcurrencyLimiter limiter) {
+        final int limit = limiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        for (int i = 0; i < limit; i++) {
+            limiter.releaseSucceeded(FAST);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IdempotencyIndexTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void rememberedKeyYieldsTheOriginalResult() {
+        final IdempotencyIndex index = new IdempotencyIndex(new IdempotencyConfiguration(1000, 100), now::get);
+        final CompletableFuture<String> original = new CompletableFuture<>();
+
+        assertThat(index.putIfAbsent("order-1", original)).isNull();
+        assertThat(index.putIfAbsent("order-1", new CompletableFuture<>())).isSameAs(original);
+        assertThat(index.putIfAbsent("order-2", new CompletableFuture<>())).isNull();
+    }
+
+    @Test
+    public void keysExpireAfterTheirTimeToLive() {
+        final IdempotencyIndex index = new IdempotencyIndex(new IdempotencyConfiguration(1000, 100), now::get);
+        index.putIfAbsent("order-1", new CompletableFuture<>());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertThat(index.putIfAbsent("order-1", new CompletableFuture<>())).isNotNull();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertThat(index.putIfAbsent("order-1", new CompletableFuture<>())).isNull();
+    }
+
+    @Test
+    public void numberOfKeysIsBounded() {
+        final IdempotencyIndex index = new IdempotencyIndex(new IdempotencyConfiguration(60 * 1000, 100), now::get);
+
+        for (int i = 0; i < 10000; i++) {
+            index.putIfAbsent("order-" + i, new CompletableFuture<>());
+        }
+
+        assertThat(index.size()).isLessThanOrEqualTo(100);
+        assertThat(index.putIfAbsent("order-9999", new CompletableFuture<>())).isNotNull();
+    }
+
+    @Test
+    public void keyIsOnlyRemovedWithItsOwnResult() {
+        final IdempotencyIndex index = new IdempotencyIndex(new IdempotencyConfiguration(1000, 100), now::get);
+        final CompletableFuture<String> original = new CompletableFuture<>();
+        index.putIfAbsent("order-1", original);
+
+        index.remove("order-1", new CompletableFuture<>());
+        assertThat(index.size()).isEqualTo(1);
+        index.remove("order-1", original);
+
+        assertThat(index.size()).isZero();
+    }
+}
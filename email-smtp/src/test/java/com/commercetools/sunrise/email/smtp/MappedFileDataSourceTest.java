@@ -0,0 +1,73 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedFileDataSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamsReadTheWholeFileIndependently() throws Exception {
+        final byte[] content = new byte[100000];
+        new Random(42).nextBytes(content);
+        final Path file = folder.newFile("invoice.pdf").toPath();
+        Files.write(file, content);
+        final MappedFileDataSource source = new MappedFileDataSource(file);
+
+        final InputStream first = source.getInputStream();
+        assertThat(first.read()).isEqualTo(content[0] & 0xff);
+        final InputStream second = source.getInputStream();
+
+        assertThat(readAll(second)).isEqualTo(content);
+        assertThat(first.available()).isEqualTo(content.length - 1);
+        first.reset();
+        assertThat(readAll(first)).isEqualTo(content);
+        assertThat(first.read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void nameAndTypeAreDerivedFromTheFile() throws Exception {
+        final Path file = folder.newFile("invoice.txt").toPath();
+
+        final MappedFileDataSource source = new MappedFileDataSource(file);
+
+        assertThat(source.getName()).isEqualTo("invoice.txt");
+        assertThat(source.getContentType()).isEqualTo("text/plain");
+    }
+
+    @Test
+    public void dataSourceIsReadOnly() throws Exception {
+        final MappedFileDataSource source = new MappedFileDataSource(folder.newFile("invoice.pdf").toPath());
+
+        assertThatThrownBy(source::getOutputStream).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void missingFileFailsWhenRead() {
+        final MappedFileDataSource source = new MappedFileDataSource(folder.getRoot().toPath().resolve("missing"));
+
+        assertThatThrownBy(source::getInputStream).isInstanceOf(IOException.class);
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,39 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailRejectedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import com.sun.mail.util.SocketConnectException;
+import org.junit.Test;
+
+import javax.mail.AuthenticationFailedException;
+import java.net.ConnectException;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultiRelayEmailSenderTest {
+
+    @Test
+    public void failuresOfTheRelayAreRelayFailures() {
+        final MailConnectException refused = new MailConnectException(
+                new SocketConnectException("Connection refused", new ConnectException(), "host", 25, 1000));
+
+        assertThat(MultiRelayEmailSender.isRelayFailure(refused)).isTrue();
+        assertThat(MultiRelayEmailSender.isRelayFailure(new AuthenticationFailedException("535 Denied"))).isTrue();
+        assertThat(MultiRelayEmailSender.isRelayFailure(sendFailed(421))).isTrue();
+        assertThat(MultiRelayEmailSender.isRelayFailure(new CompletionException(
+                new CircuitOpenException("The circuit breaker is open")))).isTrue();
+    }
+
+    @Test
+    public void failuresOfTheEmailAreNotRelayFailures() {
+        assertThat(MultiRelayEmailSender.isRelayFailure(sendFailed(550))).isFalse();
+        assertThat(MultiRelayEmailSender.isRelayFailure(new CompletionException(
+                new EmailRejectedException("The send queue is full")))).isFalse();
+    }
+
+    private static SMTPSendFailedException sendFailed(final int code) {
+        return new SMTPSendFailedException("DATA", code, code + " Failure", null, null, null, null);
+    }
+}
@@ -0,0 +1,85 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboxJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pendingRecordsAreRecoveredInOrder() throws Exception {
+        final OutboxConfiguration configuration = configuration(64 * 1024);
+        final OutboxJournal journal = OutboxJournal.open(configuration);
+        journal.append(bytes("first"), EmailPriority.TRANSACTIONAL);
+        journal.done(journal.append(bytes("second"), EmailPriority.NORMAL));
+        journal.append(bytes("third"), EmailPriority.BULK);
+        journal.close();
+
+        final OutboxJournal reopened = OutboxJournal.open(configuration);
+        final List<OutboxJournal.Record> recovered = reopened.takeRecovered();
+
+        assertThat(recovered).extracting(record -> new String(record.getBytes(), StandardCharsets.UTF_8))
+                .containsExactly("first", "third");
+        assertThat(recovered).extracting(OutboxJournal.Record::getPriority)
+                .containsExactly(EmailPriority.TRANSACTIONAL, EmailPriority.BULK);
+        assertThat(reopened.takeRecovered()).isEmpty();
+    }
+
+    @Test
+    public void segmentsAreDeletedOnceAllRecordsAreDone() throws Exception {
+        final OutboxConfiguration configuration = configuration(1024);
+        final OutboxJournal journal = OutboxJournal.open(configuration);
+        final byte[] large = new byte[600];
+        final OutboxJournal.Record first = journal.append(large, EmailPriority.NORMAL);
+        final OutboxJournal.Record second = journal.append(large, EmailPriority.NORMAL);
+        final OutboxJournal.Record oversized = journal.append(new byte[4096], EmailPriority.NORMAL);
+        assertThat(folder.getRoot().list()).hasSize(3);
+
+        journal.done(first);
+        assertThat(folder.getRoot().list()).hasSize(2);
+        journal.done(oversized);
+        journal.done(second);
+        assertThat(folder.getRoot().list()).hasSize(1);
+        journal.close();
+
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void recoveryStopsAtATornRecord() throws Exception {
+        final OutboxConfiguration configuration = configuration(64 * 1024);
+        final OutboxJournal journal = OutboxJournal.open(configuration);
+        journal.append(bytes("intact"), EmailPriority.NORMAL);
+        journal.append(bytes("torn"), EmailPriority.NORMAL);
+        journal.close();
+        final File segment = folder.getRoot().listFiles()[0];
+        try (final RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(2 * OutboxJournal.HEADER_SIZE + "intact".length() + 1);
+            file.write('X');
+        }
+
+        final List<OutboxJournal.Record> recovered = OutboxJournal.open(configuration).takeRecovered();
+
+        assertThat(recovered).extracting(record -> new String(record.getBytes(), StandardCharsets.UTF_8))
+                .containsExactly("intact");
+    }
+
+    private OutboxConfiguration configuration(final int segmentSizeBytes) {
+        return new OutboxConfiguration(folder.getRoot().toPath(), segmentSizeBytes, true);
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
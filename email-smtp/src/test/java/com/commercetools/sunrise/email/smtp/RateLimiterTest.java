@@ -0,0 +1,56 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void messagesPerSecondAllowBurstsOfOneSecond() {
+        final RateLimiter limiter = new RateLimiter(new RateLimitConfiguration(4, 0, 0, 0), now::get);
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire()).isZero();
+        }
+        assertThat(limiter.tryAcquire()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(250));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        assertThat(limiter.tryAcquire()).isZero();
+        assertThat(limiter.tryAcquire()).isPositive();
+    }
+
+    @Test
+    public void messagesPerDayRefillContinuously() {
+        final RateLimiter limiter = new RateLimiter(new RateLimitConfiguration(0, 24, 0, 0), now::get);
+        for (int i = 0; i < 24; i++) {
+            assertThat(limiter.tryAcquire()).isZero();
+        }
+
+        assertThat(limiter.tryAcquire()).isEqualTo(TimeUnit.HOURS.toNanos(1));
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+        assertThat(limiter.tryAcquire()).isZero();
+    }
+
+    @Test
+    public void recipientsInDebtDelaySubsequentMessages() {
+        final RateLimiter limiter = new RateLimiter(new RateLimitConfiguration(0, 0, 24, 0), now::get);
+        assertThat(limiter.tryAcquire()).isZero();
+        limiter.takeRecipients(25);
+
+        assertThat(limiter.tryAcquire()).isEqualTo(TimeUnit.HOURS.toNanos(2));
+    }
+
+    @Test
+    public void delaysAreComparedToTheMaximumDelay() {
+        final RateLimiter limiter = new RateLimiter(new RateLimitConfiguration(1, 0, 0, 1000), now::get);
+
+        assertThat(limiter.isWithinMaxDelay(TimeUnit.SECONDS.toNanos(1))).isTrue();
+        assertThat(limiter.isWithinMaxDelay(TimeUnit.SECONDS.toNanos(1) + 1)).isFalse();
+    }
+}
@@ -0,0 +1,199 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
+import org.junit.Test;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+import static com.commercetools.sunrise.email.smtp.SendQueueConfiguration.OverloadPolicy.BLOCK;
+import static com.commercetools.sunrise.email.smtp.SendQueueConfiguration.OverloadPolicy.FAIL;
+import static com.commercetools.sunrise.email.smtp.SendQueueConfiguration.OverloadPolicy.SHED_LOWEST_PRIORITY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SendQueueTest {
+
+    private static final Session SESSION = Session.getInstance(new Properties());
+
+    @Test
+    public void messagesWithHigherPriorityAreTakenFirst() {
+        final SendQueue queue = new SendQueue(null);
+        final SendQueue.Entry bulk = entry(EmailPriority.BULK);
+        final SendQueue.Entry normal = entry(EmailPriority.NORMAL);
+        final SendQueue.Entry transactional = entry(EmailPriority.TRANSACTIONAL);
+        queue.add(bulk);
+        queue.add(normal);
+        queue.add(transactional);
+
+        assertThat(queue.size()).isEqualTo(3);
+        assertThat(queue.size(EmailPriority.BULK)).isEqualTo(1);
+        assertThat(queue.poll()).isSameAs(transactional);
+        assertThat(queue.poll()).isSameAs(normal);
+        assertThat(queue.poll()).isSameAs(bulk);
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    public void failPolicyRejectsMessagesBeyondTheCapacity() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, FAIL, 0));
+        queue.add(entry(EmailPriority.BULK));
+
+        assertThatThrownBy(() -> queue.add(entry(EmailPriority.TRANSACTIONAL)))
+                .isInstanceOf(EmailRejectedException.class);
+        assertThat(queue.size()).isEqualTo(1);
+
+        queue.poll();
+        queue.add(entry(EmailPriority.TRANSACTIONAL));
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void blockPolicyRejectsMessagesAfterTheTimeout() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, BLOCK, 50));
+        queue.add(entry(EmailPriority.NORMAL));
+
+        final long start = System.nanoTime();
+        assertThatThrownBy(() -> queue.add(entry(EmailPriority.NORMAL)))
+                .isInstanceOf(EmailRejectedException.class);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(50 * 1000 * 1000L);
+    }
+
+    @Test
+    public void blockPolicyAcceptsMessagesOnceThereIsRoom() throws Exception {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, BLOCK, 60 * 1000));
+        queue.add(entry(EmailPriority.NORMAL));
+        final Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.poll();
+        });
+        consumer.start();
+
+        queue.add(entry(EmailPriority.NORMAL));
+        consumer.join();
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shedPolicyRejectsTheNewestMessageOfTheLowestPriority() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(3, SHED_LOWEST_PRIORITY, 0));
+        final SendQueue.Entry normal = entry(EmailPriority.NORMAL);
+        final SendQueue.Entry olderBulk = entry(EmailPriority.BULK);
+        final SendQueue.Entry newerBulk = entry(EmailPriority.BULK);
+        queue.add(normal);
+        queue.add(olderBulk);
+        queue.add(newerBulk);
+
+        final SendQueue.Entry transactional = entry(EmailPriority.TRANSACTIONAL);
+        queue.add(transactional);
+
+        assertThat(newerBulk.result).isCompletedExceptionally();
+        assertThatThrownBy(() -> newerBulk.result.join()).hasCauseInstanceOf(EmailRejectedException.class);
+        assertThat(queue.size()).isEqualTo(3);
+        assertThat(queue.size(EmailPriority.BULK)).isEqualTo(1);
+        assertThat(queue.poll()).isSameAs(transactional);
+        assertThat(queue.poll()).isSameAs(normal);
+        assertThat(queue.poll()).isSameAs(olderBulk);
+    }
+
+    @Test
+    public void shedPolicyRejectsNewMessagesWithoutLowerPriorityMessagesQueued() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, SHED_LOWEST_PRIORITY, 0));
+        final SendQueue.Entry queued = entry(EmailPriority.NORMAL);
+        queue.add(queued);
+
+        assertThatThrownBy(() -> queue.add(entry(EmailPriority.NORMAL)))
+                .isInstanceOf(EmailRejectedException.class);
+        assertThat(queued.result).isNotDone();
+        assertThat(queue.poll()).isSameAs(queued);
+    }
+
+    @Test
+    public void removedMessagesFreeTheirCapacity() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, FAIL, 0));
+        final SendQueue.Entry entry = entry(EmailPriority.NORMAL);
+        queue.add(entry);
+
+        assertThat(queue.remove(entry)).isTrue();
+        assertThat(queue.remove(entry)).isFalse();
+        queue.add(entry(EmailPriority.NORMAL));
+        assertThat(queue.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void cancelledMessagesFreeTheirCapacityRightAway() {
+        final SendQueue queue = new SendQueue(new SendQueueConfiguration(1, FAIL, 0));
+        final SendQueue.Entry cancelled = entry(EmailPriority.NORMAL);
+        queue.add(cancelled);
+
+        cancelled.result.cancel(false);
+
+        assertThat(queue.size()).isZero();
+        final SendQueue.Entry next = entry(EmailPriority.NORMAL);
+        queue.add(next);
+        assertThat(queue.size()).isEqualTo(1);
+        assertThat(queue.poll()).isSameAs(next);
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void weightedSchedulingSharesTheQueueByWeight() {
+        final SendQueue queue = new SendQueue(null, weights(4, 2, 1));
+        for (int i = 0; i < 10; i++) {
+            for (final EmailPriority priority : EmailPriority.values()) {
+                queue.add(entry(priority));
+            }
+        }
+
+        final List<EmailPriority> taken = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            taken.add(queue.poll().priority);
+        }
+
+        assertThat(Collections.frequency(taken, EmailPriority.TRANSACTIONAL)).isEqualTo(4);
+        assertThat(Collections.frequency(taken, EmailPriority.NORMAL)).isEqualTo(2);
+        assertThat(Collections.frequency(taken, EmailPriority.BULK)).isEqualTo(1);
+        assertThat(taken.get(0)).isEqualTo(EmailPriority.TRANSACTIONAL);
+    }
+
+    @Test
+    public void weightedSchedulingGivesTheShareOfEmptyLanesToOtherLanes() {
+        final SendQueue queue = new SendQueue(null, weights(100, 10, 1));
+        for (int i = 0; i < 3; i++) {
+            queue.add(entry(EmailPriority.BULK));
+        }
+
+        assertThat(queue.poll().priority).isEqualTo(EmailPriority.BULK);
+        assertThat(queue.poll().priority).isEqualTo(EmailPriority.BULK);
+        final SendQueue.Entry transactional = entry(EmailPriority.TRANSACTIONAL);
+        queue.add(transactional);
+        assertThat(queue.poll()).isSameAs(transactional);
+        assertThat(queue.poll().priority).isEqualTo(EmailPriority.BULK);
+        assertThat(queue.poll()).isNull();
+    }
+
+    private static PrioritySchedulingConfiguration weights(final int transactional, final int normal, final int bulk) {
+        final Map<EmailPriority, Integer> weights = new EnumMap<>(EmailPriority.class);
+        weights.put(EmailPriority.TRANSACTIONAL, transactional);
+        weights.put(EmailPriority.NORMAL, normal);
+        weights.put(EmailPriority.BULK, bulk);
+        return new PrioritySchedulingConfiguration(weights);
+    }
+
+    private static SendQueue.Entry entry(final EmailPriority priority) {
+        return new SendQueue.Entry(new MimeMessage(SESSION), priority, new CompletableFuture<>());
+    }
+}
@@ -1,11 +1,37 @@
 package com.commercetools.sunrise.email.smtp;
 
 import com.commercetools.sunrise.email.EmailCreationException;
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.commercetools.sunrise.email.EmailPriority;
+import com.commercetools.sunrise.email.EmailRejectedException;
+import com.commercetools.sunrise.email.SendOptions;
 import com.commercetools.sunrise.email.smtp.SmtpAuthEmailSender;
 import com.commercetools.sunrise.email.smtp.SmtpConfiguration;
+import com.sun.mail.smtp.SMTPSendFailedException;
 import org.junit.Test;
 
+import javax.annotation.Nonnull;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -39,6 +65,529 @@ public class SmtpAuthEmailSenderTest {
           .hasStackTraceContaining("Creation fails");
     }
 
+    @Test
+    public void sendAllReportsCreationFailuresPerMessage() {
+        final CheckingExecutor executor = new CheckingExecutor();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor, TIMEOUT_60_SECONDS);
+        final List<CompletionStage<String>> results = sender.sendAll(Collections.singletonList(msg -> {
+            throw new IllegalStateException("Creation fails");
+        }));
+
+        assertThat(results).hasSize(1);
+        assertThatThrownBy(() -> { results.get(0).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailCreationException.class)
+                .hasStackTraceContaining("Creation fails");
+        assertThat(executor.hasBeenUsed).isFalse();
+    }
+
+    @Test
+    public void messagesRejectedByTheExecutorFailWithAnEmailRejectedException() {
+        final Executor executor = runnable -> {
+            throw new RejectedExecutionException("Executor is shut down");
+        };
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor, TIMEOUT_60_SECONDS);
+        final CompletionStage<String> result = sender.send(msg -> { });
+
+        assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailRejectedException.class)
+                .hasStackTraceContaining("Executor is shut down");
+        assertThat(sender.getQueuedMessageCount()).isZero();
+    }
+
+    @Test
+    public void batchesRejectedByTheExecutorFailWithAnEmailRejectedException() {
+        final Executor executor = runnable -> {
+            throw new RejectedExecutionException("Executor is shut down");
+        };
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor, TIMEOUT_60_SECONDS);
+
+        final List<CompletionStage<String>> results = sender.sendAll(Arrays.asList(msg -> { }, msg -> { }));
+
+        assertThat(results).hasSize(2);
+        for (final CompletionStage<String> result : results) {
+            assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                    .hasCauseInstanceOf(EmailRejectedException.class)
+                    .hasStackTraceContaining("Executor is shut down");
+        }
+    }
+
+    @Test
+    public void messagesBeyondTheCapacityOfTheSendQueueAreRejected() {
+        final Executor idleExecutor = runnable -> { };
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .sendQueue(new SendQueueConfiguration(1, SendQueueConfiguration.OverloadPolicy.FAIL, 0))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, idleExecutor,
+                TIMEOUT_60_SECONDS, options);
+        final CompletionStage<String> queued = sender.send(msg -> { },
+                SendOptions.defaults().withPriority(EmailPriority.BULK));
+        final CompletionStage<String> rejected = sender.send(msg -> { });
+
+        assertThat(queued.toCompletableFuture()).isNotDone();
+        assertThatThrownBy(() -> { rejected.toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailRejectedException.class);
+        assertThat(sender.getQueuedMessageCount()).isEqualTo(1);
+        assertThat(sender.getQueuedMessageCount(EmailPriority.BULK)).isEqualTo(1);
+    }
+
+    @Test
+    public void messagesAreCreatedWithinTheCreationExecutor() {
+        final List<Runnable> creations = new ArrayList<>();
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .creationExecutor(creations::add)
+                .build();
+        final CheckingExecutor executor = new CheckingExecutor();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor, TIMEOUT_60_SECONDS,
+                options);
+        final AtomicInteger edits = new AtomicInteger();
+
+        sender.send(msg -> edits.incrementAndGet());
+
+        assertThat(edits.get()).isZero();
+        assertThat(executor.hasBeenUsed).isFalse();
+        creations.forEach(Runnable::run);
+        assertThat(edits.get()).isEqualTo(1);
+        assertThat(executor.hasBeenUsed).isTrue();
+    }
+
+    @Test
+    public void creationFailuresWithinTheCreationExecutorAreContainedInTheStage() {
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .creationExecutor(Runnable::run)
+                .build();
+        final CheckingExecutor executor = new CheckingExecutor();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor, TIMEOUT_60_SECONDS,
+                options);
+
+        final CompletionStage<String> result = sender.send(msg -> {
+            throw new IllegalStateException("Creation fails");
+        });
+
+        assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailCreationException.class)
+                .hasStackTraceContaining("Creation fails");
+        assertThat(executor.hasBeenUsed).isFalse();
+    }
+
+    @Test
+    public void messagesRejectedByTheCreationExecutorFailWithAnEmailRejectedException() {
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .creationExecutor(runnable -> {
+                    throw new RejectedExecutionException("Executor is shut down");
+                })
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, Runnable::run,
+                TIMEOUT_60_SECONDS, options);
+
+        final CompletionStage<String> result = sender.send(msg -> { });
+
+        assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailRejectedException.class);
+    }
+
+    @Test
+    public void duplicatesOfAnIdempotentSendAreNotSent() {
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .idempotency(new IdempotencyConfiguration(60 * 1000, 1000))
+                .build();
+        final AtomicInteger attempts = new AtomicInteger();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, Runnable::run,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                attempts.incrementAndGet();
+                message.saveChanges();
+            }
+        };
+        final AtomicInteger edits = new AtomicInteger();
+        final SendOptions sendOptions = SendOptions.defaults().withIdempotencyKey("order-1");
+
+        final String first = sender.send(msg -> edits.incrementAndGet(), sendOptions).toCompletableFuture().join();
+        final String second = sender.send(msg -> edits.incrementAndGet(), sendOptions).toCompletableFuture().join();
+        sender.send(msg -> edits.incrementAndGet(), SendOptions.defaults()).toCompletableFuture().join();
+
+        assertThat(first).isNotNull();
+        assertThat(second).isEqualTo(first);
+        assertThat(edits.get()).isEqualTo(2);
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void failedIdempotentSendsMayBeRepeated() {
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .idempotency(new IdempotencyConfiguration(60 * 1000, 1000))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, Runnable::run,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                message.saveChanges();
+            }
+        };
+        final SendOptions sendOptions = SendOptions.defaults().withIdempotencyKey("order-1");
+
+        assertThatThrownBy(() -> sender.send(msg -> { throw new IllegalStateException("Creation fails"); },
+                sendOptions)).isInstanceOf(EmailCreationException.class);
+
+        assertThat(sender.send(msg -> { }, sendOptions).toCompletableFuture().join()).isNotNull();
+    }
+
+    @Test
+    public void temporaryFailuresAreRetried() {
+        final FailingSender sender = new FailingSender(new RetryConfiguration(3, 1, 10), 451, 2);
+
+        sender.send(msg -> { }).toCompletableFuture().join();
+
+        assertThat(sender.attempts.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetried() {
+        final FailingSender sender = new FailingSender(new RetryConfiguration(3, 1, 10), 550, 1);
+        final CompletionStage<String> result = sender.send(msg -> { });
+
+        final EmailDeliveryException failure = failureOf(result);
+        assertThat(failure.getReplyCode()).isEqualTo(550);
+        assertThat(failure.isPermanent()).isTrue();
+        assertThat(sender.attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void retriesStopWhenTheAttemptsAreExhausted() {
+        final FailingSender sender = new FailingSender(new RetryConfiguration(2, 1, 10), 451, Integer.MAX_VALUE);
+        final CompletionStage<String> result = sender.send(msg -> { });
+
+        final EmailDeliveryException failure = failureOf(result);
+        assertThat(failure.getReplyCode()).isEqualTo(451);
+        assertThat(failure.isPermanent()).isFalse();
+        assertThat(sender.attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void combinedMessagesThatFailPermanentlyAreSentOneByOne() {
+        final List<String> transactions = new ArrayList<>();
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .coalescing(new CoalescingConfiguration(60 * 1000, 100))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, Runnable::run,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                final String recipients = InternetAddress.toString(message.getRecipients(Message.RecipientType.BCC));
+                transactions.add(recipients);
+                if (recipients.contains("unknown@domain.com")) {
+                    throw new SMTPSendFailedException("RCPT", 550, "550 Unknown recipient", null, null, null, null);
+                }
+            }
+        };
+        final List<CompletionStage<String>> results = new ArrayList<>();
+        for (final String recipient : new String[]{"a@domain.com", "unknown@domain.com", "b@domain.com"}) {
+            results.add(sender.send(msg -> {
+                msg.setSubject("Notification");
+                msg.setText("Text");
+                msg.setRecipients(Message.RecipientType.BCC, recipient);
+            }));
+        }
+
+        sender.close();
+
+        assertThat(transactions).containsExactly("a@domain.com, unknown@domain.com, b@domain.com",
+                "a@domain.com", "unknown@domain.com", "b@domain.com");
+        assertThat(results.get(0).toCompletableFuture().join()).isNotNull();
+        assertThat(failureOf(results.get(1)).getReplyCode()).isEqualTo(550);
+        assertThat(results.get(2).toCompletableFuture().join()).isNotNull();
+    }
+
+    @Test
+    public void coalescedMessagesAreFlushedOnTheExecutor() throws Exception {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+        final AtomicInteger sent = new AtomicInteger();
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .coalescing(new CoalescingConfiguration(50, 100))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, tasks::add,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) {
+                sent.incrementAndGet();
+            }
+        };
+        final List<CompletionStage<String>> results = new ArrayList<>();
+        for (final String recipient : new String[]{"a@domain.com", "b@domain.com"}) {
+            results.add(sender.send(msg -> {
+                msg.setSubject("Notification");
+                msg.setText("Text");
+                msg.setRecipients(Message.RecipientType.BCC, recipient);
+            }));
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (tasks.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(tasks).hasSize(1);
+        assertThat(sender.getQueuedMessageCount()).isEqualTo(0);
+
+        tasks.remove(0).run();
+        assertThat(sender.getQueuedMessageCount()).isEqualTo(1);
+        tasks.remove(0).run();
+
+        assertThat(sent.get()).isEqualTo(1);
+        assertThat(results.get(0).toCompletableFuture().join()).isEqualTo(results.get(1).toCompletableFuture().join());
+    }
+
+    @Test
+    public void cancelledMessagesAreNotSent() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final AtomicInteger sent = new AtomicInteger();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, tasks::add,
+                TIMEOUT_60_SECONDS) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) {
+                sent.incrementAndGet();
+            }
+        };
+        final CompletionStage<String> cancelled = sender.send(msg -> { });
+        final CompletionStage<String> kept = sender.send(msg -> { });
+
+        cancelled.toCompletableFuture().cancel(false);
+        tasks.forEach(Runnable::run);
+
+        assertThat(sent.get()).isEqualTo(1);
+        assertThat(kept.toCompletableFuture()).isCompleted();
+        assertThat(sender.getQueuedMessageCount()).isZero();
+    }
+
+    @Test
+    public void messagesThatExceedTheirTimeoutAreNotSent() throws Exception {
+        final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+        final AtomicInteger sent = new AtomicInteger();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, tasks::add,
+                TIMEOUT_60_SECONDS) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) {
+                sent.incrementAndGet();
+            }
+        };
+        final CompletionStage<String> result = sender.send(msg -> { }, SendOptions.defaults().withTimeoutMs(10));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (tasks.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        tasks.get(1).run();// the expiry, which is handed to the executor after the task that sends the message
+        tasks.get(0).run();
+
+        assertThatThrownBy(() -> { result.toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailRejectedException.class)
+                .hasStackTraceContaining("timeout of 10ms");
+        assertThat(sent.get()).isZero();
+    }
+
+    @Test
+    public void messagesWhoseTimeoutElapsesDuringTheTransferAreNotRejected() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch transferring = new CountDownLatch(1);
+        final CountDownLatch expired = new CountDownLatch(1);
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor,
+                TIMEOUT_60_SECONDS) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                transferring.countDown();
+                try {
+                    expired.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            final CompletableFuture<String> result = sender.send(msg -> { }, SendOptions.defaults().withTimeoutMs(50))
+                    .toCompletableFuture();
+            assertThat(transferring.await(10, TimeUnit.SECONDS)).isTrue();
+
+            assertThatThrownBy(result::join)
+                    .hasCauseExactlyInstanceOf(EmailDeliveryException.class)
+                    .hasStackTraceContaining("may still be delivered");
+            expired.countDown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentTransfersStayWithinTheAdaptiveLimit() throws Exception {
+        final AtomicInteger transfers = new AtomicInteger();
+        final AtomicInteger maxTransfers = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .adaptiveConcurrency(new AdaptiveConcurrencyConfiguration(2, 1, 2, 60 * 1000, 0.5))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                maxTransfers.accumulateAndGet(transfers.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                transfers.decrementAndGet();
+                message.saveChanges();
+            }
+        };
+        try {
+            final List<CompletionStage<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(sender.send(msg -> { }));
+            }
+            for (final CompletionStage<String> result : results) {
+                assertThat(result.toCompletableFuture().get(10, TimeUnit.SECONDS)).isNotNull();
+            }
+
+            assertThat(maxTransfers.get()).isEqualTo(2);
+            assertThat(sender.getConcurrencyLimit()).isEqualTo(2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rateLimitedMessagesDoNotWakeUpEveryTaskPerToken() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final Executor executor = command -> {
+            executions.incrementAndGet();
+            pool.execute(command);
+        };
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .rateLimit(new RateLimitConfiguration(50, 0, 0, 60 * 1000))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                message.saveChanges();
+            }
+        };
+        try {
+            final List<CompletionStage<String>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(sender.send(msg -> { }));
+            }
+            for (final CompletionStage<String> result : results) {
+                assertThat(result.toCompletableFuture().get(10, TimeUnit.SECONDS)).isNotNull();
+            }
+
+            // one task per message and at most one wake-up per token, instead of one wake-up per task per token
+            assertThat(executions.get()).isLessThanOrEqualTo(2 * 20);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void rateLimitedMessagesAreRejectedOnceTheyWaitedTheMaximumDelay() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .rateLimit(new RateLimitConfiguration(2, 0, 0, 250))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, executor,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                message.saveChanges();
+            }
+        };
+        try {
+            final List<CompletionStage<String>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(sender.send(msg -> { }));
+            }
+            int sent = 0;
+            int rejected = 0;
+            for (final CompletionStage<String> result : results) {
+                try {
+                    result.toCompletableFuture().get(10, TimeUnit.SECONDS);
+                    sent++;
+                } catch (ExecutionException e) {
+                    assertThat(e.getCause()).isInstanceOf(EmailRejectedException.class)
+                            .hasMessageContaining("maximum delay");
+                    rejected++;
+                }
+            }
+
+            // a burst of two e-mails, after which the next one would have to wait 500ms
+            assertThat(sent).isEqualTo(2);
+            assertThat(rejected).isEqualTo(20 - sent);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void openCircuitRejectsMessagesWithoutContactingTheServer() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final SmtpSenderOptions options = SmtpSenderOptions.builder()
+                .circuitBreaker(new CircuitBreakerConfiguration(2, 1, 60 * 1000, 1))
+                .build();
+        final SmtpAuthEmailSender sender = new SmtpAuthEmailSender(DUMMY_CONFIGURATION, Runnable::run,
+                TIMEOUT_60_SECONDS, options) {
+            @Override
+            protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+                attempts.incrementAndGet();
+                throw new SMTPSendFailedException("MAIL", 421, "421 Service not available", null, null, null, null);
+            }
+        };
+
+        assertThat(failureOf(sender.send(msg -> { })).getReplyCode()).isEqualTo(421);
+        assertThat(sender.getCircuitState()).isEqualTo(CircuitBreakerConfiguration.State.CLOSED);
+        assertThat(failureOf(sender.send(msg -> { })).getReplyCode()).isEqualTo(421);
+        assertThat(sender.getCircuitState()).isEqualTo(CircuitBreakerConfiguration.State.OPEN);
+
+        assertThatThrownBy(() -> { sender.send(msg -> { }).toCompletableFuture().join(); })
+                .hasCauseInstanceOf(EmailRejectedException.class)
+                .hasStackTraceContaining("circuit breaker is open");
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    private static EmailDeliveryException failureOf(final CompletionStage<String> result) {
+        try {
+            result.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(EmailDeliveryException.class);
+            return (EmailDeliveryException) e.getCause();
+        }
+        throw new AssertionError("The e-mail has been sent");
+    }
+
+    /**
+     * Fails the given number of attempts with the given reply code, and pretends to send the message afterwards.
+     */
+    private static class FailingSender extends SmtpAuthEmailSender {
+
+        private final int replyCode;
+
+        private final int failures;
+
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        FailingSender(final RetryConfiguration retry, final int replyCode, final int failures) {
+            super(DUMMY_CONFIGURATION, Runnable::run, TIMEOUT_60_SECONDS,
+                    SmtpSenderOptions.builder().retry(retry).build());
+            this.replyCode = replyCode;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void sendMessage(@Nonnull final MimeMessage message) throws MessagingException {
+            if (attempts.incrementAndGet() <= failures) {
+                throw new SMTPSendFailedException("DATA", replyCode, replyCode + " Failure", null, null, null, null);
+            }
+        }
+    }
+
     private static class CheckingExecutor implements Executor {
         private boolean hasBeenUsed = false;
 
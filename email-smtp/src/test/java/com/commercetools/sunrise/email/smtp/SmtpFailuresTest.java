@@ -0,0 +1,104 @@
+package com.commercetools.sunrise.email.smtp;
+
+import com.commercetools.sunrise.email.EmailDeliveryException;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.util.MailConnectException;
+import com.sun.mail.util.SocketConnectException;
+import org.junit.Test;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SmtpFailuresTest {
+
+    @Test
+    public void transientReplyCodesAreNotPermanent() {
+        final EmailDeliveryException exception = SmtpFailures.classify(sendFailed(451));
+
+        assertThat(exception.getReplyCode()).isEqualTo(451);
+        assertThat(exception.isPermanent()).isFalse();
+    }
+
+    @Test
+    public void permanentReplyCodesArePermanent() {
+        final EmailDeliveryException exception = SmtpFailures.classify(sendFailed(552));
+
+        assertThat(exception.getReplyCode()).isEqualTo(552);
+        assertThat(exception.isPermanent()).isTrue();
+    }
+
+    @Test
+    public void replyCodesOfRejectedRecipientsAreFoundInTheChainOfNextExceptions() throws Exception {
+        final SMTPAddressFailedException rejected = new SMTPAddressFailedException(
+                new InternetAddress("nobody@domain.com"), "RCPT TO:<nobody@domain.com>", 550, "550 No such user");
+        final SendFailedException failure = new SendFailedException("Invalid Addresses", rejected);
+
+        final EmailDeliveryException exception = SmtpFailures.classify(failure);
+
+        assertThat(exception.getReplyCode()).isEqualTo(550);
+        assertThat(exception.isPermanent()).isTrue();
+    }
+
+    @Test
+    public void connectionFailuresAreNotPermanent() {
+        final MessagingException refused = new MailConnectException(
+                new SocketConnectException("Connection refused", new ConnectException(), "host", 25, 1000));
+        final MessagingException timedOut = new MessagingException("Exception reading response",
+                new SocketTimeoutException());
+
+        assertThat(SmtpFailures.classify(refused).isPermanent()).isFalse();
+        assertThat(SmtpFailures.classify(refused).getReplyCode()).isEqualTo(EmailDeliveryException.NO_REPLY_CODE);
+        assertThat(SmtpFailures.classify(timedOut).isPermanent()).isFalse();
+    }
+
+    @Test
+    public void authenticationFailuresAreClassifiedByTheirReplyCode() {
+        assertThat(SmtpFailures.classify(new AuthenticationFailedException("535 5.7.8 Bad credentials")).isPermanent())
+                .isTrue();
+        assertThat(SmtpFailures.classify(new AuthenticationFailedException("454 4.7.0 Try again")).isPermanent())
+                .isFalse();
+        assertThat(SmtpFailures.classify(new AuthenticationFailedException("failed")).isPermanent()).isTrue();
+    }
+
+    @Test
+    public void unavailablePooledConnectionsAreNotPermanent() {
+        final EmailDeliveryException exception = SmtpFailures.classify(
+                new SmtpConnectionPool.UnavailableException("No SMTP connection became available within 10ms"));
+
+        assertThat(exception.isPermanent()).isFalse();
+        assertThat(exception.getReplyCode()).isEqualTo(EmailDeliveryException.NO_REPLY_CODE);
+        assertThat(SmtpFailures.isServerFailure(exception.getCause())).isFalse();
+    }
+
+    @Test
+    public void otherFailuresArePermanent() {
+        assertThat(SmtpFailures.classify(new AddressException("Illegal address")).isPermanent()).isTrue();
+        assertThat(SmtpFailures.classify(new IllegalStateException()).isPermanent()).isTrue();
+    }
+
+    @Test
+    public void serverFailuresAreTheFaultOfTheServerRatherThanOfTheEmail() {
+        final MessagingException refused = new MailConnectException(
+                new SocketConnectException("Connection refused", new ConnectException(), "host", 25, 1000));
+
+        assertThat(SmtpFailures.isServerFailure(refused)).isTrue();
+        assertThat(SmtpFailures.isServerFailure(new AuthenticationFailedException("535 5.7.8 Bad credentials")))
+                .isTrue();
+        assertThat(SmtpFailures.isServerFailure(sendFailed(421))).isTrue();
+        assertThat(SmtpFailures.isServerFailure(sendFailed(452))).isFalse();
+        assertThat(SmtpFailures.isServerFailure(sendFailed(550))).isFalse();
+        assertThat(SmtpFailures.isServerFailure(new AddressException("Illegal address"))).isFalse();
+    }
+
+    private static SMTPSendFailedException sendFailed(final int code) {
+        return new SMTPSendFailedException("DATA", code, code + " Failure", null, null, null, null);
+    }
+}
@@ -0,0 +1,77 @@
+package com.commercetools.sunrise.email.smtp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class VirtualThreadExecutorTest {
+
+    @Test
+    public void atMostMaxConcurrencyTasksRunAtTheSameTime() throws Exception {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor(3, Thread::new);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(3);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(20);
+
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.getQueuedTaskCount()).isEqualTo(17);
+        release.countDown();
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isEqualTo(3);
+        assertThat(executor.getQueuedTaskCount()).isZero();
+    }
+
+    @Test
+    public void failingTasksDoNotStopWaitingTasks() throws Exception {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable);
+            thread.setUncaughtExceptionHandler((t, e) -> { });
+            return thread;
+        });
+        final CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(() -> { throw new IllegalStateException("Task fails"); });
+        executor.execute(done::countDown);
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void availabilityDependsOnTheJavaVersion() {
+        final String version = System.getProperty("java.specification.version");
+        final boolean java21 = !version.startsWith("1.") && Integer.parseInt(version) >= 21;
+
+        assertThat(VirtualThreadExecutor.isAvailable()).isEqualTo(java21);
+        if (!java21) {
+            assertThatThrownBy(() -> new VirtualThreadExecutor(10))
+                    .isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+
+    @Test
+    public void maxConcurrencyMustBePositive() {
+        assertThatThrownBy(() -> new VirtualThreadExecutor(0, Thread::new))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}